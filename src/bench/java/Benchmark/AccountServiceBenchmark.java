@@ -0,0 +1,63 @@
+package Benchmark;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Model.Account;
+import Service.AccountService;
+
+/**
+ * Latency of registering and logging in through AccountService, including its validation and the DAO calls behind
+ * it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccountServiceBenchmark {
+
+    @Param({"1000", "100000"})
+    public int messageCount;
+
+    private AccountService accountService;
+    private BenchmarkDataset dataset;
+    /**
+     * Registration needs a fresh username every time, or it would only measure the duplicate-username rejection.
+     */
+    private final AtomicInteger nextUser = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        dataset = BenchmarkDataset.load(messageCount);
+        accountService = new AccountService();
+    }
+
+    @Benchmark
+    public Account registerUser() {
+        return accountService.registerUser(new Account("newuser" + nextUser.incrementAndGet(), "password"));
+    }
+
+    @Benchmark
+    public Account loginUser() {
+        int account_id = 1 + ThreadLocalRandom.current().nextInt(dataset.getAccountCount());
+        return accountService.loginUser(new Account(
+                BenchmarkDataset.username(account_id), BenchmarkDataset.password(account_id)));
+    }
+}
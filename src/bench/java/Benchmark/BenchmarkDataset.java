@@ -0,0 +1,108 @@
+package Benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+import Util.ConnectionUtil;
+
+/**
+ * Builds a reproducible dataset for the benchmarks: the database is reset from SocialMedia.sql and filled with a
+ * fixed number of accounts and messages generated from a fixed seed, so two runs of the same benchmark at the same
+ * size read and write exactly the same data.
+ *
+ * Rows are inserted with JDBC batches rather than through the DAOs, so seeding a large dataset stays quick.
+ */
+public class BenchmarkDataset {
+
+    /**
+     * Seed for the generated message text and timestamps.
+     */
+    private static final long SEED = 42L;
+    /**
+     * How many messages each account owns on average.
+     */
+    private static final int MESSAGES_PER_ACCOUNT = 100;
+    private static final int BATCH_SIZE = 1000;
+
+    private final int accountCount;
+    private final int messageCount;
+
+    private BenchmarkDataset(int accountCount, int messageCount) {
+        this.accountCount = accountCount;
+        this.messageCount = messageCount;
+    }
+
+    /**
+     * Resets the database and loads a dataset with the given number of messages, spread over one account per
+     * MESSAGES_PER_ACCOUNT messages. SocialMedia.sql already inserts account 1 and message 1, which count towards the
+     * totals.
+     *
+     * @param messageCount The total number of messages to end up with.
+     * @return a description of what was loaded, for picking valid ids in the benchmarks.
+     */
+    public static BenchmarkDataset load(int messageCount) throws SQLException {
+        ConnectionUtil.resetTestDatabase();
+        int accountCount = Math.max(1, messageCount / MESSAGES_PER_ACCOUNT);
+        Random random = new Random(SEED);
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement insertAccount = connection.prepareStatement(
+                    "INSERT INTO Account (username, password) VALUES (?, ?)")) {
+                for (int i = 2; i <= accountCount; i++) {
+                    insertAccount.setString(1, username(i));
+                    insertAccount.setString(2, password(i));
+                    insertAccount.addBatch();
+                    if (i % BATCH_SIZE == 0) {
+                        insertAccount.executeBatch();
+                    }
+                }
+                insertAccount.executeBatch();
+            }
+            try (PreparedStatement insertMessage = connection.prepareStatement(
+                    "INSERT INTO Message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)")) {
+                long epoch = 1669947792L;
+                for (int i = 2; i <= messageCount; i++) {
+                    epoch += random.nextInt(60);
+                    insertMessage.setInt(1, 1 + random.nextInt(accountCount));
+                    insertMessage.setString(2, "benchmark message " + i + " " + Long.toHexString(random.nextLong()));
+                    insertMessage.setLong(3, epoch);
+                    insertMessage.addBatch();
+                    if (i % BATCH_SIZE == 0) {
+                        insertMessage.executeBatch();
+                    }
+                }
+                insertMessage.executeBatch();
+            }
+            connection.commit();
+            try (Statement analyze = connection.createStatement()) {
+                analyze.execute("ANALYZE");
+            }
+        }
+        return new BenchmarkDataset(accountCount, messageCount);
+    }
+
+    /**
+     * @return the username of the seeded account with the given id. Account 1 comes from SocialMedia.sql.
+     */
+    public static String username(int account_id) {
+        return account_id == 1 ? "testuser1" : "benchuser" + account_id;
+    }
+
+    /**
+     * @return the password of the seeded account with the given id.
+     */
+    public static String password(int account_id) {
+        return account_id == 1 ? "password" : "password" + account_id;
+    }
+
+    public int getAccountCount() {
+        return accountCount;
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+}
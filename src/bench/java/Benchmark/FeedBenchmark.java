@@ -0,0 +1,140 @@
+package Benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.AccountDAO;
+import DAO.FollowDAO;
+import DAO.MessageDAO;
+import Model.Message;
+import Service.AccountCache;
+import Service.FeedService;
+import Service.MessageService;
+import Util.ConnectionUtil;
+
+/**
+ * Home feed reads and posts over a seeded dataset with a synthetic power-law follower graph: every account follows a
+ * fixed number of others, picked with Zipf-distributed popularity, so a handful of accounts collect most of the
+ * followers the way real social graphs do. Accounts above a tenth of the population in followers are celebrities.
+ *
+ * hybridFeed reads through FeedService (pushed buffers merged with pulled celebrity timelines), pullFeed runs the pure
+ * pull join over follow and message, and createMessage measures a post including its fan-out to loaded feeds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FeedBenchmark {
+
+    /**
+     * Seed for the follower graph.
+     */
+    private static final long SEED = 7L;
+    private static final int FOLLOWS_PER_ACCOUNT = 20;
+    /**
+     * Zipf exponent of account popularity.
+     */
+    private static final double SKEW = 1.0;
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"1000", "100000"})
+    public int messageCount;
+
+    private BenchmarkDataset dataset;
+    private MessageDAO messageDAO;
+    private MessageService messageService;
+    private FeedService feedService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        dataset = BenchmarkDataset.load(messageCount);
+        loadFollowGraph(dataset.getAccountCount());
+        messageDAO = new MessageDAO();
+        AccountCache accountCache = new AccountCache(new AccountDAO());
+        messageService = new MessageService(accountCache);
+        feedService = new FeedService(new FollowDAO(), messageDAO, messageService, accountCache, 500, 10000,
+                Math.max(2, dataset.getAccountCount() / 10));
+        messageService.addMessageCreatedListener(feedService::messageCreated);
+    }
+
+    @Benchmark
+    public List<Message> hybridFeed() {
+        return feedService.getFeed(randomAccount(), Long.MAX_VALUE, Integer.MAX_VALUE, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Message> pullFeed() {
+        return messageDAO.getFeedBeforeTime(randomAccount(), Long.MAX_VALUE, Integer.MAX_VALUE, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public Message createMessage() {
+        return messageService.createMessage(new Message(randomAccount(), "benchmark post", 1700000000L));
+    }
+
+    private int randomAccount() {
+        return 1 + ThreadLocalRandom.current().nextInt(dataset.getAccountCount());
+    }
+
+    /**
+     * Makes every account follow up to FOLLOWS_PER_ACCOUNT distinct others, where account i is picked with weight
+     * 1 / i^SKEW.
+     */
+    private static void loadFollowGraph(int accountCount) throws SQLException {
+        double[] cumulative = new double[accountCount];
+        double total = 0;
+        for (int i = 0; i < accountCount; i++) {
+            total += 1 / Math.pow(i + 1, SKEW);
+            cumulative[i] = total;
+        }
+        Random random = new Random(SEED);
+        int follows = Math.min(FOLLOWS_PER_ACCOUNT, accountCount - 1);
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement insertFollow = connection.prepareStatement(
+                    "INSERT INTO Follow (follower_id, followee_id) VALUES (?, ?)")) {
+                for (int follower = 1; follower <= accountCount; follower++) {
+                    Set<Integer> followees = new HashSet<>();
+                    while (followees.size() < follows) {
+                        int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                        int followee = 1 + (index < 0 ? -index - 1 : index);
+                        if (followee != follower && followee <= accountCount && followees.add(followee)) {
+                            insertFollow.setInt(1, follower);
+                            insertFollow.setInt(2, followee);
+                            insertFollow.addBatch();
+                        }
+                    }
+                    insertFollow.executeBatch();
+                }
+            }
+            connection.commit();
+            try (Statement analyze = connection.createStatement()) {
+                analyze.execute("ANALYZE");
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package Benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Model.Message;
+import Util.JsonUtil;
+
+/**
+ * JSON round trips of a Message as the controller does them: parse a request body and write a response body.
+ *
+ * perRequestMapper is the old controller path (a new ObjectMapper per request and a String body that Javalin encodes
+ * again) and sharedMapper is the current one. Run with -prof gc to compare the bytes allocated per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    private static final byte[] REQUEST_BODY = ("{\"posted_by\":1, \"message_text\": \"hello message\", "
+            + "\"time_posted_epoch\": 1669947792}").getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public byte[] perRequestMapper() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        Message message = mapper.readValue(new String(REQUEST_BODY, StandardCharsets.UTF_8), Message.class);
+        message.setMessage_id(2);
+        String json = mapper.writeValueAsString(message);
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] sharedMapper() throws IOException {
+        ObjectMapper mapper = JsonUtil.getObjectMapper();
+        Message message = mapper.readValue(REQUEST_BODY, Message.class);
+        message.setMessage_id(2);
+        return mapper.writeValueAsBytes(message);
+    }
+}
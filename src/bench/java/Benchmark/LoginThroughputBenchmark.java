@@ -0,0 +1,63 @@
+package Benchmark;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Model.Account;
+import Service.AccountService;
+
+/**
+ * Logins per second with many callers at once, at two password hashing costs. Every caller blocks on its login the
+ * way a request thread would, while the hashing itself is bounded by the password hasher's pool; the score shows what
+ * a cost setting does to login capacity. Every seeded account is logged in once first, so the measured logins check
+ * hashes rather than rehash plaintext passwords.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(16)
+@Fork(1)
+public class LoginThroughputBenchmark {
+
+    @Param({"100000", "600000"})
+    public int iterations;
+
+    private AccountService accountService;
+    private BenchmarkDataset dataset;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        dataset = BenchmarkDataset.load(1000);
+        accountService = new AccountService();
+        accountService.getPasswordHasher().setIterations(iterations);
+        for (int account_id = 1; account_id <= dataset.getAccountCount(); account_id++) {
+            accountService.loginUser(login(account_id));
+        }
+    }
+
+    @Benchmark
+    public Account loginUser() {
+        return accountService.loginUser(login(1 + ThreadLocalRandom.current().nextInt(dataset.getAccountCount())));
+    }
+
+    private static Account login(int account_id) {
+        return new Account(BenchmarkDataset.username(account_id), BenchmarkDataset.password(account_id));
+    }
+}
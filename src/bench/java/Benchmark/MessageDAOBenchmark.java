@@ -0,0 +1,94 @@
+package Benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.FollowDAO;
+import DAO.InMemoryMessageRepository;
+import DAO.MessageDAO;
+import DAO.MessageRepository;
+import DAO.WalStore;
+import Model.Message;
+
+/**
+ * Latency of the MessageDAO hot paths against a seeded H2 database. The dataset size is a parameter, so the same run
+ * shows whether a lookup stays flat as the message table grows; override it with -p messageCount=...
+ *
+ * With storage=memory the same paths run against an InMemoryMessageRepository loaded with the seeded messages, which
+ * shows how much of each call is the database. With storage=wal they run against a WalStore in a temporary directory,
+ * which adds appending each write to its log.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageDAOBenchmark {
+
+    @Param({"1000", "100000"})
+    public int messageCount;
+
+    @Param({"h2", "memory", "wal"})
+    public String storage;
+
+    private MessageRepository messageRepository;
+    private WalStore walStore;
+    private BenchmarkDataset dataset;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException, IOException {
+        dataset = BenchmarkDataset.load(messageCount);
+        messageRepository = new MessageDAO();
+        if (storage.equals("memory")) {
+            InMemoryMessageRepository inMemory = new InMemoryMessageRepository(new FollowDAO());
+            inMemory.insertMessages(messageRepository.getAllMessages());
+            messageRepository = inMemory;
+        } else if (storage.equals("wal")) {
+            walStore = new WalStore(Files.createTempDirectory("wal-bench"), 64 * 1024 * 1024, false, 100000);
+            walStore.getMessageRepository().insertMessages(messageRepository.getAllMessages());
+            messageRepository = walStore.getMessageRepository();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (walStore != null) {
+            walStore.close();
+        }
+    }
+
+    @Benchmark
+    public Message createMessage() {
+        int posted_by = 1 + ThreadLocalRandom.current().nextInt(dataset.getAccountCount());
+        return messageRepository.createMessage(new Message(posted_by, "benchmark post", 1700000000L));
+    }
+
+    @Benchmark
+    public Message getMessageByID() {
+        return messageRepository.getMessageByID(1 + ThreadLocalRandom.current().nextInt(dataset.getMessageCount()));
+    }
+
+    @Benchmark
+    public List<Message> getAllMessagesFromUser() {
+        return messageRepository.getAllMessagesFromUser(1 + ThreadLocalRandom.current().nextInt(dataset.getAccountCount()));
+    }
+}
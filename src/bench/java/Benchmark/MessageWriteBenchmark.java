@@ -0,0 +1,118 @@
+package Benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+
+/**
+ * Update-and-return and delete-and-return latency. The legacy benchmarks replay what MessageDAO and MessageService
+ * used to do, one statement per connection (UPDATE then SELECT, and SELECT then DELETE); the others call the DAO,
+ * which does each in a single FINAL TABLE / OLD TABLE statement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageWriteBenchmark {
+
+    @Param({"1000", "100000"})
+    public int messageCount;
+
+    private MessageDAO messageDAO;
+    private BenchmarkDataset dataset;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        dataset = BenchmarkDataset.load(messageCount);
+        messageDAO = new MessageDAO();
+    }
+
+    @Benchmark
+    public Message updateMessageByID() {
+        return messageDAO.updateMessageByID(randomMessageID(), "updated " + System.nanoTime());
+    }
+
+    @Benchmark
+    public Message legacyUpdateThenSelect() throws SQLException {
+        int message_id = randomMessageID();
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement update = connection.prepareStatement(
+                     "UPDATE Message SET message_text = ? WHERE message_id = ?;")) {
+            update.setString(1, "updated " + System.nanoTime());
+            update.setInt(2, message_id);
+            update.executeUpdate();
+        }
+        return select(message_id);
+    }
+
+    @Benchmark
+    public Message deleteMessageByID(DeleteTarget target) {
+        return messageDAO.deleteMessageByID(target.message_id);
+    }
+
+    @Benchmark
+    public Message legacySelectThenDelete(DeleteTarget target) throws SQLException {
+        Message message = select(target.message_id);
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement delete = connection.prepareStatement("DELETE FROM Message WHERE message_id = ?;")) {
+            delete.setInt(1, target.message_id);
+            delete.executeUpdate();
+        }
+        return message;
+    }
+
+    private Message select(int message_id) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement select = connection.prepareStatement("SELECT * FROM Message WHERE message_id = ?;")) {
+            select.setInt(1, message_id);
+            try (ResultSet resultSet = select.executeQuery()) {
+                return resultSet.next()
+                        ? new Message(resultSet.getInt("message_id"), resultSet.getInt("posted_by"),
+                                resultSet.getString("message_text"), resultSet.getLong("time_posted_epoch"))
+                        : null;
+            }
+        }
+    }
+
+    private int randomMessageID() {
+        return 1 + ThreadLocalRandom.current().nextInt(dataset.getMessageCount());
+    }
+
+    /**
+     * A freshly inserted message for each delete to remove, so the delete benchmarks never run out of rows. The
+     * insert happens outside the measured time.
+     */
+    @State(Scope.Thread)
+    public static class DeleteTarget {
+        // one DAO for every insert, so they all take ids from the same reserved block
+        final MessageDAO messageDAO = new MessageDAO();
+        int message_id;
+
+        @Setup(Level.Invocation)
+        public void insert() {
+            message_id = messageDAO.createMessage(new Message(1, "to be deleted", 1700000000L)).getMessage_id();
+        }
+    }
+}
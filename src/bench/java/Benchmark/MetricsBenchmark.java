@@ -0,0 +1,52 @@
+package Benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Util.LatencyHistogram;
+import Util.Metrics;
+
+/**
+ * What instrumentation costs a request, with 8 threads recording at once as request threads would. recordQuery is the
+ * histogram update every connection pays when it is returned; recordRequest also finds the route's histogram and
+ * status counter by name. Both should stay far below the microseconds of the cheapest query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class MetricsBenchmark {
+
+    private final LatencyHistogram queryTimes = Metrics.getQueryTimes("MessageDAO.getMessageByID");
+
+    @Benchmark
+    public void recordQuery() {
+        queryTimes.record(randomLatency());
+    }
+
+    @Benchmark
+    public void recordRequest() {
+        Metrics.recordRequest("GET", "/messages/{message_id}", 200, randomLatency());
+    }
+
+    /**
+    * @return a latency between 10 and 1010 microseconds, so records spread over many buckets as they would for real.
+    */
+    private static long randomLatency() {
+        return 10_000 + ThreadLocalRandom.current().nextLong(1_000_000);
+    }
+}
@@ -0,0 +1,212 @@
+package Benchmark;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import Controller.SocialMediaController;
+import io.javalin.Javalin;
+
+/**
+ * Compares the server's platform-thread and virtual-thread modes under many concurrent clients. For each mode the
+ * database is reloaded with the benchmark dataset, the API is started in this JVM with socialmedia.server.threads set
+ * to that mode, and the given number of clients send requests as fast as they get answers for a fixed time. The
+ * throughput and latency percentiles of every mode are printed side by side at the end.
+ *
+ * Each client is closed-loop: it sends its next request only once the previous one was answered, over its own
+ * HTTP/1.1 connection. Requests are a mix of 70% GET /accounts/{account_id}/messages, 20% GET /messages pages and
+ * 10% POST /messages, picked from a fixed seed per client, all of which reach the database.
+ *
+ * Build it with the bench profile and run it from the project root; the arguments are all optional:
+ *     java -cp target/benchmarks.jar Benchmark.ServerLoadTest [clients] [seconds] [warmupSeconds] [modes] [port]
+ * for example
+ *     java -cp target/benchmarks.jar Benchmark.ServerLoadTest 2000 30 10 platform,virtual 8080
+ * Virtual threads need Java 21; on older runtimes the virtual mode falls back to platform threads with a warning.
+ */
+public class ServerLoadTest {
+
+    private static final long SEED = 42L;
+    private static final int MESSAGE_COUNT = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int warmupSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String[] modes = (args.length > 3 ? args[3] : "platform,virtual").split(",");
+        int port = args.length > 4 ? Integer.parseInt(args[4]) : 8080;
+
+        Result[] results = new Result[modes.length];
+        for (int i = 0; i < modes.length; i++) {
+            results[i] = run(modes[i], clients, seconds, warmupSeconds, port);
+        }
+
+        System.out.printf("%n%d clients, %ds measured after %ds warmup, Java %s%n",
+                clients, seconds, warmupSeconds, Runtime.version());
+        System.out.printf("%-10s %10s %8s %10s %10s %10s %10s%n",
+                "mode", "requests", "errors", "req/s", "p50 ms", "p99 ms", "max ms");
+        for (Result result : results) {
+            System.out.println(result);
+        }
+    }
+
+    /**
+     * Runs one mode against a freshly loaded database and returns what was measured.
+     */
+    private static Result run(String mode, int clients, int seconds, int warmupSeconds, int port) throws Exception {
+        BenchmarkDataset dataset = BenchmarkDataset.load(MESSAGE_COUNT);
+        System.setProperty("socialmedia.server.threads", mode);
+        Javalin app = new SocialMediaController().startAPI().start(port);
+        try {
+            HttpClient webClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .build();
+            long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+            long stopAt = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+            AtomicLong errors = new AtomicLong();
+
+            Client[] running = new Client[clients];
+            CompletableFuture<?>[] done = new CompletableFuture<?>[clients];
+            for (int i = 0; i < clients; i++) {
+                running[i] = new Client(webClient, dataset, "http://localhost:" + port, new Random(SEED + i),
+                        measureFrom, stopAt, errors);
+                done[i] = running[i].start();
+            }
+            CompletableFuture.allOf(done).join();
+
+            int count = 0;
+            for (Client client : running) {
+                count += client.count;
+            }
+            long[] latencies = new long[count];
+            int offset = 0;
+            for (Client client : running) {
+                System.arraycopy(client.latencies, 0, latencies, offset, client.count);
+                offset += client.count;
+            }
+            Arrays.sort(latencies);
+            return new Result(mode, latencies, errors.get(), seconds);
+        } finally {
+            app.stop();
+        }
+    }
+
+    /**
+     * One simulated user. Its requests are strictly sequential, so the latency array needs no synchronization even
+     * though each response is handled on whichever thread completes it.
+     */
+    private static final class Client {
+        final HttpClient webClient;
+        final BenchmarkDataset dataset;
+        final String baseUri;
+        final Random random;
+        final long measureFrom;
+        final long stopAt;
+        final AtomicLong errors;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        long[] latencies = new long[1024];
+        int count;
+
+        Client(HttpClient webClient, BenchmarkDataset dataset, String baseUri, Random random, long measureFrom,
+               long stopAt, AtomicLong errors) {
+            this.webClient = webClient;
+            this.dataset = dataset;
+            this.baseUri = baseUri;
+            this.random = random;
+            this.measureFrom = measureFrom;
+            this.stopAt = stopAt;
+            this.errors = errors;
+        }
+
+        CompletableFuture<Void> start() {
+            sendNext();
+            return done;
+        }
+
+        private void sendNext() {
+            long sentAt = System.nanoTime();
+            if (sentAt >= stopAt) {
+                done.complete(null);
+                return;
+            }
+            webClient.sendAsync(nextRequest(), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, failure) -> {
+                        long answeredAt = System.nanoTime();
+                        if (sentAt >= measureFrom && answeredAt < stopAt) {
+                            if (failure != null || response.statusCode() >= 300) {
+                                errors.incrementAndGet();
+                            } else {
+                                record(answeredAt - sentAt);
+                            }
+                        }
+                        sendNext();
+                    });
+        }
+
+        private HttpRequest nextRequest() {
+            int account_id = 1 + random.nextInt(dataset.getAccountCount());
+            int pick = random.nextInt(10);
+            if (pick < 7) {
+                return HttpRequest.newBuilder(URI.create(baseUri + "/accounts/" + account_id + "/messages")).build();
+            }
+            if (pick < 9) {
+                int after = random.nextInt(dataset.getMessageCount());
+                return HttpRequest.newBuilder(URI.create(baseUri + "/messages?limit=20&after=" + after)).build();
+            }
+            String body = "{\"posted_by\":" + account_id + ", \"message_text\": \"load test message\", "
+                    + "\"time_posted_epoch\": " + System.currentTimeMillis() / 1000 + "}";
+            return HttpRequest.newBuilder(URI.create(baseUri + "/messages"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+        }
+
+        private void record(long nanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+        }
+    }
+
+    private static final class Result {
+        final String mode;
+        final long[] sortedLatencies;
+        final long errors;
+        final int seconds;
+
+        Result(String mode, long[] sortedLatencies, long errors, int seconds) {
+            this.mode = mode;
+            this.sortedLatencies = sortedLatencies;
+            this.errors = errors;
+            this.seconds = seconds;
+        }
+
+        private double percentileMillis(double quantile) {
+            if (sortedLatencies.length == 0) {
+                return 0.0;
+            }
+            int index = (int) Math.ceil(quantile * sortedLatencies.length) - 1;
+            return sortedLatencies[Math.max(0, index)] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-10s %10d %8d %10.0f %10.2f %10.2f %10.2f",
+                    mode,
+                    sortedLatencies.length,
+                    errors,
+                    (double) sortedLatencies.length / seconds,
+                    percentileMillis(0.50),
+                    percentileMillis(0.99),
+                    percentileMillis(1.0));
+        }
+    }
+}
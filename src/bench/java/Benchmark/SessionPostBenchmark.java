@@ -0,0 +1,80 @@
+package Benchmark;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.AccountDAO;
+import Model.Message;
+import Service.AccountCache;
+import Service.MessageService;
+import Service.SessionTokens;
+
+/**
+ * Latency of posting a message by how its author is established. postCheckingAccount looks posted_by up in the
+ * database on every post, as the service did before accounts were cached; postCheckingCachedAccount goes through the
+ * account cache; postWithSessionToken verifies a session token's signature and looks nothing up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionPostBenchmark {
+
+    @Param({"1000", "100000"})
+    public int messageCount;
+
+    private BenchmarkDataset dataset;
+    private MessageService uncachedMessageService;
+    private MessageService messageService;
+    private SessionTokens sessionTokens;
+    private String[] tokens;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        dataset = BenchmarkDataset.load(messageCount);
+        // a one-entry cache misses for almost every random account
+        uncachedMessageService = new MessageService(new AccountCache(new AccountDAO(), 1, 0));
+        messageService = new MessageService();
+        sessionTokens = new SessionTokens();
+        tokens = new String[dataset.getAccountCount() + 1];
+        for (int account_id = 1; account_id <= dataset.getAccountCount(); account_id++) {
+            tokens[account_id] = sessionTokens.issue(account_id);
+        }
+    }
+
+    @Benchmark
+    public Message postCheckingAccount() {
+        return uncachedMessageService.createMessage(new Message(randomAccount(), "benchmark post", 1700000000L));
+    }
+
+    @Benchmark
+    public Message postCheckingCachedAccount() {
+        return messageService.createMessage(new Message(randomAccount(), "benchmark post", 1700000000L));
+    }
+
+    @Benchmark
+    public Message postWithSessionToken() {
+        Integer author = sessionTokens.verify(tokens[randomAccount()]);
+        return messageService.createMessageAs(author, new Message(0, "benchmark post", 1700000000L));
+    }
+
+    private int randomAccount() {
+        return 1 + ThreadLocalRandom.current().nextInt(dataset.getAccountCount());
+    }
+}
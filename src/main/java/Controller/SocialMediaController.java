@@ -1,16 +1,61 @@
 package Controller;
 
 
+import DAO.AccountDAO;
+import DAO.AccountRepository;
+import DAO.DataAccessException;
+import DAO.FollowDAO;
+import DAO.FollowRepository;
+import DAO.InMemoryAccountRepository;
+import DAO.InMemoryFollowRepository;
+import DAO.InMemoryMessageRepository;
+import DAO.MessageDAO;
+import DAO.MessageRepository;
+import DAO.WalStore;
+import Service.AccountCache;
 import Service.AccountService;
+import Service.FeedService;
 import Model.Account;
 import Service.MessageService;
+import Service.SessionTokens;
+import Service.NotAuthorException;
+import Service.VersionConflictException;
+import Service.WriteQueueFullException;
 import Model.Message;
+import Model.VersionedMessage;
+import Util.ConnectionUnavailableException;
+import Util.JsonUtil;
+import Util.Metrics;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.javalin.Javalin;
+import io.javalin.compression.Brotli;
+import io.javalin.compression.CompressionStrategy;
+import io.javalin.compression.Gzip;
+import io.javalin.config.JavalinConfig;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.Header;
+import io.javalin.http.UnauthorizedResponse;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import javax.management.JMException;
 
 /**
  * TODO: You will need to write your own endpoints and handlers for your controller. The endpoints you will need can be
@@ -19,12 +64,90 @@ import java.util.List;
  */
 public class SocialMediaController {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(SocialMediaController.class);
+
+    /**
+    * The page size used when a paginated request gives no limit.
+    */
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    /**
+    * The response header a successful login sends its session token in.
+    */
+    private static final String SESSION_TOKEN_HEADER = "X-Session-Token";
+    /**
+    * A class of the jvm-brotli library, which brotli compression needs.
+    */
+    private static final String BROTLI_LOADER = "com.nixxcode.jvmbrotli.common.BrotliLoader";
+
+    /**
+    * The application-wide mapper, shared with Javalin so that every request reuses the same serializers.
+    */
+    private final ObjectMapper mapper = JsonUtil.getObjectMapper();
+    /**
+    * Writer for streamed responses. Flushing after every message would turn each row into its own chunk on the wire.
+    */
+    private final ObjectWriter streamWriter = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    private AccountCache accountCache;
+    private SessionTokens sessionTokens;
     private AccountService accountService;
     private MessageService messageService;
+    private FeedService feedService;
+    /**
+    * Set when socialmedia.storage is wal, to be closed once the server has stopped.
+    */
+    private WalStore walStore;
+    /**
+    * When this controller was made, in base 36, so list ETags from before a restart never match after it.
+    */
+    private final String startedAt = Long.toString(System.currentTimeMillis(), 36);
 
+    /**
+    * Stores accounts and messages where socialmedia.storage says:
+    * - h2 (the default): in the H2 database, through AccountDAO, MessageDAO and FollowDAO.
+    * - memory: in the heap, through InMemoryAccountRepository, InMemoryMessageRepository and InMemoryFollowRepository,
+    *   so no request touches the database. Nothing survives a restart.
+    * - wal: in the heap as well, with every change appended to a write-ahead log under socialmedia.wal.dir, from
+    *   which WalStore recovers everything on the next start. No database is used.
+    */
     public SocialMediaController() {
-        this.accountService = new AccountService();
-        this.messageService = new MessageService();
+        String storage = System.getProperty("socialmedia.storage", "h2");
+        AccountRepository accountRepository;
+        MessageRepository messageRepository;
+        FollowRepository followRepository;
+        if (storage.equals("h2")) {
+            accountRepository = new AccountDAO();
+            messageRepository = new MessageDAO();
+            followRepository = new FollowDAO();
+        } else if (storage.equals("memory")) {
+            accountRepository = new InMemoryAccountRepository();
+            followRepository = new InMemoryFollowRepository();
+            messageRepository = new InMemoryMessageRepository(followRepository);
+        } else if (storage.equals("wal")) {
+            try {
+                this.walStore = new WalStore();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            accountRepository = walStore.getAccountRepository();
+            messageRepository = walStore.getMessageRepository();
+            followRepository = walStore.getFollowRepository();
+        } else {
+            throw new IllegalArgumentException("socialmedia.storage must be h2, memory or wal: " + storage);
+        }
+        // both services share one account cache, so accounts registered through one are seen by the other
+        this.accountCache = new AccountCache(accountRepository);
+        this.accountService = new AccountService(accountCache, accountRepository);
+        this.sessionTokens = new SessionTokens();
+        this.messageService = new MessageService(accountCache, messageRepository);
+        this.feedService = new FeedService(followRepository, messageRepository, messageService, accountCache);
+        messageService.addMessageCreatedListener(feedService::messageCreated);
+        try {
+            accountService.getPasswordHasher().registerMBean();
+        } catch (JMException e) {
+            LOGGER.warn("Could not register the password hasher with JMX", e);
+        }
     }
 
     /**
@@ -33,97 +156,457 @@ public class SocialMediaController {
     * @return a Javalin app object which defines the behavior of the Javalin controller.
     */
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
+        Javalin app = Javalin.create(config -> {
+            config.jsonMapper(JsonUtil.getJsonMapper());
+            configureThreads(config);
+            configureCompression(config);
+            config.requestLogger.http(this::recordRequest);
+        });
         app.post("/register", this::registerUserHandler);
         app.post("/login", this::loginUserHandler);
         app.post("/messages", this::createMessageHandler);
+        app.post("/messages/batch", this::createMessageBatchHandler);
         app.get("/messages", this::getAllMessagesHandler);
+        // registered before /messages/{message_id}, which would otherwise take "search" for an id
+        app.get("/messages/search", this::searchMessagesHandler);
         app.get("/messages/{message_id}", this::getMessageByIDHandler);
         app.delete("/messages/{message_id}", this::deleteMessageByIDHandler);
         app.patch("/messages/{message_id}", this::updateMessageByIDHandler);
         app.get("/accounts/{account_id}/messages", this::getAllMessagesFromUserHandler);
+        app.put("/accounts/{account_id}/following/{followee_id}", this::followHandler);
+        app.delete("/accounts/{account_id}/following/{followee_id}", this::unfollowHandler);
+        app.get("/accounts/{account_id}/feed", this::getFeedHandler);
+        app.get("/stats/caches", this::getCacheStatsHandler);
+        app.get("/metrics", this::getMetricsHandler);
+        app.exception(WriteQueueFullException.class, this::writeQueueFullHandler);
+        app.exception(RejectedExecutionException.class, this::passwordHasherBusyHandler);
+        app.exception(VersionConflictException.class, this::versionConflictHandler);
+        app.exception(NotAuthorException.class, this::notAuthorHandler);
+        app.exception(ConnectionUnavailableException.class, this::connectionUnavailableHandler);
+        app.exception(DataAccessException.class, this::dataAccessFailedHandler);
+        app.exception(UncheckedIOException.class, this::storageFailedHandler);
+        // in write-behind mode, messages already accepted are written out before the server is gone
+        app.events(event -> event.serverStopped(messageService::close));
+        if (walStore != null) {
+            // registered after messageService::close, so messages still queued are logged before the log is closed
+            app.events(event -> event.serverStopped(walStore::close));
+        }
 
         return app;
     }
 
+    /**
+    * Counts every request, including those no route matched and those that failed, by the route that handled it and
+    * its status, and records how long it took.
+    *
+    * @param ctx The Javalin context of the finished request.
+    * @param executionTimeMs How long Javalin took to handle it, in milliseconds.
+    */
+    private void recordRequest(Context ctx, Float executionTimeMs) {
+        // no endpoint ran when no route matched, and Javalin then refuses to name one
+        String route = ctx.handlerType() == HandlerType.BEFORE ? "unmatched" : ctx.endpointHandlerPath();
+        Metrics.recordRequest(ctx.method().name(), route, ctx.statusCode(), (long) (executionTimeMs * 1_000_000));
+    }
+
+    /**
+    * Chooses how responses are compressed, from socialmedia.compression:
+    * - gzip (the default): responses are gzipped for clients that accept it.
+    * - brotli: brotli for clients that accept it, gzip for the rest. Brotli needs the jvm-brotli library and its
+    *   native code; without them a warning is logged and only gzip is used.
+    * - none: responses are sent as they are.
+    * Responses shorter than socialmedia.compression.minSize bytes (1500, about one network packet) are never
+    * compressed, since they would be sent in one packet either way. The gzip level is socialmedia.compression.level
+    * (6); higher levels save little on JSON for much more CPU.
+    *
+    * @param config The Javalin configuration being built.
+    */
+    private void configureCompression(JavalinConfig config) {
+        String compression = System.getProperty("socialmedia.compression", "gzip");
+        if (compression.equals("none")) {
+            config.compression.none();
+            return;
+        }
+        if (!compression.equals("gzip") && !compression.equals("brotli")) {
+            throw new IllegalArgumentException("socialmedia.compression must be gzip, brotli or none: " + compression);
+        }
+        Brotli brotli = null;
+        if (compression.equals("brotli")) {
+            try {
+                Class.forName(BROTLI_LOADER);
+                brotli = new Brotli();
+            } catch (ClassNotFoundException e) {
+                LOGGER.warn("Brotli needs the jvm-brotli library, compressing responses with gzip only");
+            }
+        }
+        CompressionStrategy strategy = new CompressionStrategy(brotli,
+                new Gzip(Integer.getInteger("socialmedia.compression.level", 6)));
+        strategy.setMinSizeForCompression(Integer.getInteger("socialmedia.compression.minSize", 1500));
+        config.compression.custom(strategy);
+    }
+
+    /**
+    * Chooses the threads request handlers run on, from socialmedia.server.threads:
+    * - platform (the default): Jetty's pool of at most 250 platform threads, so at most 250 requests run at once.
+    * - virtual: every request runs on its own virtual thread, so a handler blocked on JDBC costs a few hundred bytes
+    *   instead of a whole thread, and thousands of slow clients no longer queue behind one another. Needs Java 21;
+    *   on older runtimes a warning is logged and platform threads are used.
+    * In both modes, concurrent database work is bounded by the connection pool, whose permits let at most
+    * socialmedia.pool.maxSize requests hold a connection while the rest wait for one.
+    *
+    * @param config The Javalin configuration being built.
+    */
+    private void configureThreads(JavalinConfig config) {
+        String threads = System.getProperty("socialmedia.server.threads", "platform");
+        if (threads.equals("platform")) {
+            return;
+        }
+        if (!threads.equals("virtual")) {
+            throw new IllegalArgumentException("socialmedia.server.threads must be platform or virtual: " + threads);
+        }
+        if (!VirtualThreads.areSupported()) {
+            LOGGER.warn("Virtual threads need Java 21 or later, running handlers on platform threads instead");
+            return;
+        }
+        config.jetty.server(() -> {
+            // Jetty still runs its acceptors and selectors on the pool's platform threads, and hands each request
+            // to a new virtual thread
+            QueuedThreadPool threadPool = new QueuedThreadPool(250, 8, 60_000);
+            threadPool.setName("JettyServerThreadPool");
+            threadPool.setUseVirtualThreads(true);
+            return new Server(threadPool);
+        });
+    }
+
+    /**
+    * Answers a message post that the write-behind queue had no room for with 503, so the client retries it later.
+    *
+    * @param e The exception thrown by the service layer.
+    * @param ctx The Javalin context containing the HTTP request and response.
+    */
+    private void writeQueueFullHandler(WriteQueueFullException e, Context ctx) {
+        ctx.status(503);
+        ctx.header("Retry-After", "1");
+    }
+
+    /**
+    * Answers a request that found every pooled connection in use for the whole acquisition timeout with 503, so the
+    * client retries it later.
+    *
+    * @param e The exception thrown by ConnectionUtil.
+    * @param ctx The Javalin context containing the HTTP request and response.
+    */
+    private void connectionUnavailableHandler(ConnectionUnavailableException e, Context ctx) {
+        ctx.status(503);
+        ctx.header("Retry-After", "1");
+    }
+
+    /**
+    * Answers a request whose database read failed with 500, rather than with what an empty or missing result would
+    * have given. The DAO has already reported the failure.
+    *
+    * @param e The exception thrown by the repository.
+    * @param ctx The Javalin context containing the HTTP request and response.
+    */
+    private void dataAccessFailedHandler(DataAccessException e, Context ctx) {
+        ctx.status(500);
+    }
+
+    /**
+    * Answers a request whose change could not be written to the write-ahead log, or whose response could not be
+    * written, with 500, rather than as if the request were invalid. The store has already logged the failure.
+    *
+    * @param e The exception thrown by the storage engine or while writing the response.
+    * @param ctx The Javalin context containing the HTTP request and response.
+    */
+    private void storageFailedHandler(UncheckedIOException e, Context ctx) {
+        ctx.status(500);
+    }
+
+    /**
+    * Answers a conditional update or delete of a message that has changed since the client read it with 412, and
+    * the ETag of its current version.
+    *
+    * @param e The exception thrown by the service layer.
+    * @param ctx The Javalin context containing the HTTP request and response.
+    */
+    private void versionConflictHandler(VersionConflictException e, Context ctx) {
+        ctx.status(412);
+        ctx.header(Header.ETAG, "\"" + e.getCurrentVersion() + "\"");
+    }
+
+    /**
+    * Answers an update or delete of a message posted by another account than the logged-in one with 403.
+    *
+    * @param e The exception thrown by the service layer.
+    * @param ctx The Javalin context containing the HTTP request and response.
+    */
+    private void notAuthorHandler(NotAuthorException e, Context ctx) {
+        ctx.status(403);
+    }
+
+    /**
+    * Answers a register or login that the password hasher had no room for with 503, so the client retries it later.
+    *
+    * @param e The exception thrown by the password hasher.
+    * @param ctx The Javalin context containing the HTTP request and response.
+    */
+    private void passwordHasherBusyHandler(RejectedExecutionException e, Context ctx) {
+        ctx.status(503);
+        ctx.header("Retry-After", "1");
+    }
+
     /**
     * Handles user registration by validating input and interacting with the service layer.
     *
     * @param ctx The Javalin context containing the HTTP request and response.
-    * @throws JsonProcessingException if the request body cannot be parsed into an Account object.
+    * @throws IOException if the request body cannot be parsed into an Account object.
     */
-    private void registerUserHandler(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(ctx.body(), Account.class);
-        Account newAccount = accountService.registerUser(account);
-    
-        if (newAccount != null) {
-            ctx.json(mapper.writeValueAsString(newAccount));
-        } else {
-            ctx.status(400);
-        }
+    private void registerUserHandler(Context ctx) throws IOException {
+        Account account = mapper.readValue(ctx.bodyAsBytes(), Account.class);
+        // the password is hashed on the password hasher's threads; this thread goes back to serving requests
+        CompletableFuture<Account> registration = accountService.registerUserAsync(account);
+        ctx.future(() -> registration.thenAccept(newAccount -> writeAccount(ctx, newAccount, 400)));
     }
 
     /**
     * Handles user login by verifying credentials with the service layer.
     *
     * @param ctx The Javalin context containing the HTTP request and response.
-    * @throws JsonProcessingException if the request body cannot be parsed into an Account object.
+    * @throws IOException if the request body cannot be parsed into an Account object.
     */
-    private void loginUserHandler(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(ctx.body(), Account.class);
-        Account loginAccount = accountService.loginUser(account);
-    
-        if (loginAccount != null) {
-            ctx.json(mapper.writeValueAsString(loginAccount));
-        } else {
-            ctx.status(401);
+    private void loginUserHandler(Context ctx) throws IOException {
+        Account account = mapper.readValue(ctx.bodyAsBytes(), Account.class);
+        CompletableFuture<Account> login = accountService.loginUserAsync(account);
+        ctx.future(() -> login.thenAccept(loginAccount -> {
+            if (loginAccount != null) {
+                ctx.header(SESSION_TOKEN_HEADER, sessionTokens.issue(loginAccount.getAccount_id()));
+            }
+            writeAccount(ctx, loginAccount, 401);
+        }));
+    }
+
+    /**
+    * Identifies the account making a request from its "Authorization: Bearer <token>" header, where the token is
+    * the one sent in the X-Session-Token header of a successful login. Checking it needs no database lookup.
+    *
+    * @param ctx The Javalin context containing the HTTP request and response.
+    * @return the account_id of the logged-in account, or null if the request has no Authorization header.
+    * @throws UnauthorizedResponse if the header is present but its token is malformed, wrongly signed or expired.
+    */
+    private Integer sessionAccount(Context ctx) {
+        String authorization = ctx.header(Header.AUTHORIZATION);
+        if (authorization == null) {
+            return null;
+        }
+        Integer account_id = authorization.startsWith("Bearer ")
+                ? sessionTokens.verify(authorization.substring("Bearer ".length()))
+                : null;
+        if (account_id == null) {
+            throw new UnauthorizedResponse();
+        }
+        return account_id;
+    }
+
+    /**
+    * Sends an account as a JSON response, or the failure status if there is none.
+    *
+    * @param ctx The Javalin context containing the HTTP request and response.
+    * @param account The account to send, or null.
+    * @param failureStatus The status to send when account is null.
+    */
+    private void writeAccount(Context ctx, Account account, int failureStatus) {
+        if (account == null) {
+            ctx.status(failureStatus);
+            return;
+        }
+        try {
+            writeJson(ctx, account);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
     /**
-    * Handles the creation of a new message by validating input and interacting with the service layer.
+    * Handles the creation of a new message by validating input and interacting with the service layer. A request
+    * with a session token is posted by the token's account, whatever posted_by says, and skips the account lookup.
     *
     * @param ctx The Javalin context containing the HTTP request and response.
-    * @throws JsonProcessingException if the request body cannot be parsed into a Message object.
+    * @throws IOException if the request body cannot be parsed into a Message object.
     */
-    private void createMessageHandler(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Message message = mapper.readValue(ctx.body(), Message.class);
-        Message newMessage = messageService.createMessage(message);
+    private void createMessageHandler(Context ctx) throws IOException {
+        Integer author = sessionAccount(ctx);
+        Message message = mapper.readValue(ctx.bodyAsBytes(), Message.class);
+        Message newMessage = author != null
+                ? messageService.createMessageAs(author, message)
+                : messageService.createMessage(message);
     
         if (newMessage != null) {
-            ctx.json(mapper.writeValueAsString(newMessage));
+            writeJson(ctx, newMessage);
         } else {
             ctx.status(400);
         }
     }
 
     /**
-    * Retrieves all messages from the database and sends them as a JSON response.
+    * Creates a batch of messages posted as a JSON array and sends back one result per message, in order: either the
+    * created message or the reason it was rejected. A body that is not an array, or has more than
+    * MessageService.MAX_BATCH_SIZE messages, is rejected as a whole with status 400. With a session token, every
+    * message is posted by the token's account.
     *
     * @param ctx The Javalin context containing the HTTP request and response.
+    * @throws IOException if the response cannot be serialised.
     */
-    private void getAllMessagesHandler(Context ctx) {
-        List<Message> messages = messageService.getAllMessages();
-        ctx.json(messages);
+    private void createMessageBatchHandler(Context ctx) throws IOException {
+        List<Message> messages;
+        try {
+            messages = mapper.readValue(ctx.bodyAsBytes(), new TypeReference<List<Message>>(){});
+        } catch (JsonProcessingException e) {
+            ctx.status(400);
+            return;
+        }
+        if (messages == null || messages.contains(null) || messages.size() > MessageService.MAX_BATCH_SIZE) {
+            ctx.status(400);
+            return;
+        }
+        Integer author = sessionAccount(ctx);
+        writeJson(ctx, author != null
+                ? messageService.createMessagesAs(author, messages)
+                : messageService.createMessages(messages));
     }
 
     /**
-    * Retrieves a specific message by its ID and sends it as a JSON response.
+    * Retrieves messages and sends them as a JSON array. Without query parameters every message is returned. With
+    * limit and/or after, one page is returned using keyset pagination, and the cursor for the next page is sent in the
+    * X-Next-Cursor header (absent on the last page). order=recent pages newest first instead of by message_id.
+    * With stream=true every message is written to the response as it is read from the database.
     *
     * @param ctx The Javalin context containing the HTTP request and response.
+    * @throws IOException if the streamed response cannot be written.
     */
-    private void getMessageByIDHandler(Context ctx) {
+    private void getAllMessagesHandler(Context ctx) throws IOException {
+        if (notModified(ctx, listEtag(messageService.getMessagesVersion()))) {
+            return;
+        }
+        if ("true".equals(ctx.queryParam("stream"))) {
+            streamAllMessages(ctx);
+            return;
+        }
+        if (ctx.queryParam("limit") == null && ctx.queryParam("after") == null) {
+            List<Message> messages = messageService.getAllMessages();
+            writeJson(ctx, messages);
+            return;
+        }
+
+        boolean recentFirst = "recent".equals(ctx.queryParam("order"));
+        String after = ctx.queryParam("after");
+        List<Message> messages;
+        int limit;
+        try {
+            limit = ctx.queryParam("limit") == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(ctx.queryParam("limit"));
+            limit = Math.max(1, Math.min(limit, MessageService.MAX_PAGE_SIZE));
+            if (recentFirst) {
+                String[] cursor = after == null ? null : after.split("_", 2);
+                messages = cursor == null
+                        ? messageService.getMessagesBeforeTime(Long.MAX_VALUE, Integer.MAX_VALUE, limit)
+                        : messageService.getMessagesBeforeTime(Long.parseLong(cursor[0]), Integer.parseInt(cursor[1]), limit);
+            } else {
+                messages = messageService.getMessagesAfterID(after == null ? 0 : Integer.parseInt(after), limit);
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            ctx.status(400);
+            return;
+        }
+
+        if (messages.size() == limit) {
+            Message last = messages.get(messages.size() - 1);
+            ctx.header("X-Next-Cursor", recentFirst ? recentCursor(last) : String.valueOf(last.getMessage_id()));
+        }
+        writeJson(ctx, messages);
+    }
+
+    /**
+    * Writes every message as a JSON array to the response as it is read, a page at a time, so memory use does not grow
+    * with the number of messages and no connection is held while the client downloads a page.
+    *
+    * @param ctx The Javalin context containing the HTTP request and response.
+    * @throws IOException if the response cannot be written.
+    */
+    private void streamAllMessages(Context ctx) throws IOException {
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(ctx.outputStream())) {
+            generator.writeStartArray();
+            messageService.streamAllMessages(message -> {
+                try {
+                    streamWriter.writeValue(generator, message);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+    * Sends the newest messages matching the q query parameter: every bare term and every "quoted phrase" in it must
+    * appear in the message text. limit and after page through the matches like GET /messages?order=recent. A missing
+    * or blank q is rejected with status 400, and every search with 404 unless socialmedia.search.enabled is true.
+    *
+    * @param ctx The Javalin context containing the HTTP request and response.
+    * @throws JsonProcessingException if the response cannot be serialised.
+    */
+    private void searchMessagesHandler(Context ctx) throws JsonProcessingException {
+        if (messageService.getSearchIndex() == null) {
+            ctx.status(404);
+            return;
+        }
+        String query = ctx.queryParam("q");
+        if (query == null || query.isBlank()) {
+            ctx.status(400);
+            return;
+        }
+        String after = ctx.queryParam("after");
+        List<Message> messages;
+        int limit;
+        try {
+            limit = ctx.queryParam("limit") == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(ctx.queryParam("limit"));
+            limit = Math.max(1, Math.min(limit, MessageService.MAX_PAGE_SIZE));
+            String[] cursor = after == null ? null : after.split("_", 2);
+            messages = cursor == null
+                    ? messageService.searchMessages(query, Long.MAX_VALUE, Integer.MAX_VALUE, limit)
+                    : messageService.searchMessages(query, Long.parseLong(cursor[0]), Integer.parseInt(cursor[1]), limit);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            ctx.status(400);
+            return;
+        }
+
+        if (messages.size() == limit) {
+            ctx.header("X-Next-Cursor", recentCursor(messages.get(messages.size() - 1)));
+        }
+        writeJson(ctx, messages);
+    }
+
+    /**
+    * Retrieves a specific message by its ID and sends it as a JSON response, with its version as the ETag header.
+    * A request whose If-None-Match header already has that ETag is answered with 304 and no body.
+    *
+    * @param ctx The Javalin context containing the HTTP request and response.
+    * @throws JsonProcessingException if the response cannot be serialised.
+    */
+    private void getMessageByIDHandler(Context ctx) throws JsonProcessingException {
         // Parse the message_id from the path parameter
         int message_id = Integer.parseInt(ctx.pathParam("message_id"));
     
         // Call the service to fetch the message
-        Message message = messageService.getMessageByID(message_id);
+        VersionedMessage message = messageService.getVersionedMessageByID(message_id);
     
         if (message != null) {
-            ctx.json(message); // Send the message as JSON if found
+            String etag = etag(message);
+            ctx.header(Header.ETAG, etag);
+            if (ifNoneMatch(ctx.header(Header.IF_NONE_MATCH), etag)) {
+                ctx.status(304); // the client's copy is current, so the body is neither serialised nor sent
+                return;
+            }
+            writeJson(ctx, message.getMessage()); // Send the message as JSON if found
         } else {
             ctx.json(""); // Send an empty response if no message is found
         }
@@ -131,52 +614,308 @@ public class SocialMediaController {
 
     /**
     * Deletes a specific message by its ID and sends the deleted message as a JSON response.
+    * With a session token, the message is only deleted if the logged-in account posted it: a message posted by
+    * another account is refused with status 403, and one that does not exist with 404. With an If-Match header,
+    * the message is only deleted if it is still at that ETag's version; otherwise the status is 412.
     *
     * @param ctx The Javalin context containing the HTTP request and response.
+    * @throws JsonProcessingException if the response cannot be serialised.
     */
-    private void deleteMessageByIDHandler(Context ctx) {
+    private void deleteMessageByIDHandler(Context ctx) throws JsonProcessingException {
         // Parse the message_id from the path parameter
         int message_id = Integer.parseInt(ctx.pathParam("message_id"));
+        Integer author = sessionAccount(ctx);
     
-        // Call the service to fetch the message
-        Message deletedMessage = messageService.deleteMessageByID(message_id);
+        // Call the service to delete the message; the author is checked by the delete itself
+        VersionedMessage deletedMessage = messageService.deleteMessageByID(message_id, ifMatchVersion(ctx), author);
     
         if (deletedMessage != null) {
-            ctx.json(deletedMessage); // Send the message as JSON if found
+            writeJson(ctx, deletedMessage.getMessage()); // Send the message as JSON if found
+        } else if (author != null) {
+            ctx.status(404);
         } else {
             ctx.json("");
         }
     }
 
     /**
-    * Updates the text of a specific message by its ID and sends the updated message as a JSON response.
+    * Updates the text of a specific message by its ID and sends the updated message as a JSON response, with its new
+    * version as the ETag header. With a session token, the message is only updated if the logged-in account posted
+    * it: a message posted by another account is refused with status 403, and one that does not exist with 404. With
+    * an If-Match header, the message is only updated if it is still at that ETag's version; otherwise the
+    * status is 412, so a client cannot overwrite a change it has not seen.
     *
     * @param ctx The Javalin context containing the HTTP request and response.
-    * @throws JsonProcessingException if the request body cannot be parsed into a Message object.
+    * @throws IOException if the request body cannot be parsed into a Message object.
     */
-    private void updateMessageByIDHandler(Context ctx) throws JsonProcessingException {
+    private void updateMessageByIDHandler(Context ctx) throws IOException {
         int message_id = Integer.parseInt(ctx.pathParam("message_id"));
-        ObjectMapper mapper = new ObjectMapper();
-        Message message = mapper.readValue(ctx.body(), Message.class);
+        Integer author = sessionAccount(ctx);
+        Message message = mapper.readValue(ctx.bodyAsBytes(), Message.class);
         String new_message_text = message.getMessage_text();
-        Message updatedMessage = messageService.updateMessageByID(message_id, new_message_text);
+        VersionedMessage updatedMessage = messageService.updateMessageByID(
+                message_id, new_message_text, ifMatchVersion(ctx), author);
 
         if (updatedMessage != null) {
-            ctx.json(updatedMessage); // Send the message as JSON if found
+            ctx.header(Header.ETAG, etag(updatedMessage));
+            writeJson(ctx, updatedMessage.getMessage()); // Send the message as JSON if found
+        } else if (author != null && messageService.isValidMessageText(new_message_text)) {
+            ctx.status(404);
         } else {
             ctx.status(400);
         }
     }
 
     /**
-    * Retrieves all messages written by a specific user and sends them as a JSON response.
+    * @return the ETag of a message: its version, quoted.
+    */
+    private static String etag(VersionedMessage message) {
+        return "\"" + message.getVersion() + "\"";
+    }
+
+    /**
+    * The ETag of a list of messages: weak, because the list is only known to be the same as when it was sent, not
+    * to be sent as the same bytes, and qualified by when this controller started, because the counts it is made
+    * from start again from zero when the server does.
+    *
+    * @param version The list's change count from the message service.
+    * @return the list's ETag.
+    */
+    private String listEtag(long version) {
+        return "W/\"" + startedAt + "-" + version + "\"";
+    }
+
+    /**
+    * Sets a response's ETag, and answers 304 with no body if the request already has that version.
+    *
+    * @param ctx The Javalin context containing the HTTP request and response.
+    * @param etag The ETag of what the request asks for.
+    * @return true if the response is complete.
+    */
+    private static boolean notModified(Context ctx, String etag) {
+        ctx.header(Header.ETAG, etag);
+        if (ifNoneMatch(ctx.header(Header.IF_NONE_MATCH), etag)) {
+            ctx.status(304);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+    * Reads the version a conditional update or delete expects from its If-Match header.
+    *
+    * @param ctx The Javalin context containing the HTTP request and response.
+    * @return null if there is no If-Match header or it is "*", the version of a single ETag otherwise, and 0, which
+    * no message is ever at, for a weak ETag, a list or anything else this server never sends.
+    */
+    private static Integer ifMatchVersion(Context ctx) {
+        String ifMatch = ctx.header(Header.IF_MATCH);
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String tag = ifMatch.trim();
+        if (tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            try {
+                return Integer.parseInt(tag.substring(1, tag.length() - 1));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+    * @param ifNoneMatch The If-None-Match header of a request, or null.
+    * @param etag The current ETag.
+    * @return true if the header lists the ETag, weakly or not, or is "*".
+    */
+    private static boolean ifNoneMatch(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaqueTag = opaqueTag(etag);
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || opaqueTag(tag).equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaqueTag(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    /**
+    * Retrieves the messages written by a specific user, newest first, and sends them as a JSON response. Without
+    * query parameters every message is returned. With limit and/or after, one page is returned, and the cursor for
+    * the next page is sent in the X-Next-Cursor header (absent on the last page), in the same
+    * "<time_posted_epoch>_<message_id>" form as GET /messages?order=recent.
     *
     * @param ctx The Javalin context containing the HTTP request and response.
+    * @throws JsonProcessingException if the response cannot be serialised.
     */
-    private void getAllMessagesFromUserHandler(Context ctx) {
+    private void getAllMessagesFromUserHandler(Context ctx) throws JsonProcessingException {
         int account_id = Integer.parseInt(ctx.pathParam("account_id"));
-        List<Message> messages = messageService.getAllMessagesFromUser(account_id);
-        ctx.json(messages);
+        if (notModified(ctx, listEtag(messageService.getUserMessagesVersion(account_id)))) {
+            return;
+        }
+        if (ctx.queryParam("limit") == null && ctx.queryParam("after") == null) {
+            List<Message> messages = messageService.getAllMessagesFromUser(account_id);
+            writeJson(ctx, messages);
+            return;
+        }
+
+        String after = ctx.queryParam("after");
+        List<Message> messages;
+        int limit;
+        try {
+            limit = ctx.queryParam("limit") == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(ctx.queryParam("limit"));
+            limit = Math.max(1, Math.min(limit, MessageService.MAX_PAGE_SIZE));
+            String[] cursor = after == null ? null : after.split("_", 2);
+            messages = cursor == null
+                    ? messageService.getMessagesFromUserBeforeTime(account_id, Long.MAX_VALUE, Integer.MAX_VALUE, limit)
+                    : messageService.getMessagesFromUserBeforeTime(account_id, Long.parseLong(cursor[0]), Integer.parseInt(cursor[1]), limit);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            ctx.status(400);
+            return;
+        }
+
+        if (messages.size() == limit) {
+            ctx.header("X-Next-Cursor", recentCursor(messages.get(messages.size() - 1)));
+        }
+        writeJson(ctx, messages);
+    }
+
+    /**
+    * Makes the account in the path follow followee_id. Following an account twice is the same as following it once.
+    * Only the logged-in account can change whom it follows, so the request needs its session token (401 without
+    * one) and the account in the path must be the logged-in one (403). Responds 400 if followee_id does not exist or
+    * is the same account.
+    *
+    * @param ctx The Javalin context containing the HTTP request and response.
+    */
+    private void followHandler(Context ctx) {
+        Integer account_id = sessionFollower(ctx);
+        if (account_id == null) {
+            return;
+        }
+        int followee_id = Integer.parseInt(ctx.pathParam("followee_id"));
+        ctx.status(feedService.follow(account_id, followee_id) ? 200 : 400);
+    }
+
+    /**
+    * Makes the account in the path stop following followee_id, with the same session checks as following. Responds
+    * 404 if it does not follow followee_id.
+    *
+    * @param ctx The Javalin context containing the HTTP request and response.
+    */
+    private void unfollowHandler(Context ctx) {
+        Integer account_id = sessionFollower(ctx);
+        if (account_id == null) {
+            return;
+        }
+        int followee_id = Integer.parseInt(ctx.pathParam("followee_id"));
+        ctx.status(feedService.unfollow(account_id, followee_id) ? 200 : 404);
+    }
+
+    /**
+    * @param ctx The Javalin context containing the HTTP request and response.
+    * @return the logged-in account, if it is the account in the path; otherwise null, with the status set to 401
+    * for a request without a session token or 403 for one on behalf of another account.
+    */
+    private Integer sessionFollower(Context ctx) {
+        Integer account_id = sessionAccount(ctx);
+        if (account_id == null) {
+            ctx.status(401);
+            return null;
+        }
+        if (account_id != Integer.parseInt(ctx.pathParam("account_id"))) {
+            ctx.status(403);
+            return null;
+        }
+        return account_id;
+    }
+
+    /**
+    * Sends one page of an account's home feed, the messages of the accounts it follows, newest first. limit sets the
+    * page size and after continues from the X-Next-Cursor header of the previous page (absent on the last page), in
+    * the same "<time_posted_epoch>_<message_id>" form as GET /messages?order=recent.
+    *
+    * @param ctx The Javalin context containing the HTTP request and response.
+    * @throws JsonProcessingException if the response cannot be serialised.
+    */
+    private void getFeedHandler(Context ctx) throws JsonProcessingException {
+        int account_id = Integer.parseInt(ctx.pathParam("account_id"));
+        String after = ctx.queryParam("after");
+        List<Message> messages;
+        int limit;
+        try {
+            limit = ctx.queryParam("limit") == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(ctx.queryParam("limit"));
+            limit = Math.max(1, Math.min(limit, MessageService.MAX_PAGE_SIZE));
+            String[] cursor = after == null ? null : after.split("_", 2);
+            messages = cursor == null
+                    ? feedService.getFeed(account_id, Long.MAX_VALUE, Integer.MAX_VALUE, limit)
+                    : feedService.getFeed(account_id, Long.parseLong(cursor[0]), Integer.parseInt(cursor[1]), limit);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            ctx.status(400);
+            return;
+        }
+
+        if (messages.size() == limit) {
+            ctx.header("X-Next-Cursor", recentCursor(messages.get(messages.size() - 1)));
+        }
+        writeJson(ctx, messages);
+    }
+
+    /**
+    * @return the cursor of a newest-first page that ends with the given message: "<time_posted_epoch>_<message_id>".
+    */
+    private static String recentCursor(Message last) {
+        return last.getTime_posted_epoch() + "_" + last.getMessage_id();
+    }
+
+    /**
+    * Sends the size, hit and miss counts and hit rate of each in-process cache as a JSON response.
+    *
+    * @param ctx The Javalin context containing the HTTP request and response.
+    * @throws JsonProcessingException if the response cannot be serialised.
+    */
+    private void getCacheStatsHandler(Context ctx) throws JsonProcessingException {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("accountsByID", accountCache.getByIDCache().getStats());
+        stats.put("accountsByUsername", accountCache.getByUsernameCache().getStats());
+        stats.put("messagesByID", messageService.getMessageCache().getStats());
+        stats.put("timelines", messageService.getTimelineStore().getStats());
+        stats.put("feeds", feedService.getStats());
+        if (messageService.getSearchIndex() != null) {
+            stats.put("search", messageService.getSearchIndex().getStats());
+        }
+        stats.put("passwordHashing", accountService.getPasswordHasher().getStats());
+        writeJson(ctx, stats);
+    }
+
+    /**
+    * Sends request, query, connection pool and JVM metrics in the Prometheus text format, for Prometheus to scrape.
+    *
+    * @param ctx The Javalin context containing the HTTP request and response.
+    */
+    private void getMetricsHandler(Context ctx) {
+        ctx.contentType("text/plain; version=0.0.4; charset=utf-8");
+        ctx.result(Metrics.toPrometheus());
+    }
+
+    /**
+    * Serialises a value straight to UTF-8 bytes with the shared mapper and sets it as the JSON response body, so the
+    * response is encoded exactly once with no intermediate String.
+    *
+    * @param ctx The Javalin context containing the HTTP request and response.
+    * @param value The value to send.
+    * @throws JsonProcessingException if the value cannot be serialised.
+    */
+    private void writeJson(Context ctx, Object value) throws JsonProcessingException {
+        ctx.contentType(ContentType.APPLICATION_JSON).result(mapper.writeValueAsBytes(value));
     }
 
 }
\ No newline at end of file
@@ -2,47 +2,68 @@ package DAO;
 
 import Model.Account;
 import Util.ConnectionUtil;
+import Util.Metrics;
 
 import java.sql.*;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 
-public class AccountDAO {
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class AccountDAO implements AccountRepository {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccountDAO.class);
+
+    /**
+    * Hands out account_ids from blocks reserved from account_id_seq, so an insert needs no generated-keys round trip.
+    */
+    private final IdAllocator idAllocator;
+
+    public AccountDAO() {
+        this(new IdAllocator("account_id_seq", Integer.getInteger("socialmedia.ids.blockSize", 1000)));
+    }
+
+    /**
+    * @param idAllocator Where the account_ids of new accounts come from.
+    */
+    public AccountDAO(IdAllocator idAllocator) {
+        this.idAllocator = idAllocator;
+    }
 
     /**
     * Inserts a new account into the database.
     * @param account The account to insert.
-    * @return The created account with the generated account_id, or null if insertion failed.
+    * @return The created account with its new account_id, or null if insertion failed.
     */
     public Account createAccount(Account account) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "INSERT INTO Account (username, password) VALUES (?, ?)";
+        try (Connection connection = ConnectionUtil.getConnection("AccountDAO.createAccount")) {
+            String sql = "INSERT INTO Account (account_id, username, password) VALUES (?, ?, ?)";
 
-            PreparedStatement preparedStatement = connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS);
-            preparedStatement.setString(1, account.getUsername());
-            preparedStatement.setString(2, account.getPassword());
+            // an id taken by an insert that fails, such as one for a duplicate username, is simply never used
+            int account_id = idAllocator.nextId();
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, account_id);
+            preparedStatement.setString(2, account.getUsername());
+            preparedStatement.setString(3, account.getPassword());
             preparedStatement.executeUpdate();
-
-            ResultSet resultSet = preparedStatement.getGeneratedKeys();
-            if (resultSet.next()) {
-                int generated_account_id = resultSet.getInt(1); // Get the auto-generated key
-                // Return a new Account object with the generated account_id
-                return new Account(generated_account_id, account.getUsername(), account.getPassword());
-            }
+            return new Account(account_id, account.getUsername(), account.getPassword());
         }catch(SQLException e){
-            System.out.println(e.getMessage());
+            queryFailed("AccountDAO.createAccount", e);
         }
         return null;
     }
 
     /**
     * Retrieves an account by its username.
-    * 
+    *
     * @param username The username of the account to retrieve.
     * @return The account object if found, or null if no account exists with the given username.
-    */    
+    * @throws DataAccessException if the query fails.
+    */
     public Account getAccountByUsername(String username){
-        Connection connection = ConnectionUtil.getConnection();
-        try {
+        try (Connection connection = ConnectionUtil.getConnection("AccountDAO.getAccountByUsername")) {
             String sql = "SELECT * FROM Account WHERE username = ?;";
 
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
@@ -51,58 +72,47 @@ public class AccountDAO {
             ResultSet resultSet = preparedStatement.executeQuery();
             // we use if here instead of while because we expect a single-row query, where expect only one record to match
             if(resultSet.next()){
-                Account account = new Account(
-                        resultSet.getInt("account_id"),
-                        resultSet.getString("username"),
-                        resultSet.getString("password"));
-                return account;
+                return toAccount(resultSet);
             }
         }catch(SQLException e){
-            System.out.println(e.getMessage());
+            queryFailed("AccountDAO.getAccountByUsername", e);
+            throw new DataAccessException("AccountDAO.getAccountByUsername", e);
         }
         return null;
     }
 
     /**
-    * Validates user credentials by checking the username and password against the database.
-    * 
-    * @param username The username to validate.
-    * @param password The password to validate.
-    * @return The account object if credentials are valid, or null if validation fails.
-    */    
-    public Account validateCredentials(String username, String password){
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "SELECT * FROM Account WHERE username = ? AND password = ?;";
+    * Replaces an account's stored password, unless it has changed since it was read.
+    *
+    * @param account_id The ID of the account to update.
+    * @param old_password The stored password as it was read.
+    * @param new_password The stored password to replace it with.
+    * @return true if the password was replaced, or false if the account or its old password no longer match.
+    */
+    public boolean updatePassword(int account_id, String old_password, String new_password){
+        try (Connection connection = ConnectionUtil.getConnection("AccountDAO.updatePassword")) {
+            String sql = "UPDATE Account SET password = ? WHERE account_id = ? AND password = ?;";
 
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, username);
-            preparedStatement.setString(2, password);
-
-            ResultSet resultSet = preparedStatement.executeQuery();
-            // we use if here instead of while because we expect a single-row query, where expect only one record to match
-            if(resultSet.next()){
-                Account account = new Account(
-                        resultSet.getInt("account_id"),
-                        resultSet.getString("username"),
-                        resultSet.getString("password"));
-                return account;
-            }
+            preparedStatement.setString(1, new_password);
+            preparedStatement.setInt(2, account_id);
+            preparedStatement.setString(3, old_password);
+            return preparedStatement.executeUpdate() == 1;
         }catch(SQLException e){
-            System.out.println(e.getMessage());
+            queryFailed("AccountDAO.updatePassword", e);
         }
-        return null;
+        return false;
     }
 
     /**
     * Retrieves an account by its ID.
-    * 
+    *
     * @param account_id The ID of the account to retrieve.
     * @return The account object if found, or null if no account exists with the given ID.
-    */    
+    * @throws DataAccessException if the query fails.
+    */
     public Account getAccountByID(int account_id){
-        Connection connection = ConnectionUtil.getConnection();
-        try {
+        try (Connection connection = ConnectionUtil.getConnection("AccountDAO.getAccountByID")) {
             String sql = "SELECT * FROM Account WHERE account_id = ?;";
 
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
@@ -110,16 +120,60 @@ public class AccountDAO {
 
             ResultSet resultSet = preparedStatement.executeQuery();
             if(resultSet.next()){
-                Account account = new Account(
-                        resultSet.getInt("account_id"),
-                        resultSet.getString("username"),
-                        resultSet.getString("password"));
-                return account;
+                return toAccount(resultSet);
             }
         }catch(SQLException e){
-            System.out.println(e.getMessage());
+            queryFailed("AccountDAO.getAccountByID", e);
+            throw new DataAccessException("AccountDAO.getAccountByID", e);
         }
         return null;
     }
 
+    /**
+    * Finds which of the given account IDs exist, in a single query however many IDs are given. The IDs are bound as
+    * one array parameter, so the statement text is the same for every call and stays in the statement cache.
+    *
+    * @param account_ids The IDs to look for.
+    * @return The subset of account_ids that belong to an existing account.
+    * @throws DataAccessException if the query fails.
+    */
+    public Set<Integer> getExistingAccountIDs(Collection<Integer> account_ids){
+        Set<Integer> existing = new HashSet<>();
+        if (account_ids.isEmpty()) {
+            return existing;
+        }
+        try (Connection connection = ConnectionUtil.getConnection("AccountDAO.getExistingAccountIDs")) {
+            String sql = "SELECT account_id FROM Account WHERE account_id = ANY(?);";
+
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setArray(1, connection.createArrayOf("INTEGER", account_ids.toArray()));
+
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while(resultSet.next()){
+                existing.add(resultSet.getInt("account_id"));
+            }
+        }catch(SQLException e){
+            queryFailed("AccountDAO.getExistingAccountIDs", e);
+            throw new DataAccessException("AccountDAO.getExistingAccountIDs", e);
+        }
+        return existing;
+    }
+
+    /**
+    * Maps the current row of a result set to an Account.
+    */
+    private Account toAccount(ResultSet resultSet) throws SQLException {
+        return new Account(
+                resultSet.getInt("account_id"),
+                resultSet.getString("username"),
+                resultSet.getString("password"));
+    }
+
+    /**
+    * Logs an account statement that failed, and counts it in the metrics under its DAO method.
+    */
+    private static void queryFailed(String operation, SQLException e) {
+        LOGGER.error("{} failed", operation, e);
+        Metrics.recordQueryError(operation);
+    }
 }
@@ -0,0 +1,51 @@
+package DAO;
+
+import Model.Account;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Where accounts are stored. AccountDAO keeps them in the H2 database and InMemoryAccountRepository keeps them in the
+ * heap; the services are given one or the other and depend only on this interface.
+ */
+public interface AccountRepository {
+
+    /**
+    * @param account The account to create; its account_id is ignored.
+    * @return the created account with its new account_id, or null if it could not be stored, such as when its
+    * username is taken.
+    */
+    Account createAccount(Account account);
+
+    /**
+    * @param username The username of the account to retrieve.
+    * @return the account, or null if there is none with the given username.
+    * @throws DataAccessException if the lookup failed, which is not the same as finding nothing.
+    */
+    Account getAccountByUsername(String username);
+
+    /**
+    * Replaces an account's stored password, unless it has changed since it was read.
+    *
+    * @param account_id The ID of the account to update.
+    * @param old_password The stored password as it was read.
+    * @param new_password The stored password to replace it with.
+    * @return true if the password was replaced, or false if the account or its old password no longer match.
+    */
+    boolean updatePassword(int account_id, String old_password, String new_password);
+
+    /**
+    * @param account_id The ID of the account to retrieve.
+    * @return the account, or null if there is none with the given ID.
+    * @throws DataAccessException if the lookup failed, which is not the same as finding nothing.
+    */
+    Account getAccountByID(int account_id);
+
+    /**
+    * @param account_ids The IDs to look for.
+    * @return the subset of account_ids that belong to an existing account.
+    * @throws DataAccessException if the lookup failed.
+    */
+    Set<Integer> getExistingAccountIDs(Collection<Integer> account_ids);
+}
@@ -0,0 +1,18 @@
+package DAO;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown by a repository read or write that failed, so that the failure is not mistaken for an empty or missing
+ * result. A caller that caches what it reads or writes must let it through uncached.
+ */
+public class DataAccessException extends RuntimeException {
+
+    /**
+    * @param operation The DAO method that failed, as "DAO.method".
+    * @param cause What the database reported.
+    */
+    public DataAccessException(String operation, SQLException cause) {
+        super(operation + " failed: " + cause.getMessage(), cause);
+    }
+}
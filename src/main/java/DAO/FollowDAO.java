@@ -0,0 +1,159 @@
+package DAO;
+
+import Util.ConnectionUtil;
+import Util.Metrics;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class FollowDAO implements FollowRepository {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FollowDAO.class);
+
+    /**
+    * Records that one account follows another. Following an account that is already followed changes nothing.
+    *
+    * @param follower_id The account that follows.
+    * @param followee_id The account being followed.
+    * @return true if the follow is recorded, or false if it could not be saved.
+    */
+    public boolean follow(int follower_id, int followee_id) {
+        try (Connection connection = ConnectionUtil.getConnection("FollowDAO.follow")) {
+            String sql = "MERGE INTO Follow (follower_id, followee_id) KEY (follower_id, followee_id) VALUES (?, ?);";
+
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, follower_id);
+            preparedStatement.setInt(2, followee_id);
+            preparedStatement.executeUpdate();
+            return true;
+        }catch(SQLException e){
+            queryFailed("FollowDAO.follow", e);
+        }
+        return false;
+    }
+
+    /**
+    * Removes a follow. Unfollowing an account that is not followed changes nothing.
+    *
+    * @param follower_id The account that follows.
+    * @param followee_id The account being followed.
+    * @return true if the follow was removed, or false if there was none.
+    * @throws DataAccessException if the follow could not be removed.
+    */
+    public boolean unfollow(int follower_id, int followee_id) {
+        try (Connection connection = ConnectionUtil.getConnection("FollowDAO.unfollow")) {
+            String sql = "DELETE FROM Follow WHERE follower_id = ? AND followee_id = ?;";
+
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, follower_id);
+            preparedStatement.setInt(2, followee_id);
+            return preparedStatement.executeUpdate() > 0;
+        }catch(SQLException e){
+            queryFailed("FollowDAO.unfollow", e);
+            throw new DataAccessException("FollowDAO.unfollow", e);
+        }
+    }
+
+    /**
+    * @param follower_id The account whose follows are wanted.
+    * @return the IDs of every account the given account follows.
+    */
+    public List<Integer> getFolloweeIDs(int follower_id) {
+        List<Integer> followees = new ArrayList<>();
+        try (Connection connection = ConnectionUtil.getConnection("FollowDAO.getFolloweeIDs")) {
+            String sql = "SELECT followee_id FROM Follow WHERE follower_id = ?;";
+
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, follower_id);
+
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while(resultSet.next()){
+                followees.add(resultSet.getInt("followee_id"));
+            }
+        }catch(SQLException e){
+            queryFailed("FollowDAO.getFolloweeIDs", e);
+            throw new DataAccessException("FollowDAO.getFolloweeIDs", e);
+        }
+        return followees;
+    }
+
+    /**
+    * @param followee_id The account whose followers are wanted.
+    * @return the IDs of every account that follows the given account.
+    */
+    public List<Integer> getFollowerIDs(int followee_id) {
+        List<Integer> followers = new ArrayList<>();
+        try (Connection connection = ConnectionUtil.getConnection("FollowDAO.getFollowerIDs")) {
+            String sql = "SELECT follower_id FROM Follow WHERE followee_id = ?;";
+
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, followee_id);
+
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while(resultSet.next()){
+                followers.add(resultSet.getInt("follower_id"));
+            }
+        }catch(SQLException e){
+            queryFailed("FollowDAO.getFollowerIDs", e);
+            throw new DataAccessException("FollowDAO.getFollowerIDs", e);
+        }
+        return followers;
+    }
+
+    /**
+    * @param followers The smallest follower count of interest.
+    * @return the IDs of every account that has at least the given number of followers.
+    */
+    public List<Integer> getFolloweeIDsWithFollowers(int followers) {
+        List<Integer> followees = new ArrayList<>();
+        try (Connection connection = ConnectionUtil.getConnection("FollowDAO.getFolloweeIDsWithFollowers")) {
+            String sql = "SELECT followee_id FROM Follow GROUP BY followee_id HAVING COUNT(*) >= ?;";
+
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, followers);
+
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while(resultSet.next()){
+                followees.add(resultSet.getInt("followee_id"));
+            }
+        }catch(SQLException e){
+            queryFailed("FollowDAO.getFolloweeIDsWithFollowers", e);
+            throw new DataAccessException("FollowDAO.getFolloweeIDsWithFollowers", e);
+        }
+        return followees;
+    }
+
+    /**
+    * @param followee_id The account whose followers are counted.
+    * @return how many accounts follow the given account.
+    */
+    public int getFollowerCount(int followee_id) {
+        try (Connection connection = ConnectionUtil.getConnection("FollowDAO.getFollowerCount")) {
+            String sql = "SELECT COUNT(*) FROM Follow WHERE followee_id = ?;";
+
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, followee_id);
+
+            ResultSet resultSet = preparedStatement.executeQuery();
+            if(resultSet.next()){
+                return resultSet.getInt(1);
+            }
+        }catch(SQLException e){
+            queryFailed("FollowDAO.getFollowerCount", e);
+            throw new DataAccessException("FollowDAO.getFollowerCount", e);
+        }
+        return 0;
+    }
+
+    /**
+    * Logs a follow statement that failed, and counts it in the metrics under its DAO method.
+    */
+    private static void queryFailed(String operation, SQLException e) {
+        LOGGER.error("{} failed", operation, e);
+        Metrics.recordQueryError(operation);
+    }
+}
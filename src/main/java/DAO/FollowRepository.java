@@ -0,0 +1,56 @@
+package DAO;
+
+import java.util.List;
+
+/**
+ * Where follows are stored. FollowDAO keeps them in the H2 database and InMemoryFollowRepository keeps them in the
+ * heap, next to the accounts they refer to.
+ *
+ * A read that fails throws DataAccessException rather than returning an empty list or zero, so that the feeds and
+ * follower lists built from it are never taken for complete.
+ */
+public interface FollowRepository {
+
+    /**
+    * Records that one account follows another. Following an account that is already followed changes nothing.
+    *
+    * @param follower_id The account that follows.
+    * @param followee_id The account being followed.
+    * @return true if the follow is recorded, or false if it could not be saved.
+    */
+    boolean follow(int follower_id, int followee_id);
+
+    /**
+    * Removes a follow. Unfollowing an account that is not followed changes nothing.
+    *
+    * @param follower_id The account that follows.
+    * @param followee_id The account being followed.
+    * @return true if the follow was removed, or false if there was none.
+    * @throws DataAccessException if the follow could not be removed.
+    */
+    boolean unfollow(int follower_id, int followee_id);
+
+    /**
+    * @param follower_id The account whose follows are wanted.
+    * @return the IDs of every account the given account follows.
+    */
+    List<Integer> getFolloweeIDs(int follower_id);
+
+    /**
+    * @param followee_id The account whose followers are wanted.
+    * @return the IDs of every account that follows the given account.
+    */
+    List<Integer> getFollowerIDs(int followee_id);
+
+    /**
+    * @param followers The smallest follower count of interest.
+    * @return the IDs of every account that has at least the given number of followers.
+    */
+    List<Integer> getFolloweeIDsWithFollowers(int followers);
+
+    /**
+    * @param followee_id The account whose followers are counted.
+    * @return how many accounts follow the given account.
+    */
+    int getFollowerCount(int followee_id);
+}
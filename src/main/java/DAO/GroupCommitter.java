@@ -0,0 +1,284 @@
+package DAO;
+
+import Util.ConnectionUnavailableException;
+import Util.ConnectionUtil;
+import Util.Metrics;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs writes from many request threads in shared transactions, so that concurrent writers pay for one commit between
+ * them instead of one each.
+ *
+ * A single committer thread takes the first write that arrives, then keeps collecting until maxDelayMicros have
+ * passed since that write arrived or maxWrites have been collected, and runs the group on one connection in one
+ * transaction. A longer delay or a larger group means fewer commits under load but a longer wait for a writer that is
+ * alone; with a delay of 0, a group is whatever arrived while the previous one was committing.
+ *
+ * Every write runs after a savepoint of its own, so a write that fails, such as one that violates a constraint, is
+ * rolled back alone and its caller gets the error while the rest of the group commits. Each caller is answered once
+ * the commit has succeeded; if the commit itself fails, every write of the group fails with it.
+ */
+public class GroupCommitter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GroupCommitter.class);
+
+    private static GroupCommitter instance;
+
+    private final BlockingQueue<PendingWrite<?>> queue = new LinkedBlockingQueue<>();
+    private final int maxWrites;
+    private final long maxDelayNanos;
+    private volatile boolean closed;
+    private final Thread committer;
+
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+    private final AtomicLong groups = new AtomicLong();
+
+    /**
+    * One statement, or several, run on the group's connection. It must not commit, roll back or close the connection.
+    */
+    @FunctionalInterface
+    public interface Write<T> {
+        T execute(Connection connection) throws SQLException;
+    }
+
+    /**
+    * @param maxWrites The most writes committed together.
+    * @param maxDelayMicros How long, from when the first write of a group arrives, to wait for more.
+    */
+    public GroupCommitter(int maxWrites, long maxDelayMicros) {
+        if (maxWrites < 1) {
+            throw new IllegalArgumentException("maxWrites must be positive: " + maxWrites);
+        }
+        this.maxWrites = maxWrites;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.committer = new Thread(this::commitUntilClosed, "group-committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+    * @return the committer every MessageDAO shares when socialmedia.groupCommit.enabled is true, sized with
+    * socialmedia.groupCommit.maxWrites and socialmedia.groupCommit.maxDelayMicros.
+    */
+    public static synchronized GroupCommitter getInstance() {
+        if (instance == null) {
+            instance = new GroupCommitter(
+                    Integer.getInteger("socialmedia.groupCommit.maxWrites", 64),
+                    Long.getLong("socialmedia.groupCommit.maxDelayMicros", 200));
+        }
+        return instance;
+    }
+
+    /**
+    * Queues a write for the next group.
+    *
+    * @param operation What the write is, for Metrics' query times, which count from now until it has committed.
+    * @return the write's result once it has committed, or its failure.
+    * @throws IllegalStateException if close() has been called.
+    */
+    public <T> CompletableFuture<T> submit(String operation, Write<T> write) {
+        if (closed) {
+            throw new IllegalStateException("The group committer has been closed");
+        }
+        PendingWrite<T> pending = new PendingWrite<>(operation, write);
+        queue.add(pending);
+        return pending.result;
+    }
+
+    /**
+    * Queues a write for the next group and waits until it has committed.
+    *
+    * @return the write's result.
+    * @throws SQLException if the write or its group's commit failed.
+    * @throws ConnectionUnavailableException if the group could not borrow a connection.
+    */
+    public <T> T execute(String operation, Write<T> write) throws SQLException {
+        try {
+            return submit(operation, write).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+    * Stops accepting writes and waits until every write already queued has been committed.
+    */
+    public void close() {
+        closed = true;
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void commitUntilClosed() {
+        List<PendingWrite<?>> group = new ArrayList<>(maxWrites);
+        while (true) {
+            // read before polling: if submit() was closed before an empty poll, nothing can be queued later
+            boolean wasClosed = closed;
+            PendingWrite<?> first;
+            try {
+                first = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // the committer is only stopped through close(), which lets it drain the queue first
+                continue;
+            }
+            if (first == null) {
+                if (wasClosed) {
+                    return;
+                }
+                continue;
+            }
+            group.add(first);
+            collect(group, first.submittedAt + maxDelayNanos);
+            commit(group);
+            group.clear();
+        }
+    }
+
+    /**
+    * Adds queued writes to the group until it is full or the deadline has passed.
+    */
+    private void collect(List<PendingWrite<?>> group, long deadline) {
+        queue.drainTo(group, maxWrites - group.size());
+        while (group.size() < maxWrites) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            PendingWrite<?> next;
+            try {
+                next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (next == null) {
+                return;
+            }
+            group.add(next);
+            queue.drainTo(group, maxWrites - group.size());
+        }
+    }
+
+    private void commit(List<PendingWrite<?>> group) {
+        groups.incrementAndGet();
+        writes.addAndGet(group.size());
+        List<PendingWrite<?>> applied = new ArrayList<>(group.size());
+        try (Connection connection = ConnectionUtil.getConnection("GroupCommitter.commit")) {
+            connection.setAutoCommit(false);
+            for (PendingWrite<?> pending : group) {
+                Savepoint savepoint = connection.setSavepoint();
+                try {
+                    pending.run(connection);
+                    applied.add(pending);
+                } catch (SQLException | RuntimeException e) {
+                    // undo this write alone; the others still commit
+                    connection.rollback(savepoint);
+                    failedWrites.incrementAndGet();
+                    pending.fail(e);
+                }
+            }
+            connection.commit();
+            connection.setAutoCommit(true);
+        } catch (SQLException | RuntimeException e) {
+            LOGGER.error("Could not commit a group of {} writes", group.size(), e);
+            if (e instanceof SQLException) {
+                // a pool timeout is already counted by the pool
+                Metrics.recordQueryError("GroupCommitter.commit");
+            }
+            // nothing the group wrote was committed, whatever each write returned
+            for (PendingWrite<?> pending : group) {
+                if (!pending.result.isDone()) {
+                    failedWrites.incrementAndGet();
+                    pending.fail(e);
+                }
+            }
+            return;
+        }
+        for (PendingWrite<?> pending : applied) {
+            pending.complete();
+        }
+    }
+
+    /**
+    * @return how many writes have been submitted to a group so far.
+    */
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    /**
+    * @return how many writes failed, either alone or with their group's commit.
+    */
+    public long getFailedWriteCount() {
+        return failedWrites.get();
+    }
+
+    /**
+    * @return how many groups have been committed or attempted.
+    */
+    public long getGroupCount() {
+        return groups.get();
+    }
+
+    @Override
+    public String toString() {
+        return "GroupCommitter{" +
+                "writes=" + getWriteCount() +
+                ", failedWrites=" + getFailedWriteCount() +
+                ", groups=" + getGroupCount() +
+                '}';
+    }
+
+    /**
+    * A write waiting for its group, and what it returned once it has run.
+    */
+    private static final class PendingWrite<T> {
+        final String operation;
+        final Write<T> write;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final long submittedAt = System.nanoTime();
+        T value;
+
+        PendingWrite(String operation, Write<T> write) {
+            this.operation = operation;
+            this.write = write;
+        }
+
+        void run(Connection connection) throws SQLException {
+            value = write.execute(connection);
+        }
+
+        void complete() {
+            Metrics.getQueryTimes(operation).recordSince(submittedAt);
+            result.complete(value);
+        }
+
+        void fail(Throwable cause) {
+            Metrics.getQueryTimes(operation).recordSince(submittedAt);
+            result.completeExceptionally(cause);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package DAO;
+
+import Util.ConnectionUtil;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out ids drawn from a database sequence, reserving a block of them with one query and then giving them out
+ * from memory, so that the id of a row is known before the row is written.
+ *
+ * The block is taken with NEXT VALUE FOR, the same expression the table's column default uses, so ids reserved here
+ * never collide with ids taken by inserts that leave the column out. Ids of a block that is not used up because the
+ * process stops are simply never used: ids may have gaps, but are never handed out twice while the sequence lasts.
+ *
+ * Resetting the database recreates the sequence from its start, and the ids left in an allocator's current block are
+ * then issued again by the new sequence. An allocator made before a reset must not be used after it; make a new one,
+ * as a new DAO does.
+ */
+public class IdAllocator {
+
+    private final String sequence;
+    private final int blockSize;
+    /**
+     * Held only while reserving a new block; handing out ids from the current block takes no lock.
+     */
+    private final ReentrantLock reserveLock = new ReentrantLock();
+    private volatile Block block = new Block(new int[0]);
+
+    /**
+    * @param sequence The name of the sequence to draw ids from.
+    * @param blockSize How many ids to reserve with each query.
+    */
+    public IdAllocator(String sequence, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+        }
+        this.sequence = sequence;
+        this.blockSize = blockSize;
+    }
+
+    /**
+    * @return an id that has not been handed out before.
+    * @throws IllegalStateException if the current block is used up and a new one cannot be reserved.
+    */
+    public int nextId() {
+        while (true) {
+            Block current = block;
+            int id = current.take();
+            if (id > 0) {
+                return id;
+            }
+            reserveLock.lock();
+            try {
+                // another thread may have reserved a new block while this one waited for the lock
+                if (block == current) {
+                    block = reserve();
+                }
+            } finally {
+                reserveLock.unlock();
+            }
+        }
+    }
+
+    /**
+    * Reserves the next blockSize values of the sequence with one query. Each row of SYSTEM_RANGE takes its own value,
+    * so the block is usually, but not necessarily, a contiguous range.
+    */
+    private Block reserve() {
+        try (Connection connection = ConnectionUtil.getConnection("IdAllocator.reserve")) {
+            String sql = "SELECT NEXT VALUE FOR " + sequence + " FROM SYSTEM_RANGE(1, ?);";
+
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, blockSize);
+
+            ResultSet resultSet = preparedStatement.executeQuery();
+            int[] ids = new int[blockSize];
+            int count = 0;
+            while (resultSet.next()) {
+                ids[count++] = resultSet.getInt(1);
+            }
+            if (count == 0) {
+                throw new SQLException("Sequence " + sequence + " returned no values");
+            }
+            return new Block(count == blockSize ? ids : Arrays.copyOf(ids, count));
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not reserve ids from " + sequence + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static final class Block {
+        final int[] ids;
+        final AtomicInteger next = new AtomicInteger();
+
+        Block(int[] ids) {
+            this.ids = ids;
+        }
+
+        /**
+         * @return the next unused id of the block, or 0 once it is used up.
+         */
+        int take() {
+            int index = next.getAndIncrement();
+            return index < ids.length ? ids[index] : 0;
+        }
+    }
+}
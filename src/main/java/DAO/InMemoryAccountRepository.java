@@ -0,0 +1,139 @@
+package DAO;
+
+import Model.Account;
+import Util.IntHashMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps accounts in the heap instead of a database, alongside InMemoryMessageRepository. Accounts are indexed by
+ * account_id and by username under one read-write lock: there are far fewer of them than messages and they are
+ * mostly read, so one lock is enough, and it keeps the two indexes and the uniqueness of usernames in step.
+ *
+ * The stored accounts are handed out as they are, so callers must not modify them, as none here do.
+ */
+public class InMemoryAccountRepository implements AccountRepository {
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final IntHashMap<Account> byID = new IntHashMap<>();
+    private final Map<String, Account> byUsername = new HashMap<>();
+    private int lastID;
+
+    /**
+    * @return the created account, or null if its username is taken.
+    */
+    @Override
+    public Account createAccount(Account account) {
+        lock.writeLock().lock();
+        try {
+            if (byUsername.containsKey(account.getUsername())) {
+                return null;
+            }
+            Account created = new Account(++lastID, account.getUsername(), account.getPassword());
+            byID.put(created.getAccount_id(), created);
+            byUsername.put(created.getUsername(), created);
+            return created;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Account getAccountByUsername(String username) {
+        lock.readLock().lock();
+        try {
+            return byUsername.get(username);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean updatePassword(int account_id, String old_password, String new_password) {
+        lock.writeLock().lock();
+        try {
+            Account current = byID.get(account_id);
+            if (current == null || !current.getPassword().equals(old_password)) {
+                return false;
+            }
+            Account updated = new Account(account_id, current.getUsername(), new_password);
+            byID.put(account_id, updated);
+            byUsername.put(updated.getUsername(), updated);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Account getAccountByID(int account_id) {
+        lock.readLock().lock();
+        try {
+            return byID.get(account_id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<Integer> getExistingAccountIDs(Collection<Integer> account_ids) {
+        Set<Integer> existing = new HashSet<>();
+        lock.readLock().lock();
+        try {
+            for (Integer account_id : account_ids) {
+                if (account_id != null && byID.get(account_id) != null) {
+                    existing.add(account_id);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return existing;
+    }
+
+    /**
+    * Reserves an account_id for an account that will be stored later with restore.
+    */
+    int nextAccountID() {
+        lock.writeLock().lock();
+        try {
+            return ++lastID;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+    * Stores an account with the account_id it already has, replacing any stored under that account_id, as when it
+    * is read back from WalStore's files.
+    */
+    void restore(Account account) {
+        lock.writeLock().lock();
+        try {
+            byID.put(account.getAccount_id(), account);
+            byUsername.put(account.getUsername(), account);
+            lastID = Math.max(lastID, account.getAccount_id());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+    * @return every account.
+    */
+    List<Account> getAllAccounts() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(byUsername.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package DAO;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps follows in the heap, for use with InMemoryAccountRepository, whose accounts the follow table's foreign keys
+ * could not see. Each follow is indexed both ways, whom an account follows and who follows it, in concurrent sets.
+ *
+ * Like the follow table, it does not check that the accounts exist; FeedService does that before following.
+ */
+public class InMemoryFollowRepository implements FollowRepository {
+
+    private final Map<Integer, Set<Integer>> followees = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<Integer>> followers = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean follow(int follower_id, int followee_id) {
+        followees.computeIfAbsent(follower_id, k -> ConcurrentHashMap.newKeySet()).add(followee_id);
+        followers.computeIfAbsent(followee_id, k -> ConcurrentHashMap.newKeySet()).add(follower_id);
+        return true;
+    }
+
+    @Override
+    public boolean unfollow(int follower_id, int followee_id) {
+        Set<Integer> followed = followees.get(follower_id);
+        boolean removed = followed != null && followed.remove(followee_id);
+        Set<Integer> following = followers.get(followee_id);
+        if (following != null) {
+            following.remove(follower_id);
+        }
+        return removed;
+    }
+
+    @Override
+    public List<Integer> getFolloweeIDs(int follower_id) {
+        return new ArrayList<>(followees.getOrDefault(follower_id, Set.of()));
+    }
+
+    @Override
+    public List<Integer> getFollowerIDs(int followee_id) {
+        return new ArrayList<>(followers.getOrDefault(followee_id, Set.of()));
+    }
+
+    @Override
+    public List<Integer> getFolloweeIDsWithFollowers(int followers) {
+        List<Integer> followees = new ArrayList<>();
+        for (Map.Entry<Integer, Set<Integer>> entry : this.followers.entrySet()) {
+            if (entry.getValue().size() >= followers) {
+                followees.add(entry.getKey());
+            }
+        }
+        return followees;
+    }
+
+    @Override
+    public int getFollowerCount(int followee_id) {
+        return followers.getOrDefault(followee_id, Set.of()).size();
+    }
+
+    /**
+    * @return every follow, as {follower_id, followee_id}.
+    */
+    List<int[]> getAllFollows() {
+        List<int[]> all = new ArrayList<>();
+        for (Map.Entry<Integer, Set<Integer>> entry : followees.entrySet()) {
+            for (int followee_id : entry.getValue()) {
+                all.add(new int[] {entry.getKey(), followee_id});
+            }
+        }
+        return all;
+    }
+}
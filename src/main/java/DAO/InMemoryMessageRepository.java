@@ -0,0 +1,382 @@
+package DAO;
+
+import Model.Message;
+import Model.VersionedMessage;
+import Util.IntHashMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Keeps messages in the heap instead of a database, for deployments that need the lowest latency and can afford to
+ * lose every message when the server stops, and for benchmarking the HTTP layer without H2 in the loop.
+ *
+ * Messages are held by message_id in STRIPES IntHashMaps, each guarded by its own read-write lock, so lookups by id
+ * box nothing and writers to different messages rarely wait for each other. Two secondary indexes are kept in step
+ * under the same lock as the message they index: every message newest first, and each account's messages newest
+ * first, both concurrent skip lists that readers walk without locking. An index only says which messages exist and in
+ * what order; their current text and version are always read from the maps, so an update changes one place.
+ *
+ * message_ids are handed out in sequence from 1, so listing in message_id order walks the ids up to the highest given
+ * out, and a deleted message costs one lookup. Feeds read whom an account follows from the FollowRepository given,
+ * which is InMemoryFollowRepository when accounts are kept in memory too.
+ */
+public class InMemoryMessageRepository implements MessageRepository {
+
+    private static final int STRIPES = 64;
+    /**
+    * The order of lists newest first. Only time_posted_epoch and message_id are compared, and neither ever changes,
+    * so an updated message keeps its place.
+    */
+    private static final Comparator<Message> NEWEST_FIRST = Comparator
+            .comparingLong(Message::getTime_posted_epoch).reversed()
+            .thenComparing(Comparator.comparingInt(Message::getMessage_id).reversed());
+
+    private final FollowRepository followRepository;
+    @SuppressWarnings("unchecked")
+    private final IntHashMap<VersionedMessage>[] messages = new IntHashMap[STRIPES];
+    private final ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[STRIPES];
+    private final NavigableSet<Message> byTime = new ConcurrentSkipListSet<>(NEWEST_FIRST);
+    private final Map<Integer, NavigableSet<Message>> byPoster = new ConcurrentHashMap<>();
+    private final AtomicInteger lastID = new AtomicInteger();
+
+    /**
+    * @param followRepository Where feeds find the accounts a user follows.
+    */
+    public InMemoryMessageRepository(FollowRepository followRepository) {
+        this.followRepository = followRepository;
+        for (int i = 0; i < STRIPES; i++) {
+            messages[i] = new IntHashMap<>();
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    @Override
+    public int nextMessageID() {
+        return lastID.incrementAndGet();
+    }
+
+    @Override
+    public Message createMessage(Message message) {
+        Message created = withNextID(message);
+        return insert(created) ? created : null;
+    }
+
+    @Override
+    public List<Message> createMessages(List<Message> messages) {
+        List<Message> created = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            created.add(withNextID(message));
+        }
+        return insertMessages(created) ? created : null;
+    }
+
+    /**
+    * A message can only fail to be stored if its message_id is already taken, in which case the messages of the same
+    * call stored before it are removed again.
+    */
+    @Override
+    public boolean insertMessages(List<Message> messages) {
+        for (int i = 0; i < messages.size(); i++) {
+            if (!insert(messages.get(i))) {
+                for (Message inserted : messages.subList(0, i)) {
+                    deleteMessageByID(inserted.getMessage_id(), null, null);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        List<Message> all = new ArrayList<>();
+        streamAllMessages(all::add);
+        return all;
+    }
+
+    @Override
+    public List<Message> getMessagesAfterID(int after_message_id, int limit) {
+        List<Message> page = new ArrayList<>(Math.min(limit, 1024));
+        int last = lastID.get();
+        for (int message_id = Math.max(after_message_id, 0) + 1; message_id <= last && page.size() < limit;
+                message_id++) {
+            Message message = getMessageByID(message_id);
+            if (message != null) {
+                page.add(message);
+            }
+        }
+        return page;
+    }
+
+    @Override
+    public List<Message> getMessagesBeforeTime(long before_epoch, int before_message_id, int limit) {
+        return page(byTime, before_epoch, before_message_id, limit);
+    }
+
+    @Override
+    public void streamAllMessages(Consumer<Message> consumer) {
+        int last = lastID.get();
+        for (int message_id = 1; message_id <= last; message_id++) {
+            Message message = getMessageByID(message_id);
+            if (message != null) {
+                consumer.accept(message);
+            }
+        }
+    }
+
+    @Override
+    public Message getMessageByID(int message_id) {
+        VersionedMessage versioned = getVersionedMessageByID(message_id);
+        return versioned == null ? null : versioned.getMessage();
+    }
+
+    @Override
+    public VersionedMessage getVersionedMessageByID(int message_id) {
+        ReentrantReadWriteLock.ReadLock lock = lockFor(message_id).readLock();
+        lock.lock();
+        try {
+            return stripeFor(message_id).get(message_id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesByIDs(Collection<Integer> message_ids) {
+        List<Message> found = new ArrayList<>(message_ids.size());
+        for (int message_id : message_ids) {
+            Message message = getMessageByID(message_id);
+            if (message != null) {
+                found.add(message);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public Message deleteMessageByID(int message_id) {
+        VersionedMessage deleted = deleteMessageByID(message_id, null, null);
+        return deleted == null ? null : deleted.getMessage();
+    }
+
+    @Override
+    public VersionedMessage deleteMessageByID(int message_id, Integer expected_version, Integer posted_by) {
+        ReentrantReadWriteLock.WriteLock lock = lockFor(message_id).writeLock();
+        lock.lock();
+        try {
+            IntHashMap<VersionedMessage> stripe = stripeFor(message_id);
+            VersionedMessage current = stripe.get(message_id);
+            if (current == null || (expected_version != null && current.getVersion() != expected_version)
+                    || (posted_by != null && current.getMessage().getPosted_by() != posted_by)) {
+                return null;
+            }
+            stripe.remove(message_id);
+            byTime.remove(current.getMessage());
+            NavigableSet<Message> posted = byPoster.get(current.getMessage().getPosted_by());
+            if (posted != null) {
+                posted.remove(current.getMessage());
+            }
+            return current;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Message updateMessageByID(int message_id, String new_message_text) {
+        VersionedMessage updated = updateMessageByID(message_id, new_message_text, null, null);
+        return updated == null ? null : updated.getMessage();
+    }
+
+    @Override
+    public VersionedMessage updateMessageByID(int message_id, String new_message_text, Integer expected_version,
+                                              Integer posted_by) {
+        ReentrantReadWriteLock.WriteLock lock = lockFor(message_id).writeLock();
+        lock.lock();
+        try {
+            IntHashMap<VersionedMessage> stripe = stripeFor(message_id);
+            VersionedMessage current = stripe.get(message_id);
+            if (current == null || (expected_version != null && current.getVersion() != expected_version)
+                    || (posted_by != null && current.getMessage().getPosted_by() != posted_by)) {
+                return null;
+            }
+            Message message = current.getMessage();
+            VersionedMessage updated = new VersionedMessage(new Message(message_id, message.getPosted_by(),
+                    new_message_text, message.getTime_posted_epoch()), current.getVersion() + 1);
+            stripe.put(message_id, updated);
+            return updated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getAllMessagesFromUser(int account_id) {
+        return page(byPoster.get(account_id), Long.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Message> getMessagesFromUserBeforeTime(int account_id, long before_epoch, int before_message_id,
+                                                       int limit) {
+        return page(byPoster.get(account_id), before_epoch, before_message_id, limit);
+    }
+
+    /**
+    * Merges the followed accounts' indexes, taking the newest head among them until the page is full, so only about
+    * limit entries of each are visited however many messages they hold.
+    */
+    @Override
+    public List<Message> getFeedBeforeTime(int follower_id, long before_epoch, int before_message_id, int limit) {
+        Message cursor = cursor(before_epoch, before_message_id);
+        PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> NEWEST_FIRST.compare(a.message, b.message));
+        for (int followee_id : followRepository.getFolloweeIDs(follower_id)) {
+            NavigableSet<Message> posted = byPoster.get(followee_id);
+            if (posted != null) {
+                Head head = new Head(posted.tailSet(cursor, false).iterator());
+                if (head.advance()) {
+                    heads.add(head);
+                }
+            }
+        }
+        List<Message> page = new ArrayList<>(Math.min(limit, 1024));
+        while (page.size() < limit && !heads.isEmpty()) {
+            Head newest = heads.poll();
+            Message current = getMessageByID(newest.message.getMessage_id());
+            if (current != null) {
+                page.add(current);
+            }
+            if (newest.advance()) {
+                heads.add(newest);
+            }
+        }
+        return page;
+    }
+
+    /**
+    * The next message of one followed account's index, during a feed merge.
+    */
+    private static final class Head {
+        final Iterator<Message> rest;
+        Message message;
+
+        Head(Iterator<Message> rest) {
+            this.rest = rest;
+        }
+
+        boolean advance() {
+            if (!rest.hasNext()) {
+                return false;
+            }
+            message = rest.next();
+            return true;
+        }
+    }
+
+    /**
+    * Stores a message as it was at a given version, as when it is read back from WalStore's files.
+    *
+    * @return true if it was stored, or false if its message_id is taken.
+    */
+    boolean restore(VersionedMessage versioned) {
+        return insert(versioned);
+    }
+
+    /**
+    * @return every message with its version, in message_id order.
+    */
+    List<VersionedMessage> getAllVersionedMessages() {
+        List<VersionedMessage> all = new ArrayList<>();
+        int last = lastID.get();
+        for (int message_id = 1; message_id <= last; message_id++) {
+            VersionedMessage versioned = getVersionedMessageByID(message_id);
+            if (versioned != null) {
+                all.add(versioned);
+            }
+        }
+        return all;
+    }
+
+    private boolean insert(Message message) {
+        return insert(new VersionedMessage(message, 1));
+    }
+
+    /**
+    * Stores a message and adds it to the indexes, unless its message_id is taken.
+    */
+    private boolean insert(VersionedMessage versioned) {
+        Message message = versioned.getMessage();
+        int message_id = message.getMessage_id();
+        ReentrantReadWriteLock.WriteLock lock = lockFor(message_id).writeLock();
+        lock.lock();
+        try {
+            IntHashMap<VersionedMessage> stripe = stripeFor(message_id);
+            if (stripe.get(message_id) != null) {
+                return false;
+            }
+            stripe.put(message_id, versioned);
+            byTime.add(message);
+            byPoster.computeIfAbsent(message.getPosted_by(), k -> new ConcurrentSkipListSet<>(NEWEST_FIRST))
+                    .add(message);
+        } finally {
+            lock.unlock();
+        }
+        // keep listing in message_id order reaching every stored message, even one inserted with an id of its own
+        lastID.accumulateAndGet(message_id, Math::max);
+        return true;
+    }
+
+    /**
+    * @return up to limit messages of the index that come after the cursor, as they are now.
+    */
+    private List<Message> page(NavigableSet<Message> index, long before_epoch, int before_message_id, int limit) {
+        List<Message> page = new ArrayList<>(Math.min(limit, 1024));
+        if (index == null) {
+            return page;
+        }
+        for (Message indexed : index.tailSet(cursor(before_epoch, before_message_id), false)) {
+            if (page.size() >= limit) {
+                break;
+            }
+            Message current = getMessageByID(indexed.getMessage_id());
+            if (current != null) {
+                page.add(current);
+            }
+        }
+        return page;
+    }
+
+    /**
+    * @return a message that sorts where the previous page ended, so the page is everything after it.
+    */
+    private static Message cursor(long before_epoch, int before_message_id) {
+        return new Message(before_message_id, 0, "", before_epoch);
+    }
+
+    private Message withNextID(Message message) {
+        return new Message(
+            nextMessageID(),
+            message.getPosted_by(),
+            message.getMessage_text(),
+            message.getTime_posted_epoch());
+    }
+
+    private IntHashMap<VersionedMessage> stripeFor(int message_id) {
+        return messages[Math.floorMod(message_id, STRIPES)];
+    }
+
+    private ReentrantReadWriteLock lockFor(int message_id) {
+        return locks[Math.floorMod(message_id, STRIPES)];
+    }
+}
@@ -1,46 +1,153 @@
 package DAO;
 
 import Model.Message;
+import Model.VersionedMessage;
 import Util.ConnectionUtil;
+import Util.Metrics;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
-import org.h2.command.Prepared;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-public class MessageDAO {
+public class MessageDAO implements MessageRepository {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageDAO.class);
+
+    /**
+    * Hands out message_ids from blocks reserved from message_id_seq, so an insert needs no generated-keys round trip
+    * and a batch knows its ids before it is written.
+    */
+    private final IdAllocator idAllocator;
+    /**
+    * When set, creates, updates and deletes are committed in groups with other writers' instead of one by one.
+    */
+    private final GroupCommitter groupCommitter;
+    /**
+    * How many messages streamAllMessages reads with each query, from socialmedia.stream.pageSize.
+    */
+    private final int streamPageSize = Integer.getInteger("socialmedia.stream.pageSize", 1000);
+
+    public MessageDAO() {
+        this(new IdAllocator("message_id_seq", Integer.getInteger("socialmedia.ids.blockSize", 1000)),
+                Boolean.getBoolean("socialmedia.groupCommit.enabled") ? GroupCommitter.getInstance() : null);
+    }
+
+    /**
+    * @param idAllocator Where the message_ids of new messages come from.
+    */
+    public MessageDAO(IdAllocator idAllocator) {
+        this(idAllocator, null);
+    }
+
+    /**
+    * @param idAllocator Where the message_ids of new messages come from.
+    * @param groupCommitter What single creates, updates and deletes are committed through, or null to commit each on
+    *                       its own.
+    */
+    public MessageDAO(IdAllocator idAllocator, GroupCommitter groupCommitter) {
+        this.idAllocator = idAllocator;
+        this.groupCommitter = groupCommitter;
+    }
+
+    /**
+    * Reserves a message_id for a message that will be inserted later with insertMessages.
+    *
+    * @return a message_id no other message has or will be given.
+    */
+    public int nextMessageID() {
+        return idAllocator.nextId();
+    }
 
     /**
     * Creates a new message in the database.
     * 
     * @param message The message object to be created.
-    * @return The newly created message with its message_id if successful, or null if an error occurs.
+    * @return The newly created message with its message_id.
+    * @throws DataAccessException if the insert failed.
     */
     public Message createMessage(Message message) {
-        Connection connection = ConnectionUtil.getConnection();
+        Message created = withNextID(message);
         try {
-            String sql = "INSERT INTO Message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?);";
-
-            PreparedStatement preparedStatement = connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS);
-            preparedStatement.setInt(1, message.getPosted_by());
-            preparedStatement.setString(2, message.getMessage_text());
-            preparedStatement.setLong(3, message.getTime_posted_epoch());
-            preparedStatement.executeUpdate();
-
-            ResultSet resultSet = preparedStatement.getGeneratedKeys();
-            if (resultSet.next()) {
-                int generated_message_id = resultSet.getInt(1); // Get the auto-generated key
-                return new Message(
-                    generated_message_id, 
-                    message.getPosted_by(), 
-                    message.getMessage_text(), 
-                    message.getTime_posted_epoch());
+            return write("MessageDAO.createMessage", connection -> {
+                String sql = "INSERT INTO Message (message_id, posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?, ?);";
+
+                PreparedStatement preparedStatement = connection.prepareStatement(sql);
+                preparedStatement.setInt(1, created.getMessage_id());
+                preparedStatement.setInt(2, created.getPosted_by());
+                preparedStatement.setString(3, created.getMessage_text());
+                preparedStatement.setLong(4, created.getTime_posted_epoch());
+                preparedStatement.executeUpdate();
+                return created;
+            });
+        }catch(SQLException e){
+            queryFailed("MessageDAO.createMessage", e);
+            throw new DataAccessException("MessageDAO.createMessage", e);
+        }
+    }
+
+    /**
+    * Inserts several messages with one JDBC batch in a single transaction. Either every message is inserted or, if any
+    * insert fails, none are.
+    *
+    * @param messages The messages to insert.
+    * @return The inserted messages with their new message_ids, in the same order as given, or null if the database
+    * rejected one of them and the batch was rolled back.
+    * @throws DataAccessException if the batch failed for any other reason.
+    */
+    public List<Message> createMessages(List<Message> messages) {
+        List<Message> created = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            created.add(withNextID(message));
+        }
+        return insertMessages(created) ? created : null;
+    }
+
+    /**
+    * Inserts messages whose message_ids were already reserved with nextMessageID, with one JDBC batch in a single
+    * transaction. Either every message is inserted or, if any insert fails, none are.
+    *
+    * @param messages The messages to insert, each with its message_id set.
+    * @return true if every message was inserted, or false if the database rejected one of them, such as for a
+    * foreign key or duplicate key violation, and the batch was rolled back.
+    * @throws DataAccessException if the batch failed for any other reason and was rolled back, so that it may succeed
+    * if tried again.
+    */
+    public boolean insertMessages(List<Message> messages) {
+        if (messages.isEmpty()) {
+            return true;
+        }
+        try (Connection connection = ConnectionUtil.getConnection("MessageDAO.insertMessages")) {
+            String sql = "INSERT INTO Message (message_id, posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?, ?);";
+
+            connection.setAutoCommit(false);
+            try {
+                PreparedStatement preparedStatement = connection.prepareStatement(sql);
+                for (Message message : messages) {
+                    preparedStatement.setInt(1, message.getMessage_id());
+                    preparedStatement.setInt(2, message.getPosted_by());
+                    preparedStatement.setString(3, message.getMessage_text());
+                    preparedStatement.setLong(4, message.getTime_posted_epoch());
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
             }
         }catch(SQLException e){
-            System.out.println(e.getMessage());
+            queryFailed("MessageDAO.insertMessages", e);
+            if (isConstraintViolation(e)) {
+                return false;
+            }
+            throw new DataAccessException("MessageDAO.insertMessages", e);
         }
-        return null;
+        return true;
     }
 
     /**
@@ -49,28 +156,106 @@ public class MessageDAO {
     * @return A list of all messages in the database, or an empty list if no messages are found.
     */
     public List<Message> getAllMessages(){ 
-        Connection connection = ConnectionUtil.getConnection();
         List<Message> messages = new ArrayList<>();
-        try {
+        try (Connection connection = ConnectionUtil.getConnection("MessageDAO.getAllMessages")) {
             String sql = "SELECT * FROM Message;";
 
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
             ResultSet resultSet = preparedStatement.executeQuery();
             while(resultSet.next()) {
-                Message message = new Message(
-                    resultSet.getInt("message_id"), 
-                    resultSet.getInt("posted_by"), 
-                    resultSet.getString("message_text"), 
-                    resultSet.getLong("time_posted_epoch")
-                );
-                messages.add(message);
+                messages.add(toMessage(resultSet));
+            }
+        }catch(SQLException e){
+            queryFailed("MessageDAO.getAllMessages", e);
+            throw new DataAccessException("MessageDAO.getAllMessages", e);
+        }
+        return messages;
+    }
+
+    /**
+    * Retrieves one page of messages in message_id order, starting after the given message_id. Because the query seeks
+    * on the primary key instead of using OFFSET, every page costs the same no matter how deep into the table it is.
+    *
+    * @param after_message_id Only messages with a larger message_id are returned; 0 starts from the beginning.
+    * @param limit The maximum number of messages to return.
+    * @return The page of messages, or an empty list if there are no more.
+    */
+    public List<Message> getMessagesAfterID(int after_message_id, int limit) {
+        List<Message> messages = new ArrayList<>();
+        try (Connection connection = ConnectionUtil.getConnection("MessageDAO.getMessagesAfterID")) {
+            String sql = "SELECT * FROM Message WHERE message_id > ? ORDER BY message_id LIMIT ?;";
+
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, after_message_id);
+            preparedStatement.setInt(2, limit);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while(resultSet.next()) {
+                messages.add(toMessage(resultSet));
             }
         }catch(SQLException e){
-            System.out.println(e.getMessage());
+            queryFailed("MessageDAO.getMessagesAfterID", e);
+            throw new DataAccessException("MessageDAO.getMessagesAfterID", e);
         }
         return messages;
     }
 
+    /**
+    * Retrieves one page of messages newest first, ordered by time_posted_epoch and then message_id, starting after
+    * the message identified by the cursor (time_posted_epoch, message_id) of the previous page.
+    *
+    * @param before_epoch The time_posted_epoch of the last message on the previous page, or Long.MAX_VALUE to start
+    *                     from the newest message.
+    * @param before_message_id The message_id of the last message on the previous page.
+    * @param limit The maximum number of messages to return.
+    * @return The page of messages, or an empty list if there are no more.
+    */
+    public List<Message> getMessagesBeforeTime(long before_epoch, int before_message_id, int limit) {
+        List<Message> messages = new ArrayList<>();
+        try (Connection connection = ConnectionUtil.getConnection("MessageDAO.getMessagesBeforeTime")) {
+            // the first condition is a plain range so the time_posted_epoch index can seek to the cursor
+            String sql = "SELECT * FROM Message WHERE time_posted_epoch <= ? "
+                    + "AND (time_posted_epoch < ? OR message_id < ?) "
+                    + "ORDER BY time_posted_epoch DESC, message_id DESC LIMIT ?;";
+
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setLong(1, before_epoch);
+            preparedStatement.setLong(2, before_epoch);
+            preparedStatement.setInt(3, before_message_id);
+            preparedStatement.setInt(4, limit);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while(resultSet.next()) {
+                messages.add(toMessage(resultSet));
+            }
+        }catch(SQLException e){
+            queryFailed("MessageDAO.getMessagesBeforeTime", e);
+            throw new DataAccessException("MessageDAO.getMessagesBeforeTime", e);
+        }
+        return messages;
+    }
+
+    /**
+    * Passes every message in message_id order to the given consumer, reading them streamPageSize at a time with
+    * getMessagesAfterID. A connection is borrowed only while a page is read and is returned before the consumer sees
+    * its messages, so a slow consumer, such as a client downloading the whole table, never keeps one from other
+    * requests. Memory use stays at one page however many messages there are. Each page is its own query, so a message
+    * created or deleted while the stream runs may or may not be passed, but none is passed twice.
+    *
+    * @param consumer Receives each message in turn.
+    */
+    public void streamAllMessages(Consumer<Message> consumer) {
+        int after_message_id = 0;
+        List<Message> page;
+        do {
+            page = getMessagesAfterID(after_message_id, streamPageSize);
+            for (Message message : page) {
+                consumer.accept(message);
+            }
+            if (!page.isEmpty()) {
+                after_message_id = page.get(page.size() - 1).getMessage_id();
+            }
+        } while (page.size() == streamPageSize);
+    }
+
     /**
     * Retrieves a specific message by its ID.
     * 
@@ -78,8 +263,7 @@ public class MessageDAO {
     * @return The message object if found, or null if no message is found with the given ID.
     */    
     public Message getMessageByID(int message_id){
-        Connection connection = ConnectionUtil.getConnection();
-        try {
+        try (Connection connection = ConnectionUtil.getConnection("MessageDAO.getMessageByID")) {
             String sql = "SELECT * FROM Message WHERE message_id = ?;";
 
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
@@ -87,93 +271,336 @@ public class MessageDAO {
 
             ResultSet resultSet = preparedStatement.executeQuery();
             if(resultSet.next()){
-                Message message = new Message(
-                    resultSet.getInt("message_id"), 
-                    resultSet.getInt("posted_by"), 
-                    resultSet.getString("message_text"), 
-                    resultSet.getLong("time_posted_epoch") 
-                );
-                return message;
+                return toMessage(resultSet);
             }
         }catch(SQLException e){
-            System.out.println(e.getMessage());
+            queryFailed("MessageDAO.getMessageByID", e);
+            throw new DataAccessException("MessageDAO.getMessageByID", e);
         }
         return null;
     }
 
     /**
-    * Deletes a message from the database by its ID.
+    * Retrieves a specific message by its ID together with its version.
+    *
+    * @param message_id The ID of the message to retrieve.
+    * @return The message and its version if found, or null if no message exists with the given ID.
+    */
+    public VersionedMessage getVersionedMessageByID(int message_id){
+        try (Connection connection = ConnectionUtil.getConnection("MessageDAO.getVersionedMessageByID")) {
+            String sql = "SELECT * FROM Message WHERE message_id = ?;";
+
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, message_id);
+
+            ResultSet resultSet = preparedStatement.executeQuery();
+            if(resultSet.next()){
+                return toVersionedMessage(resultSet);
+            }
+        }catch(SQLException e){
+            queryFailed("MessageDAO.getVersionedMessageByID", e);
+            throw new DataAccessException("MessageDAO.getVersionedMessageByID", e);
+        }
+        return null;
+    }
+
+    /**
+    * Retrieves several messages by their IDs in a single query, however many IDs are given. The IDs are bound as one
+    * array parameter, so the statement text is the same for every call and stays in the statement cache.
+    *
+    * @param message_ids The IDs of the messages to retrieve.
+    * @return The messages among them that exist, in no particular order.
+    */
+    public List<Message> getMessagesByIDs(Collection<Integer> message_ids) {
+        List<Message> messages = new ArrayList<>(message_ids.size());
+        if (message_ids.isEmpty()) {
+            return messages;
+        }
+        try (Connection connection = ConnectionUtil.getConnection("MessageDAO.getMessagesByIDs")) {
+            String sql = "SELECT * FROM Message WHERE message_id = ANY(?);";
+
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setArray(1, connection.createArrayOf("INTEGER", message_ids.toArray()));
+
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while(resultSet.next()){
+                messages.add(toMessage(resultSet));
+            }
+        }catch(SQLException e){
+            queryFailed("MessageDAO.getMessagesByIDs", e);
+            throw new DataAccessException("MessageDAO.getMessagesByIDs", e);
+        }
+        return messages;
+    }
+
+    /**
+    * Deletes a message from the database by its ID and returns the row as it was before the delete, in a single
+    * statement, by selecting from H2's OLD TABLE view of the DELETE.
     * 
     * @param message_id The ID of the message to delete.
+    * @return The deleted message, or null if no message existed with the given ID.
+    * @throws DataAccessException if the delete failed.
     */    
-    public void deleteMessageByID(int message_id){
-        Connection connection = ConnectionUtil.getConnection();
+    public Message deleteMessageByID(int message_id){
+        VersionedMessage deleted = deleteMessageByID(message_id, null, null);
+        return deleted == null ? null : deleted.getMessage();
+    }
+
+    /**
+    * Deletes a message by its ID, but only if it is still at the expected version and was posted by the expected
+    * account, and returns the row as it was before the delete, in a single statement. The conditions are part of the
+    * DELETE, so nothing can change the message between checking them and deleting it.
+    *
+    * @param message_id The ID of the message to delete.
+    * @param expected_version The version the message must be at, or null to delete whatever its version.
+    * @param posted_by The account that must have posted the message, or null to delete whoever posted it.
+    * @return The deleted message and its version, or null if no message existed with the given ID at that version by
+    * that account.
+    * @throws DataAccessException if the delete failed.
+    */
+    public VersionedMessage deleteMessageByID(int message_id, Integer expected_version, Integer posted_by){
         try {
-            String sql = "DELETE FROM Message WHERE message_id = ?;";
+            return write("MessageDAO.deleteMessageByID", connection -> {
+                String sql = "SELECT * FROM OLD TABLE (DELETE FROM Message WHERE message_id = ?"
+                        + conditions(expected_version, posted_by) + ");";
 
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setInt(1, message_id);
-            preparedStatement.executeUpdate();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql);
+                preparedStatement.setInt(1, message_id);
+                setConditions(preparedStatement, 2, expected_version, posted_by);
+                ResultSet resultSet = preparedStatement.executeQuery();
+                return resultSet.next() ? toVersionedMessage(resultSet) : null;
+            });
         }catch(SQLException e){
-            System.out.println(e.getMessage());
+            queryFailed("MessageDAO.deleteMessageByID", e);
+            throw new DataAccessException("MessageDAO.deleteMessageByID", e);
         }
     }
 
     /**
-    * Updates the text of a specific message by its ID.
+    * Updates the text of a specific message by its ID and returns the updated row in a single statement, by
+    * selecting from H2's FINAL TABLE view of the UPDATE.
     * 
     * @param message_id The ID of the message to update.
     * @param new_message_text The new text to update the message with.
-    * @return The updated message object if successful, or null if the update fails.
+    * @return The updated message object if successful, or null if no message exists with the given ID.
+    * @throws DataAccessException if the update failed.
     */
     public Message updateMessageByID(int message_id, String new_message_text){
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "UPDATE Message SET message_text = ? WHERE message_id = ?;";
-
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, new_message_text);
-            preparedStatement.setInt(2, message_id);
-            preparedStatement.executeUpdate();
+        VersionedMessage updated = updateMessageByID(message_id, new_message_text, null, null);
+        return updated == null ? null : updated.getMessage();
+    }
 
-            return getMessageByID(message_id);
+    /**
+    * Updates the text of a specific message by its ID, but only if it is still at the expected version and was
+    * posted by the expected account, and returns the updated row in a single statement. Every update moves the
+    * message to the next version, so two clients that read the same version cannot both update it.
+    *
+    * @param message_id The ID of the message to update.
+    * @param new_message_text The new text to update the message with.
+    * @param expected_version The version the message must be at, or null to update whatever its version.
+    * @param posted_by The account that must have posted the message, or null to update whoever posted it.
+    * @return The updated message and its new version, or null if no message exists with the given ID at that version
+    * by that account.
+    * @throws DataAccessException if the update failed.
+    */
+    public VersionedMessage updateMessageByID(int message_id, String new_message_text, Integer expected_version,
+                                              Integer posted_by){
+        try {
+            return write("MessageDAO.updateMessageByID", connection -> {
+                String sql = "SELECT * FROM FINAL TABLE (UPDATE Message SET message_text = ?, version = version + 1 "
+                        + "WHERE message_id = ?" + conditions(expected_version, posted_by) + ");";
 
+                PreparedStatement preparedStatement = connection.prepareStatement(sql);
+                preparedStatement.setString(1, new_message_text);
+                preparedStatement.setInt(2, message_id);
+                setConditions(preparedStatement, 3, expected_version, posted_by);
+                ResultSet resultSet = preparedStatement.executeQuery();
+                return resultSet.next() ? toVersionedMessage(resultSet) : null;
+            });
         } catch(SQLException e){
-            System.out.println(e.getMessage());
+            queryFailed("MessageDAO.updateMessageByID", e);
+            throw new DataAccessException("MessageDAO.updateMessageByID", e);
         }
-    
-        return null; // Return null in case of an error
     }
 
     /**
     * Retrieves all messages written by a specific user from the database.
     * 
     * @param account_id The ID of the user whose messages are to be retrieved.
-    * @return A list of all messages posted by the user with the given account_id, or an empty list if no messages are found.
+    * @return A list of all messages posted by the user with the given account_id, newest first, or an empty list if no
+    * messages are found.
     */    
     public List<Message> getAllMessagesFromUser(int account_id) {
-        Connection connection = ConnectionUtil.getConnection();
         List<Message> messages = new ArrayList<>();
-        try {
-            String sql = "SELECT * FROM Message WHERE posted_by = ?;";
+        try (Connection connection = ConnectionUtil.getConnection("MessageDAO.getAllMessagesFromUser")) {
+            String sql = "SELECT * FROM Message WHERE posted_by = ? ORDER BY time_posted_epoch DESC, message_id DESC;";
 
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
             preparedStatement.setInt(1, account_id);
 
             ResultSet resultSet = preparedStatement.executeQuery();
-            if(resultSet.next()){
-                Message message = new Message(
-                    resultSet.getInt("message_id"), 
-                    resultSet.getInt("posted_by"), 
-                    resultSet.getString("message_text"), 
-                    resultSet.getLong("time_posted_epoch") 
-                );
-                messages.add(message);
+            while(resultSet.next()){
+                messages.add(toMessage(resultSet));
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        }catch(SQLException e){
+            queryFailed("MessageDAO.getAllMessagesFromUser", e);
+            throw new DataAccessException("MessageDAO.getAllMessagesFromUser", e);
         }
         return messages;
     }
 
+    /**
+    * Retrieves one page of a user's messages newest first, continuing after the message identified by before_epoch
+    * and before_message_id, using the (posted_by, time_posted_epoch) index.
+    *
+    * @param account_id The ID of the user whose messages are to be retrieved.
+    * @param before_epoch The time_posted_epoch of the last message on the previous page, or Long.MAX_VALUE for the
+    *                     first page.
+    * @param before_message_id The message_id of the last message on the previous page, or Integer.MAX_VALUE for the
+    *                          first page.
+    * @param limit The maximum number of messages to return.
+    * @return The page of messages, newest first.
+    */
+    public List<Message> getMessagesFromUserBeforeTime(int account_id, long before_epoch, int before_message_id, int limit) {
+        List<Message> messages = new ArrayList<>();
+        try (Connection connection = ConnectionUtil.getConnection("MessageDAO.getMessagesFromUserBeforeTime")) {
+            String sql = "SELECT * FROM Message WHERE posted_by = ? AND time_posted_epoch <= ? "
+                    + "AND (time_posted_epoch < ? OR message_id < ?) "
+                    + "ORDER BY time_posted_epoch DESC, message_id DESC LIMIT ?;";
+
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, account_id);
+            preparedStatement.setLong(2, before_epoch);
+            preparedStatement.setLong(3, before_epoch);
+            preparedStatement.setInt(4, before_message_id);
+            preparedStatement.setInt(5, limit);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while(resultSet.next()) {
+                messages.add(toMessage(resultSet));
+            }
+        }catch(SQLException e){
+            queryFailed("MessageDAO.getMessagesFromUserBeforeTime", e);
+            throw new DataAccessException("MessageDAO.getMessagesFromUserBeforeTime", e);
+        }
+        return messages;
+    }
+
+    /**
+    * Retrieves one page of the messages posted by the accounts a user follows, newest first, continuing after the
+    * message identified by before_epoch and before_message_id. Each followed account's messages are read through the
+    * (posted_by, time_posted_epoch) index.
+    *
+    * @param follower_id The ID of the user whose feed is to be retrieved.
+    * @param before_epoch The time_posted_epoch of the last message on the previous page, or Long.MAX_VALUE for the
+    *                     first page.
+    * @param before_message_id The message_id of the last message on the previous page, or Integer.MAX_VALUE for the
+    *                          first page.
+    * @param limit The maximum number of messages to return.
+    * @return The page of messages, newest first.
+    */
+    public List<Message> getFeedBeforeTime(int follower_id, long before_epoch, int before_message_id, int limit) {
+        List<Message> messages = new ArrayList<>();
+        try (Connection connection = ConnectionUtil.getConnection("MessageDAO.getFeedBeforeTime")) {
+            String sql = "SELECT m.* FROM Follow f JOIN Message m ON m.posted_by = f.followee_id "
+                    + "WHERE f.follower_id = ? AND m.time_posted_epoch <= ? "
+                    + "AND (m.time_posted_epoch < ? OR m.message_id < ?) "
+                    + "ORDER BY m.time_posted_epoch DESC, m.message_id DESC LIMIT ?;";
+
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, follower_id);
+            preparedStatement.setLong(2, before_epoch);
+            preparedStatement.setLong(3, before_epoch);
+            preparedStatement.setInt(4, before_message_id);
+            preparedStatement.setInt(5, limit);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while(resultSet.next()) {
+                messages.add(toMessage(resultSet));
+            }
+        }catch(SQLException e){
+            queryFailed("MessageDAO.getFeedBeforeTime", e);
+            throw new DataAccessException("MessageDAO.getFeedBeforeTime", e);
+        }
+        return messages;
+    }
+
+    /**
+    * @return a copy of the message with a newly reserved message_id.
+    */
+    private Message withNextID(Message message) {
+        return new Message(
+            idAllocator.nextId(),
+            message.getPosted_by(),
+            message.getMessage_text(),
+            message.getTime_posted_epoch());
+    }
+
+    /**
+    * Runs a single-row write through the group committer if there is one, or else on a connection of its own in
+    * autocommit.
+    *
+    * @param operation The DAO method, for Metrics' query times.
+    */
+    private <T> T write(String operation, GroupCommitter.Write<T> write) throws SQLException {
+        if (groupCommitter != null) {
+            return groupCommitter.execute(operation, write);
+        }
+        try (Connection connection = ConnectionUtil.getConnection(operation)) {
+            return write.execute(connection);
+        }
+    }
+
+    /**
+    * @return whether the database refused the statement for breaking an integrity constraint, which trying it again
+    * cannot fix. SQLSTATE class 23 covers these, including in the BatchUpdateException a failed batch throws.
+    */
+    private static boolean isConstraintViolation(SQLException e) {
+        return e instanceof SQLIntegrityConstraintViolationException
+                || (e.getSQLState() != null && e.getSQLState().startsWith("23"));
+    }
+
+    /**
+    * @return the extra WHERE conditions of a conditional update or delete, with a parameter for each one given.
+    */
+    private static String conditions(Integer expected_version, Integer posted_by) {
+        return (expected_version == null ? "" : " AND version = ?") + (posted_by == null ? "" : " AND posted_by = ?");
+    }
+
+    /**
+    * Binds the parameters of the conditions, starting at parameterIndex.
+    */
+    private static void setConditions(PreparedStatement preparedStatement, int parameterIndex,
+                                      Integer expected_version, Integer posted_by) throws SQLException {
+        if (expected_version != null) {
+            preparedStatement.setInt(parameterIndex++, expected_version);
+        }
+        if (posted_by != null) {
+            preparedStatement.setInt(parameterIndex, posted_by);
+        }
+    }
+
+    /**
+    * Maps the current row of a result set to a Message.
+    */
+    private Message toMessage(ResultSet resultSet) throws SQLException {
+        return new Message(
+            resultSet.getInt("message_id"),
+            resultSet.getInt("posted_by"),
+            resultSet.getString("message_text"),
+            resultSet.getLong("time_posted_epoch"));
+    }
+
+    /**
+    * Maps the current row of a result set to a Message and its version.
+    */
+    private VersionedMessage toVersionedMessage(ResultSet resultSet) throws SQLException {
+        return new VersionedMessage(toMessage(resultSet), resultSet.getInt("version"));
+    }
+
+    /**
+    * Logs a message statement that failed, and counts it in the metrics under its DAO method.
+    */
+    private static void queryFailed(String operation, SQLException e) {
+        LOGGER.error("{} failed", operation, e);
+        Metrics.recordQueryError(operation);
+    }
 }
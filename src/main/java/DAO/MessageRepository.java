@@ -0,0 +1,165 @@
+package DAO;
+
+import Model.Message;
+import Model.VersionedMessage;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Where messages are stored. MessageDAO keeps them in the H2 database and InMemoryMessageRepository keeps them in the
+ * heap; the services are given one or the other and depend only on this interface.
+ *
+ * Lists newest first are ordered by time_posted_epoch and then message_id, both descending, and their pages continue
+ * after the (time_posted_epoch, message_id) of the last message of the previous page.
+ *
+ * A read or single-message write that fails throws DataAccessException rather than returning an empty list or null,
+ * so that callers which keep what they read never take a failure for a result, nor a failed update or delete for a
+ * missing message.
+ */
+public interface MessageRepository {
+
+    /**
+    * Reserves a message_id for a message that will be inserted later with insertMessages.
+    *
+    * @return a message_id no other message has or will be given.
+    */
+    int nextMessageID();
+
+    /**
+    * @param message The message to create; its message_id is ignored.
+    * @return the created message with its new message_id.
+    */
+    Message createMessage(Message message);
+
+    /**
+    * Creates several messages at once: either all of them or, if any cannot be stored, none.
+    *
+    * @param messages The messages to create; their message_ids are ignored.
+    * @return the created messages with their new message_ids, in the order given, or null if none were created.
+    */
+    List<Message> createMessages(List<Message> messages);
+
+    /**
+    * Stores messages whose message_ids were reserved with nextMessageID: either all of them or, if any cannot be
+    * stored, none.
+    *
+    * @param messages The messages to store, each with its message_id set.
+    * @return true if every message was stored, or false if one of them was rejected, such as for a message_id already
+    * in use, and none were stored. A failure that storing them again might not meet is thrown instead.
+    */
+    boolean insertMessages(List<Message> messages);
+
+    /**
+    * @return every message.
+    */
+    List<Message> getAllMessages();
+
+    /**
+    * @param after_message_id Only messages with a larger message_id are returned; 0 starts from the beginning.
+    * @param limit The most messages to return.
+    * @return one page of messages in message_id order.
+    */
+    List<Message> getMessagesAfterID(int after_message_id, int limit);
+
+    /**
+    * @param before_epoch The time_posted_epoch of the last message on the previous page, or Long.MAX_VALUE to start
+    *                     from the newest message.
+    * @param before_message_id The message_id of the last message on the previous page.
+    * @param limit The most messages to return.
+    * @return one page of messages, newest first.
+    */
+    List<Message> getMessagesBeforeTime(long before_epoch, int before_message_id, int limit);
+
+    /**
+    * Passes every message in message_id order to the consumer, one at a time, without building a list.
+    *
+    * @param consumer Receives each message in turn.
+    */
+    void streamAllMessages(Consumer<Message> consumer);
+
+    /**
+    * @param message_id The ID of the message to retrieve.
+    * @return the message, or null if there is none with the given ID.
+    */
+    Message getMessageByID(int message_id);
+
+    /**
+    * @param message_id The ID of the message to retrieve.
+    * @return the message and its version, or null if there is none with the given ID.
+    */
+    VersionedMessage getVersionedMessageByID(int message_id);
+
+    /**
+    * @param message_ids The IDs of the messages to retrieve.
+    * @return the messages among them that exist, in no particular order.
+    */
+    List<Message> getMessagesByIDs(Collection<Integer> message_ids);
+
+    /**
+    * @param message_id The ID of the message to delete.
+    * @return the deleted message, or null if there was none with the given ID.
+    */
+    Message deleteMessageByID(int message_id);
+
+    /**
+    * Deletes a message, but only if it is still at the expected version and was posted by the expected account.
+    *
+    * @param message_id The ID of the message to delete.
+    * @param expected_version The version the message must be at, or null to delete whatever its version.
+    * @param posted_by The account that must have posted the message, or null to delete whoever posted it.
+    * @return the deleted message and its version, or null if there was none with the given ID at that version by
+    * that account.
+    */
+    VersionedMessage deleteMessageByID(int message_id, Integer expected_version, Integer posted_by);
+
+    /**
+    * @param message_id The ID of the message to update.
+    * @param new_message_text The message's new text.
+    * @return the updated message, or null if there is none with the given ID.
+    */
+    Message updateMessageByID(int message_id, String new_message_text);
+
+    /**
+    * Replaces a message's text, but only if it is still at the expected version and was posted by the expected
+    * account, and moves it to the next version.
+    *
+    * @param message_id The ID of the message to update.
+    * @param new_message_text The message's new text.
+    * @param expected_version The version the message must be at, or null to update whatever its version.
+    * @param posted_by The account that must have posted the message, or null to update whoever posted it.
+    * @return the updated message and its new version, or null if there is none with the given ID at that version by
+    * that account.
+    */
+    VersionedMessage updateMessageByID(int message_id, String new_message_text, Integer expected_version,
+                                       Integer posted_by);
+
+    /**
+    * @param account_id The ID of the user whose messages are wanted.
+    * @return every message the user posted, newest first.
+    */
+    List<Message> getAllMessagesFromUser(int account_id);
+
+    /**
+    * @param account_id The ID of the user whose messages are wanted.
+    * @param before_epoch The time_posted_epoch of the last message on the previous page, or Long.MAX_VALUE for the
+    *                     first page.
+    * @param before_message_id The message_id of the last message on the previous page, or Integer.MAX_VALUE for the
+    *                          first page.
+    * @param limit The most messages to return.
+    * @return one page of the user's messages, newest first.
+    */
+    List<Message> getMessagesFromUserBeforeTime(int account_id, long before_epoch, int before_message_id, int limit);
+
+    /**
+    * @param follower_id The ID of the user whose feed is wanted.
+    * @param before_epoch The time_posted_epoch of the last message on the previous page, or Long.MAX_VALUE for the
+    *                     first page.
+    * @param before_message_id The message_id of the last message on the previous page, or Integer.MAX_VALUE for the
+    *                          first page.
+    * @param limit The most messages to return.
+    * @return one page of the messages posted by the accounts the user follows, newest first.
+    */
+    List<Message> getFeedBeforeTime(int follower_id, long before_epoch, int before_message_id, int limit);
+}
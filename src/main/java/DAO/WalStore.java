@@ -0,0 +1,806 @@
+package DAO;
+
+import Model.Account;
+import Model.Message;
+import Model.VersionedMessage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A storage engine for accounts, messages and follows that needs no database: every change is appended to a
+ * write-ahead log in a directory of its own, the live state is kept in the in-memory repositories, and on startup the
+ * state is rebuilt from the newest snapshot and the log written since.
+ *
+ * A change is checked against the live state, appended to the log as a record, and only then applied, by the same
+ * code that applies the record when the log is replayed, so what is read back after a restart is exactly what was
+ * answered before it. Changes are made one at a time under one lock; reads never take it.
+ *
+ * The directory holds log-N.wal and snapshot-N.snap files. Once socialmedia.wal.snapshotEvery records have been
+ * appended, or the log file (socialmedia.wal.logSize bytes) is full, the log is rolled over: the live state is copied
+ * under the lock, a new log N+1 is started, and a background thread writes the copy to snapshot-N+1, which then
+ * replaces every older file. Recovery loads the newest snapshot that reads back whole and replays every log from its
+ * number on, stopping each at the first record that is cut short or fails its checksum.
+ *
+ * With socialmedia.wal.fsync set, each change is forced to disk before it is answered; otherwise a change survives a
+ * crash of the process but can be lost in a crash of the machine.
+ *
+ * A change that cannot be appended to the log is not applied, and the repositories throw UncheckedIOException for it
+ * rather than answering as if the change were invalid.
+ */
+public class WalStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WalStore.class);
+
+    private static final byte ACCOUNT_CREATED = 1;
+    private static final byte PASSWORD_UPDATED = 2;
+    private static final byte MESSAGES_CREATED = 3;
+    private static final byte MESSAGE_UPDATED = 4;
+    private static final byte MESSAGE_DELETED = 5;
+    private static final byte FOLLOWED = 6;
+    private static final byte UNFOLLOWED = 7;
+    /**
+    * A message at its version, as only snapshots hold them.
+    */
+    private static final byte MESSAGE_RESTORED = 8;
+    /**
+    * The last record of every snapshot; one without it was not finished.
+    */
+    private static final byte SNAPSHOT_END = 9;
+
+    private static final String LOG_PREFIX = "log-";
+    private static final String LOG_SUFFIX = ".wal";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private final Path directory;
+    private final int logSize;
+    private final boolean fsync;
+    private final long snapshotEvery;
+
+    private final InMemoryAccountRepository accounts = new InMemoryAccountRepository();
+    private final InMemoryFollowRepository follows = new InMemoryFollowRepository();
+    private final InMemoryMessageRepository messages = new InMemoryMessageRepository(follows);
+    private final AccountRepository accountRepository = new LoggedAccountRepository();
+    private final MessageRepository messageRepository = new LoggedMessageRepository();
+    private final FollowRepository followRepository = new LoggedFollowRepository();
+
+    /**
+    * Held around every change, from checking it to applying it, and around rolling the log over.
+    */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final RecordBuffer record = new RecordBuffer();
+    private final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "wal-snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+    * Keeps a second store from opening the same directory.
+    */
+    private final FileChannel lockChannel;
+    private final FileLock directoryLock;
+
+    private WriteAheadLog log;
+    private long logNumber;
+    private long recordsSinceSnapshot;
+
+    public WalStore() throws IOException {
+        this(Paths.get(System.getProperty("socialmedia.wal.dir", "wal")),
+                Integer.getInteger("socialmedia.wal.logSize", 64 * 1024 * 1024),
+                Boolean.getBoolean("socialmedia.wal.fsync"),
+                Long.getLong("socialmedia.wal.snapshotEvery", 100000));
+    }
+
+    /**
+    * Opens the store in a directory, creating it if need be, and recovers whatever it holds.
+    *
+    * @param directory Where the log and snapshot files are kept.
+    * @param logSize The size of each log file, in bytes.
+    * @param fsync Whether every change is forced to disk before it is answered.
+    * @param snapshotEvery How many records are appended to a log before it is rolled over and a snapshot taken.
+    */
+    public WalStore(Path directory, int logSize, boolean fsync, long snapshotEvery) throws IOException {
+        this.directory = directory;
+        this.logSize = logSize;
+        this.fsync = fsync;
+        this.snapshotEvery = snapshotEvery;
+        Files.createDirectories(directory);
+        this.lockChannel = FileChannel.open(directory.resolve("lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException(directory + " is in use by another WalStore");
+        }
+        this.directoryLock = lock;
+        try {
+            recover();
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    public AccountRepository getAccountRepository() {
+        return accountRepository;
+    }
+
+    public MessageRepository getMessageRepository() {
+        return messageRepository;
+    }
+
+    public FollowRepository getFollowRepository() {
+        return followRepository;
+    }
+
+    /**
+    * Rolls the log over now and waits for the snapshot to be written.
+    */
+    public void snapshot() throws IOException {
+        Future<?> written;
+        writeLock.lock();
+        try {
+            written = rollOver();
+        } finally {
+            writeLock.unlock();
+        }
+        try {
+            written.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the snapshot", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Writing the snapshot failed", e.getCause());
+        }
+    }
+
+    /**
+    * Forces the log to disk, waits for any snapshot being written, and releases the directory. The store cannot be
+    * used afterwards.
+    */
+    public void close() {
+        writeLock.lock();
+        try {
+            log.close();
+        } catch (IOException e) {
+            LOGGER.error("Could not close the write-ahead log", e);
+        } finally {
+            writeLock.unlock();
+        }
+        snapshotWriter.shutdown();
+        try {
+            snapshotWriter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            directoryLock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            LOGGER.error("Could not release {}", directory, e);
+        }
+    }
+
+    /**
+    * Loads the newest whole snapshot, replays the logs written since, and opens the last of them for appending.
+    */
+    private void recover() throws IOException {
+        TreeSet<Long> snapshotNumbers = new TreeSet<>();
+        TreeSet<Long> logNumbers = new TreeSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    // a snapshot that was never finished
+                    Files.delete(file);
+                } else if (name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX)) {
+                    snapshotNumbers.add(fileNumber(name, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX));
+                } else if (name.startsWith(LOG_PREFIX) && name.endsWith(LOG_SUFFIX)) {
+                    logNumbers.add(fileNumber(name, LOG_PREFIX, LOG_SUFFIX));
+                }
+            }
+        }
+        Long base = null;
+        for (long number : snapshotNumbers.descendingSet()) {
+            if (loadSnapshot(snapshotFile(number))) {
+                base = number;
+                break;
+            }
+        }
+        if (base == null) {
+            base = logNumbers.isEmpty() ? 0 : logNumbers.first();
+        }
+        logNumber = logNumbers.isEmpty() ? base : Math.max(base, logNumbers.last());
+        for (long number : logNumbers.tailSet(base)) {
+            if (number < logNumber) {
+                replayLog(logFile(number));
+            }
+        }
+        log = WriteAheadLog.open(logFile(logNumber), logSize, fsync, payload -> {
+            apply(payload);
+            recordsSinceSnapshot++;
+        });
+        deleteFilesBefore(base);
+    }
+
+    /**
+    * Applies a snapshot if every record of it reads back whole, and leaves the state untouched if not.
+    *
+    * @return true if the snapshot was applied.
+    */
+    private boolean loadSnapshot(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] lastType = new byte[1];
+            int end = WriteAheadLog.readRecords(contents, payload -> lastType[0] = payload.get(0));
+            if (end != contents.limit() || lastType[0] != SNAPSHOT_END) {
+                LOGGER.warn("Skipping incomplete snapshot {}", file);
+                return false;
+            }
+            WriteAheadLog.readRecords(contents, this::apply);
+            return true;
+        }
+    }
+
+    private void replayLog(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WriteAheadLog.readRecords(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), this::apply);
+        }
+    }
+
+    /**
+    * Applies one record to the live state. Every change goes through here, both as it is made and when it is
+    * replayed.
+    */
+    private void apply(ByteBuffer payload) {
+        byte type = payload.get();
+        switch (type) {
+            case ACCOUNT_CREATED:
+                accounts.restore(new Account(payload.getInt(), getString(payload), getString(payload)));
+                break;
+            case PASSWORD_UPDATED: {
+                Account account = accounts.getAccountByID(payload.getInt());
+                if (account != null) {
+                    accounts.restore(new Account(account.getAccount_id(), account.getUsername(), getString(payload)));
+                }
+                break;
+            }
+            case MESSAGES_CREATED:
+                for (int i = payload.getInt(); i > 0; i--) {
+                    messages.restore(new VersionedMessage(getMessage(payload), 1));
+                }
+                break;
+            case MESSAGE_UPDATED:
+                messages.updateMessageByID(payload.getInt(), getString(payload), null, null);
+                break;
+            case MESSAGE_DELETED:
+                messages.deleteMessageByID(payload.getInt(), null, null);
+                break;
+            case FOLLOWED:
+                follows.follow(payload.getInt(), payload.getInt());
+                break;
+            case UNFOLLOWED:
+                follows.unfollow(payload.getInt(), payload.getInt());
+                break;
+            case MESSAGE_RESTORED:
+                messages.restore(new VersionedMessage(getMessage(payload), payload.getInt()));
+                break;
+            case SNAPSHOT_END:
+                break;
+            default:
+                throw new IllegalStateException("Unknown record type " + type);
+        }
+    }
+
+    /**
+    * Appends the record in the buffer to the log and applies it. Called with writeLock held, once the change has been
+    * checked against the live state.
+    */
+    private void write() throws IOException {
+        if (recordsSinceSnapshot >= snapshotEvery) {
+            rollOver();
+        }
+        if (!log.append(record.array(), record.length())) {
+            rollOver();
+            if (!log.append(record.array(), record.length())) {
+                throw new IOException("A record of " + record.length() + " bytes does not fit in a log of "
+                        + logSize + " bytes");
+            }
+        }
+        recordsSinceSnapshot++;
+        apply(record.contents());
+    }
+
+    /**
+    * Logs a change that could not be appended to the log.
+    *
+    * @return the exception to throw to the caller in its place.
+    */
+    private static UncheckedIOException appendFailed(IOException e) {
+        LOGGER.error("Could not append to the write-ahead log", e);
+        return new UncheckedIOException(e);
+    }
+
+    /**
+    * Starts the next log and has the state as it is now written to the snapshot of the same number in the background.
+    * Called with writeLock held; the records already in the log are all applied, so the copy holds every one of them
+    * and none of those that go to the new log.
+    *
+    * @return the snapshot being written.
+    */
+    private Future<?> rollOver() throws IOException {
+        List<Account> accountCopy = accounts.getAllAccounts();
+        List<VersionedMessage> messageCopy = messages.getAllVersionedMessages();
+        List<int[]> followCopy = follows.getAllFollows();
+        long number = logNumber + 1;
+        WriteAheadLog previous = log;
+        log = WriteAheadLog.open(logFile(number), logSize, fsync, payload -> { });
+        logNumber = number;
+        recordsSinceSnapshot = 0;
+        previous.close();
+        return snapshotWriter.submit(() -> {
+            try {
+                writeSnapshot(number, accountCopy, messageCopy, followCopy);
+            } catch (IOException | RuntimeException e) {
+                // only snapshot() waits for the result, so say so here for the roll-overs nobody waits for
+                LOGGER.error("Could not write snapshot {}", number, e);
+                throw e;
+            }
+            return null;
+        });
+    }
+
+    /**
+    * Writes a snapshot under a temporary name and renames it once it is on disk, so a snapshot file is always whole,
+    * then deletes the files it replaces.
+    */
+    private void writeSnapshot(long number, List<Account> accountCopy, List<VersionedMessage> messageCopy,
+                               List<int[]> followCopy) throws IOException {
+        Path temporary = directory.resolve(SNAPSHOT_PREFIX + number + ".tmp");
+        RecordBuffer snapshotRecord = new RecordBuffer();
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            for (Account account : accountCopy) {
+                encodeAccountCreated(snapshotRecord, account);
+                WriteAheadLog.writeRecord(out, snapshotRecord.array(), snapshotRecord.length());
+            }
+            for (VersionedMessage versioned : messageCopy) {
+                snapshotRecord.start(MESSAGE_RESTORED);
+                putMessage(snapshotRecord, versioned.getMessage());
+                snapshotRecord.putInt(versioned.getVersion());
+                WriteAheadLog.writeRecord(out, snapshotRecord.array(), snapshotRecord.length());
+            }
+            for (int[] follow : followCopy) {
+                snapshotRecord.start(FOLLOWED).putInt(follow[0]).putInt(follow[1]);
+                WriteAheadLog.writeRecord(out, snapshotRecord.array(), snapshotRecord.length());
+            }
+            snapshotRecord.start(SNAPSHOT_END);
+            WriteAheadLog.writeRecord(out, snapshotRecord.array(), snapshotRecord.length());
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, snapshotFile(number), StandardCopyOption.ATOMIC_MOVE);
+        deleteFilesBefore(number);
+    }
+
+    /**
+    * Deletes the snapshots and logs a snapshot has replaced.
+    */
+    private void deleteFilesBefore(long number) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if ((name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX)
+                        && fileNumber(name, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) < number)
+                        || (name.startsWith(LOG_PREFIX) && name.endsWith(LOG_SUFFIX)
+                        && fileNumber(name, LOG_PREFIX, LOG_SUFFIX) < number)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private Path logFile(long number) {
+        return directory.resolve(LOG_PREFIX + number + LOG_SUFFIX);
+    }
+
+    private Path snapshotFile(long number) {
+        return directory.resolve(SNAPSHOT_PREFIX + number + SNAPSHOT_SUFFIX);
+    }
+
+    private static long fileNumber(String name, String prefix, String suffix) {
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    private static void encodeAccountCreated(RecordBuffer record, Account account) {
+        record.start(ACCOUNT_CREATED)
+                .putInt(account.getAccount_id())
+                .putString(account.getUsername())
+                .putString(account.getPassword());
+    }
+
+    private static void putMessage(RecordBuffer record, Message message) {
+        record.putInt(message.getMessage_id())
+                .putInt(message.getPosted_by())
+                .putString(message.getMessage_text())
+                .putLong(message.getTime_posted_epoch());
+    }
+
+    private static Message getMessage(ByteBuffer payload) {
+        return new Message(payload.getInt(), payload.getInt(), getString(payload), payload.getLong());
+    }
+
+    private static String getString(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.getInt()];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+    * The payload of the record being written, grown as needed and reused from one record to the next.
+    */
+    private static final class RecordBuffer {
+        private ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+        RecordBuffer start(byte type) {
+            buffer.clear();
+            buffer.put(type);
+            return this;
+        }
+
+        RecordBuffer putInt(int value) {
+            ensureRemaining(Integer.BYTES);
+            buffer.putInt(value);
+            return this;
+        }
+
+        RecordBuffer putLong(long value) {
+            ensureRemaining(Long.BYTES);
+            buffer.putLong(value);
+            return this;
+        }
+
+        RecordBuffer putString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensureRemaining(Integer.BYTES + bytes.length);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+            return this;
+        }
+
+        byte[] array() {
+            return buffer.array();
+        }
+
+        int length() {
+            return buffer.position();
+        }
+
+        /**
+        * @return the record written so far, to be read from its start.
+        */
+        ByteBuffer contents() {
+            return ByteBuffer.wrap(buffer.array(), 0, buffer.position());
+        }
+
+        private void ensureRemaining(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+        }
+    }
+
+    /**
+    * Accounts, logged. Reads go straight to the live state.
+    */
+    private final class LoggedAccountRepository implements AccountRepository {
+
+        @Override
+        public Account createAccount(Account account) {
+            writeLock.lock();
+            try {
+                if (accounts.getAccountByUsername(account.getUsername()) != null) {
+                    return null;
+                }
+                int account_id = accounts.nextAccountID();
+                encodeAccountCreated(record, new Account(account_id, account.getUsername(), account.getPassword()));
+                write();
+                return accounts.getAccountByID(account_id);
+            } catch (IOException e) {
+                throw appendFailed(e);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public Account getAccountByUsername(String username) {
+            return accounts.getAccountByUsername(username);
+        }
+
+        @Override
+        public boolean updatePassword(int account_id, String old_password, String new_password) {
+            writeLock.lock();
+            try {
+                Account current = accounts.getAccountByID(account_id);
+                if (current == null || !current.getPassword().equals(old_password)) {
+                    return false;
+                }
+                record.start(PASSWORD_UPDATED).putInt(account_id).putString(new_password);
+                write();
+                return true;
+            } catch (IOException e) {
+                throw appendFailed(e);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public Account getAccountByID(int account_id) {
+            return accounts.getAccountByID(account_id);
+        }
+
+        @Override
+        public Set<Integer> getExistingAccountIDs(Collection<Integer> account_ids) {
+            return accounts.getExistingAccountIDs(account_ids);
+        }
+    }
+
+    /**
+    * Messages, logged. Reads go straight to the live state.
+    */
+    private final class LoggedMessageRepository implements MessageRepository {
+
+        @Override
+        public int nextMessageID() {
+            return messages.nextMessageID();
+        }
+
+        @Override
+        public Message createMessage(Message message) {
+            List<Message> created = createMessages(List.of(message));
+            return created == null ? null : created.get(0);
+        }
+
+        @Override
+        public List<Message> createMessages(List<Message> messages) {
+            List<Message> created = new ArrayList<>(messages.size());
+            for (Message message : messages) {
+                created.add(new Message(
+                        nextMessageID(),
+                        message.getPosted_by(),
+                        message.getMessage_text(),
+                        message.getTime_posted_epoch()));
+            }
+            return insertMessages(created) ? created : null;
+        }
+
+        /**
+        * The messages go into the log as one record, so after a crash either all of them are read back or none.
+        */
+        @Override
+        public boolean insertMessages(List<Message> messages) {
+            writeLock.lock();
+            try {
+                Set<Integer> message_ids = new HashSet<>();
+                for (Message message : messages) {
+                    if (!message_ids.add(message.getMessage_id())
+                            || WalStore.this.messages.getVersionedMessageByID(message.getMessage_id()) != null) {
+                        return false;
+                    }
+                }
+                record.start(MESSAGES_CREATED).putInt(messages.size());
+                for (Message message : messages) {
+                    putMessage(record, message);
+                }
+                write();
+                return true;
+            } catch (IOException e) {
+                throw appendFailed(e);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public List<Message> getAllMessages() {
+            return messages.getAllMessages();
+        }
+
+        @Override
+        public List<Message> getMessagesAfterID(int after_message_id, int limit) {
+            return messages.getMessagesAfterID(after_message_id, limit);
+        }
+
+        @Override
+        public List<Message> getMessagesBeforeTime(long before_epoch, int before_message_id, int limit) {
+            return messages.getMessagesBeforeTime(before_epoch, before_message_id, limit);
+        }
+
+        @Override
+        public void streamAllMessages(Consumer<Message> consumer) {
+            messages.streamAllMessages(consumer);
+        }
+
+        @Override
+        public Message getMessageByID(int message_id) {
+            return messages.getMessageByID(message_id);
+        }
+
+        @Override
+        public VersionedMessage getVersionedMessageByID(int message_id) {
+            return messages.getVersionedMessageByID(message_id);
+        }
+
+        @Override
+        public List<Message> getMessagesByIDs(Collection<Integer> message_ids) {
+            return messages.getMessagesByIDs(message_ids);
+        }
+
+        @Override
+        public Message deleteMessageByID(int message_id) {
+            VersionedMessage deleted = deleteMessageByID(message_id, null, null);
+            return deleted == null ? null : deleted.getMessage();
+        }
+
+        @Override
+        public VersionedMessage deleteMessageByID(int message_id, Integer expected_version, Integer posted_by) {
+            writeLock.lock();
+            try {
+                VersionedMessage current = messages.getVersionedMessageByID(message_id);
+                if (current == null || (expected_version != null && current.getVersion() != expected_version)
+                        || (posted_by != null && current.getMessage().getPosted_by() != posted_by)) {
+                    return null;
+                }
+                record.start(MESSAGE_DELETED).putInt(message_id);
+                write();
+                return current;
+            } catch (IOException e) {
+                throw appendFailed(e);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public Message updateMessageByID(int message_id, String new_message_text) {
+            VersionedMessage updated = updateMessageByID(message_id, new_message_text, null, null);
+            return updated == null ? null : updated.getMessage();
+        }
+
+        @Override
+        public VersionedMessage updateMessageByID(int message_id, String new_message_text, Integer expected_version,
+                                                  Integer posted_by) {
+            writeLock.lock();
+            try {
+                VersionedMessage current = messages.getVersionedMessageByID(message_id);
+                if (current == null || (expected_version != null && current.getVersion() != expected_version)
+                        || (posted_by != null && current.getMessage().getPosted_by() != posted_by)) {
+                    return null;
+                }
+                record.start(MESSAGE_UPDATED).putInt(message_id).putString(new_message_text);
+                write();
+                return messages.getVersionedMessageByID(message_id);
+            } catch (IOException e) {
+                throw appendFailed(e);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public List<Message> getAllMessagesFromUser(int account_id) {
+            return messages.getAllMessagesFromUser(account_id);
+        }
+
+        @Override
+        public List<Message> getMessagesFromUserBeforeTime(int account_id, long before_epoch, int before_message_id,
+                                                           int limit) {
+            return messages.getMessagesFromUserBeforeTime(account_id, before_epoch, before_message_id, limit);
+        }
+
+        @Override
+        public List<Message> getFeedBeforeTime(int follower_id, long before_epoch, int before_message_id,
+                                               int limit) {
+            return messages.getFeedBeforeTime(follower_id, before_epoch, before_message_id, limit);
+        }
+    }
+
+    /**
+    * Follows, logged. Reads go straight to the live state.
+    */
+    private final class LoggedFollowRepository implements FollowRepository {
+
+        @Override
+        public boolean follow(int follower_id, int followee_id) {
+            return write(FOLLOWED, follower_id, followee_id);
+        }
+
+        @Override
+        public boolean unfollow(int follower_id, int followee_id) {
+            writeLock.lock();
+            try {
+                // nothing to log for a follow that does not exist
+                return follows.getFolloweeIDs(follower_id).contains(followee_id)
+                        && write(UNFOLLOWED, follower_id, followee_id);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public List<Integer> getFolloweeIDs(int follower_id) {
+            return follows.getFolloweeIDs(follower_id);
+        }
+
+        @Override
+        public List<Integer> getFollowerIDs(int followee_id) {
+            return follows.getFollowerIDs(followee_id);
+        }
+
+        @Override
+        public List<Integer> getFolloweeIDsWithFollowers(int followers) {
+            return follows.getFolloweeIDsWithFollowers(followers);
+        }
+
+        @Override
+        public int getFollowerCount(int followee_id) {
+            return follows.getFollowerCount(followee_id);
+        }
+
+        private boolean write(byte type, int follower_id, int followee_id) {
+            writeLock.lock();
+            try {
+                record.start(type).putInt(follower_id).putInt(followee_id);
+                WalStore.this.write();
+                return true;
+            } catch (IOException e) {
+                throw appendFailed(e);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+}
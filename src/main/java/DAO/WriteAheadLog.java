@@ -0,0 +1,168 @@
+package DAO;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * One log file of WalStore: records appended one after another into a file mapped into memory, so an append is a few
+ * stores into the page cache and no system call.
+ *
+ * Each record is its payload's length, the CRC-32C of the payload, and the payload. The file is created at its full
+ * size, filled with zeros, so the records end at the first length of zero. A write cut short by a crash leaves a record
+ * whose length runs past the file or whose checksum does not match; reading stops there, and everything from that
+ * point on is cleared before new records are appended.
+ *
+ * An append survives the process crashing as soon as it returns, since the page cache outlives the process. Surviving
+ * the machine crashing takes fsync, which forces the mapping to disk after every append.
+ *
+ * Not thread safe; WalStore appends under its write lock.
+ */
+public class WriteAheadLog {
+
+    /**
+    * The length and checksum in front of every payload.
+    */
+    public static final int HEADER_SIZE = 8;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final boolean fsync;
+    private final CRC32C crc = new CRC32C();
+
+    private WriteAheadLog(FileChannel channel, MappedByteBuffer buffer, boolean fsync) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.fsync = fsync;
+    }
+
+    /**
+    * Opens a log file for appending, creating it if there is none, after passing the payload of every whole record
+    * already in it to replay, in order.
+    *
+    * @param file The log file.
+    * @param capacity The size the file is mapped at; a file that is already larger keeps its size.
+    * @param fsync Whether every append is forced to disk before it returns.
+    * @param replay Receives the payload of each record read back.
+    */
+    public static WriteAheadLog open(Path file, int capacity, boolean fsync, Consumer<ByteBuffer> replay)
+            throws IOException {
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    Math.max(channel.size(), capacity));
+            int end = readRecords(buffer, replay);
+            clearFrom(buffer, end);
+            buffer.position(end);
+            return new WriteAheadLog(channel, buffer, fsync);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+    * Passes the payload of every whole record in a buffer holding a log or snapshot file to a consumer, in order,
+    * stopping at the end of the records or at the first that is cut short or does not match its checksum.
+    *
+    * @param buffer The file's contents, from position 0 to its limit.
+    * @param consumer Receives each payload, as a buffer of its own.
+    * @return the offset just past the last whole record.
+    */
+    public static int readRecords(ByteBuffer buffer, Consumer<ByteBuffer> consumer) {
+        CRC32C crc = new CRC32C();
+        int position = 0;
+        while (buffer.limit() - position >= HEADER_SIZE) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > buffer.limit() - position - HEADER_SIZE) {
+                break;
+            }
+            ByteBuffer payload = buffer.duplicate();
+            payload.limit(position + HEADER_SIZE + length).position(position + HEADER_SIZE);
+            payload = payload.slice();
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            consumer.accept(payload);
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    /**
+    * Writes one record in the same format as a log, for files written as a stream, such as snapshots.
+    */
+    public static void writeRecord(DataOutput out, byte[] payload, int length) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(payload, 0, length);
+        out.writeInt(length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload, 0, length);
+    }
+
+    /**
+    * @param payload The record's bytes, from index 0.
+    * @param length How many bytes of payload are the record.
+    * @return true if the record was appended, or false if it does not fit in what is left of the file.
+    */
+    public boolean append(byte[] payload, int length) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE + length) {
+            return false;
+        }
+        int start = buffer.position();
+        crc.reset();
+        crc.update(payload, 0, length);
+        buffer.position(start + HEADER_SIZE);
+        buffer.put(payload, 0, length);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        // the length goes in last, so until the record is complete the log still ends in front of it
+        buffer.putInt(start, length);
+        if (fsync) {
+            buffer.force();
+        }
+        return true;
+    }
+
+    /**
+    * @return how many bytes of the file the records take up.
+    */
+    public int size() {
+        return buffer.position();
+    }
+
+    /**
+    * Forces the records to disk and closes the file. The mapping itself is released once it is garbage collected.
+    */
+    public void close() throws IOException {
+        try {
+            buffer.force();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+    * Zeroes whatever follows the last whole record, so the remains of a torn write cannot be read as records once new
+    * ones are appended in front of them.
+    */
+    private static void clearFrom(MappedByteBuffer buffer, int end) {
+        int position = end;
+        for (; buffer.limit() - position >= Long.BYTES; position += Long.BYTES) {
+            if (buffer.getLong(position) != 0) {
+                buffer.putLong(position, 0);
+            }
+        }
+        for (; position < buffer.limit(); position++) {
+            buffer.put(position, (byte) 0);
+        }
+    }
+}
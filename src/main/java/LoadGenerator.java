@@ -0,0 +1,390 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import Util.JsonUtil;
+import Util.LatencyHistogram;
+
+/**
+ * Drives a running server with a saved scenario: a mix of register, login, post, read-by-id and list-by-user
+ * requests sent at a fixed arrival rate, and reports each operation's throughput, errors and latency percentiles.
+ *
+ * The load is open-loop. Requests are scheduled to start at the scenario's rate whether or not earlier ones have
+ * been answered, the way independent users arrive, so a server that stalls faces a growing backlog rather than
+ * politely waiting clients. Latency is measured from when a request was scheduled to start, not from when it was
+ * sent, which corrects for coordinated omission: when the server, or this generator, falls behind, the time requests
+ * spent waiting for their turn is counted instead of hidden. The time from sending to the response is reported next
+ * to it as the service time; a large gap between the two means requests were queueing.
+ *
+ * A scenario is a JSON file, for example src/main/resources/scenarios/mixed.json:
+ *     {"name": "mixed", "baseUrl": "http://localhost:8080", "ratePerSecond": 200, "arrivals": "poisson",
+ *      "warmupSeconds": 10, "durationSeconds": 60, "accounts": 50, "maxInFlight": 1000, "seed": 42,
+ *      "mix": {"register": 1, "login": 4, "post": 15, "readById": 50, "listByUser": 30}}
+ * The mix gives the relative weight of each operation. Arrivals are "constant" (evenly spaced) or "poisson"
+ * (exponentially distributed gaps with the same mean). Before the run, the given number of accounts are registered
+ * and logged in, and each posts one message, so reads have something to find; posts are sent with the accounts'
+ * session tokens. Everything random is drawn from the seed, so two runs of one scenario send the same sequence of
+ * requests, and comparing their results compares the servers.
+ *
+ * Start the server, then run, from the project root:
+ *     java -cp target/classes:<dependencies> LoadGenerator <scenario file or resource> [results.json]
+ * The summary is printed, and also written as JSON when a results file is given.
+ */
+public class LoadGenerator {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999, 1};
+    private static final String[] QUANTILE_NAMES = {"p50", "p90", "p99", "p99.9", "max"};
+    private static final String PASSWORD = "password";
+    /**
+    * How many of the most recently created message ids are kept for reads to pick from.
+    */
+    private static final int KNOWN_MESSAGES = 65536;
+
+    /**
+    * A saved scenario, as read from its JSON file.
+    */
+    public static class Scenario {
+        public String name = "unnamed";
+        public String baseUrl = "http://localhost:8080";
+        public double ratePerSecond = 100;
+        public String arrivals = "constant";
+        public int warmupSeconds = 5;
+        public int durationSeconds = 30;
+        public int accounts = 20;
+        /**
+        * The most requests waiting for a response at once; once reached, the next request is sent when one is
+        * answered, and the wait counts towards its latency.
+        */
+        public int maxInFlight = 1000;
+        public long seed = 42;
+        public Map<String, Double> mix = new LinkedHashMap<>();
+    }
+
+    /**
+    * The operations a scenario's mix can name.
+    */
+    enum Operation { register, login, post, readById, listByUser }
+
+    /**
+    * What was measured for one operation, from requests scheduled after the warmup.
+    */
+    static class OperationStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram serviceTime = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+    }
+
+    private final Scenario scenario;
+    private final HttpClient webClient;
+    private final ObjectMapper mapper = JsonUtil.getObjectMapper();
+    private final Map<Operation, OperationStats> stats = new LinkedHashMap<>();
+    /**
+    * Accounts registered before the run, with their session tokens.
+    */
+    private int[] accountIds;
+    private String[] usernames;
+    private String[] tokens;
+    /**
+    * The ids of messages known to exist, as a ring of the last KNOWN_MESSAGES.
+    */
+    private final AtomicIntegerArray knownMessages = new AtomicIntegerArray(KNOWN_MESSAGES);
+    private final AtomicInteger knownMessageCount = new AtomicInteger();
+    private final AtomicInteger registrations = new AtomicInteger();
+    /**
+    * Prefixes the usernames this run registers, so that runs against the same database never collide.
+    */
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private long maxLagNanos;
+
+    public LoadGenerator(Scenario scenario) {
+        this.scenario = scenario;
+        this.webClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new OperationStats());
+        }
+        for (String operation : scenario.mix.keySet()) {
+            Operation.valueOf(operation);
+        }
+        if (scenario.accounts < 1 || scenario.ratePerSecond <= 0 || scenario.maxInFlight < 1) {
+            throw new IllegalArgumentException(
+                    "A scenario needs at least one account, a positive rate and a positive maxInFlight");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: LoadGenerator <scenario file or resource> [results.json]");
+            System.exit(2);
+        }
+        LoadGenerator generator = new LoadGenerator(loadScenario(args[0]));
+        Map<String, Object> results = generator.run();
+        System.out.println(generator.summary(results));
+        if (args.length > 1) {
+            generator.mapper.writer(SerializationFeature.INDENT_OUTPUT).writeValue(new File(args[1]), results);
+        }
+    }
+
+    /**
+    * @param location A scenario file, or the name of one on the classpath such as scenarios/mixed.json.
+    * @return the scenario it describes.
+    * @throws IOException if it cannot be found or is not a valid scenario.
+    */
+    public static Scenario loadScenario(String location) throws IOException {
+        ObjectMapper mapper = JsonUtil.getObjectMapper();
+        File file = new File(location);
+        if (file.isFile()) {
+            return mapper.readValue(file, Scenario.class);
+        }
+        try (InputStream resource = LoadGenerator.class.getClassLoader().getResourceAsStream(location)) {
+            if (resource == null) {
+                throw new IOException("No scenario file or resource named " + location);
+            }
+            return mapper.readValue(resource, Scenario.class);
+        }
+    }
+
+    /**
+    * Sets up the scenario's accounts, sends its requests for the warmup and the measured time, and waits for the
+    * last of them to be answered.
+    *
+    * @return the scenario and what was measured for each operation, ready to be written as JSON.
+    */
+    public Map<String, Object> run() throws IOException, InterruptedException {
+        setUp();
+        Random random = new Random(scenario.seed);
+        Operation[] operations = Operation.values();
+        double[] cumulativeWeights = cumulativeWeights(operations);
+        Semaphore inFlight = new Semaphore(scenario.maxInFlight);
+        double meanGapNanos = TimeUnit.SECONDS.toNanos(1) / scenario.ratePerSecond;
+        boolean poisson = scenario.arrivals.equals("poisson");
+        if (!poisson && !scenario.arrivals.equals("constant")) {
+            throw new IllegalArgumentException("arrivals must be constant or poisson: " + scenario.arrivals);
+        }
+
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(scenario.warmupSeconds);
+        long stopAt = measureFrom + TimeUnit.SECONDS.toNanos(scenario.durationSeconds);
+        double next = start;
+        while (next < stopAt) {
+            long intended = (long) next;
+            long now = System.nanoTime();
+            if (intended > now) {
+                LockSupport.parkNanos(intended - now);
+            } else {
+                maxLagNanos = Math.max(maxLagNanos, now - intended);
+            }
+            Operation operation = pick(operations, cumulativeWeights, random.nextDouble());
+            HttpRequest request = request(operation, random);
+            inFlight.acquire();
+            send(operation, request, intended, intended >= measureFrom, inFlight);
+            next += poisson ? -Math.log(1 - random.nextDouble()) * meanGapNanos : meanGapNanos;
+        }
+        // every permit back means every request was answered
+        if (!inFlight.tryAcquire(scenario.maxInFlight, 60, TimeUnit.SECONDS)) {
+            System.err.println("Some requests were still unanswered 60s after the last was sent");
+        }
+        return results();
+    }
+
+    /**
+    * Registers and logs in the scenario's accounts, and posts one message as each.
+    */
+    private void setUp() throws IOException, InterruptedException {
+        accountIds = new int[scenario.accounts];
+        usernames = new String[scenario.accounts];
+        tokens = new String[scenario.accounts];
+        for (int i = 0; i < scenario.accounts; i++) {
+            usernames[i] = "lg" + runId + "_" + i;
+            HttpResponse<String> registered = webClient.send(register(usernames[i]),
+                    HttpResponse.BodyHandlers.ofString());
+            if (registered.statusCode() != 200) {
+                throw new IOException("Could not register " + usernames[i] + ": " + registered.statusCode());
+            }
+            accountIds[i] = mapper.readTree(registered.body()).get("account_id").asInt();
+            HttpResponse<String> loggedIn = webClient.send(login(usernames[i]), HttpResponse.BodyHandlers.ofString());
+            tokens[i] = loggedIn.headers().firstValue("X-Session-Token")
+                    .orElseThrow(() -> new IOException("The server sent no session token"));
+            HttpResponse<String> posted = webClient.send(post(i), HttpResponse.BodyHandlers.ofString());
+            messageCreated(posted.body());
+        }
+    }
+
+    private HttpRequest request(Operation operation, Random random) {
+        int account = random.nextInt(scenario.accounts);
+        switch (operation) {
+            case register:
+                return register("lg" + runId + "_r" + registrations.incrementAndGet());
+            case login:
+                return login(usernames[account]);
+            case post:
+                return post(account);
+            case readById:
+                int known = Math.min(knownMessageCount.get(), KNOWN_MESSAGES);
+                return get("/messages/" + knownMessages.get(random.nextInt(known)));
+            case listByUser:
+                return get("/accounts/" + accountIds[account] + "/messages?limit=20");
+            default:
+                throw new IllegalStateException(operation.name());
+        }
+    }
+
+    /**
+    * Sends a request without waiting for it, and records its latency from when it was scheduled once answered.
+    */
+    private void send(Operation operation, HttpRequest request, long intended, boolean measured, Semaphore inFlight) {
+        long sent = System.nanoTime();
+        webClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, failure) -> {
+            long answered = System.nanoTime();
+            boolean failed = failure != null || response.statusCode() >= 400;
+            if (!failed && operation == Operation.post) {
+                messageCreated(response.body());
+            }
+            if (measured) {
+                OperationStats operationStats = stats.get(operation);
+                operationStats.latency.record(answered - intended);
+                operationStats.serviceTime.record(answered - sent);
+                if (failed) {
+                    operationStats.errors.incrementAndGet();
+                }
+            }
+            // only once recorded, so the results are complete when every permit is back
+            inFlight.release();
+        });
+    }
+
+    private void messageCreated(String body) {
+        try {
+            JsonNode message = mapper.readTree(body);
+            int index = knownMessageCount.getAndIncrement() % KNOWN_MESSAGES;
+            knownMessages.set(index, message.get("message_id").asInt());
+        } catch (IOException | NullPointerException e) {
+            // not a message; the request is already counted as failed or was a set-up post
+        }
+    }
+
+    private HttpRequest register(String username) {
+        return json("/register", "{\"username\": \"" + username + "\", \"password\": \"" + PASSWORD + "\"}")
+                .build();
+    }
+
+    private HttpRequest login(String username) {
+        return json("/login", "{\"username\": \"" + username + "\", \"password\": \"" + PASSWORD + "\"}").build();
+    }
+
+    private HttpRequest post(int account) {
+        return json("/messages", "{\"message_text\": \"load test message\", \"time_posted_epoch\": "
+                + System.currentTimeMillis() / 1000 + "}")
+                .header("Authorization", "Bearer " + tokens[account])
+                .build();
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder().uri(URI.create(scenario.baseUrl + path)).build();
+    }
+
+    private HttpRequest.Builder json(String path, String body) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(scenario.baseUrl + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body));
+    }
+
+    private double[] cumulativeWeights(Operation[] operations) {
+        double[] cumulative = new double[operations.length];
+        double total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += scenario.mix.getOrDefault(operations[i].name(), 0.0);
+            cumulative[i] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("The scenario's mix gives no operation a weight");
+        }
+        for (int i = 0; i < operations.length; i++) {
+            cumulative[i] /= total;
+        }
+        return cumulative;
+    }
+
+    private static Operation pick(Operation[] operations, double[] cumulativeWeights, double draw) {
+        for (int i = 0; i < operations.length; i++) {
+            if (draw < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    private Map<String, Object> results() {
+        Map<String, Object> results = new LinkedHashMap<>();
+        results.put("scenario", scenario);
+        results.put("maxSchedulingLagMillis", maxLagNanos / 1e6);
+        Map<String, Object> operations = new LinkedHashMap<>();
+        stats.forEach((operation, operationStats) -> {
+            long count = operationStats.latency.getCount();
+            if (count == 0) {
+                return;
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("requests", count);
+            result.put("errors", operationStats.errors.get());
+            result.put("perSecond", count / (double) scenario.durationSeconds);
+            result.put("latencyMillis", percentiles(operationStats.latency));
+            result.put("serviceTimeMillis", percentiles(operationStats.serviceTime));
+            operations.put(operation.name(), result);
+        });
+        results.put("operations", operations);
+        return results;
+    }
+
+    private static Map<String, Double> percentiles(LatencyHistogram histogram) {
+        long[] values = histogram.getValuesAtQuantiles(QUANTILES);
+        Map<String, Double> percentiles = new LinkedHashMap<>();
+        for (int i = 0; i < QUANTILES.length; i++) {
+            percentiles.put(QUANTILE_NAMES[i], values[i] / 1e6);
+        }
+        return percentiles;
+    }
+
+    /**
+    * @return the results as a table, one row per operation, with latencies in milliseconds.
+    */
+    @SuppressWarnings("unchecked")
+    String summary(Map<String, Object> results) {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("%s: %.0f req/s %s arrivals for %ds after %ds warmup; scheduling fell behind by "
+                        + "at most %.1f ms%n", scenario.name, scenario.ratePerSecond, scenario.arrivals,
+                scenario.durationSeconds, scenario.warmupSeconds, maxLagNanos / 1e6));
+        summary.append(String.format("%-11s %9s %7s %9s %9s %9s %9s %9s %9s %12s%n", "operation", "requests",
+                "errors", "req/s", "p50", "p90", "p99", "p99.9", "max", "service p99"));
+        ((Map<String, Map<String, Object>>) results.get("operations")).forEach((operation, result) -> {
+            Map<String, Double> latency = (Map<String, Double>) result.get("latencyMillis");
+            Map<String, Double> serviceTime = (Map<String, Double>) result.get("serviceTimeMillis");
+            summary.append(String.format("%-11s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %12.2f%n", operation,
+                    result.get("requests"), result.get("errors"), result.get("perSecond"), latency.get("p50"),
+                    latency.get("p90"), latency.get("p99"), latency.get("p99.9"), latency.get("max"),
+                    serviceTime.get("p99")));
+        });
+        return summary.toString();
+    }
+}
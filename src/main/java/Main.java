@@ -10,5 +10,7 @@ public class Main {
         SocialMediaController controller = new SocialMediaController();
         Javalin app = controller.startAPI();
         app.start(8080);
+        // stopping the app on Ctrl-C gives the write-behind queue the chance to write out what it has accepted
+        Runtime.getRuntime().addShutdownHook(new Thread(app::stop));
     }
 }
@@ -0,0 +1,59 @@
+package Model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * The outcome for one message of a batch post: either the created message, with its generated message_id, or the
+ * reason it was rejected. Results are returned in the same order as the messages were posted.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MessageBatchResult {
+    /**
+     * The created message, or null if this message was rejected.
+     */
+    public Message message;
+    /**
+     * Why the message was rejected, or null if it was created.
+     */
+    public String error;
+
+    public MessageBatchResult() {
+    }
+
+    public MessageBatchResult(Message message, String error) {
+        this.message = message;
+        this.error = error;
+    }
+
+    public static MessageBatchResult created(Message message) {
+        return new MessageBatchResult(message, null);
+    }
+
+    public static MessageBatchResult rejected(String error) {
+        return new MessageBatchResult(null, error);
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public void setMessage(Message message) {
+        this.message = message;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageBatchResult{" +
+                "message=" + message +
+                ", error='" + error + '\'' +
+                '}';
+    }
+}
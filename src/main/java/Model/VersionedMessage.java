@@ -0,0 +1,24 @@
+package Model;
+
+/**
+ * A message together with its version: the number of times it has been written, starting at 1 when it is created
+ * and going up by one with every update. Kept beside the message rather than in it, so the message's JSON is
+ * unchanged; the version is sent as the message's ETag instead.
+ */
+public class VersionedMessage {
+    private final Message message;
+    private final int version;
+
+    public VersionedMessage(Message message, int version) {
+        this.message = message;
+        this.version = version;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+}
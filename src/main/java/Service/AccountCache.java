@@ -0,0 +1,107 @@
+package Service;
+
+import DAO.AccountRepository;
+import Model.Account;
+import Util.BoundedCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A read-through cache in front of an AccountRepository's lookups by account_id and by username. Accounts are never
+ * updated or deleted, so the only thing that can make a cached entry wrong is a new account taking an id or username that was
+ * cached as missing; accountCreated() must be called whenever an account is inserted. Only a lookup that succeeded
+ * and found nothing is cached as missing: a DataAccessException from the repository reaches the caller, and the next
+ * lookup tries the repository again.
+ *
+ * The cache is sized with socialmedia.accountCache.maxSize and entries expire after
+ * socialmedia.accountCache.ttlSeconds.
+ */
+public class AccountCache {
+    private AccountRepository accountRepository;
+    private BoundedCache<Integer, Account> byID;
+    private BoundedCache<String, Account> byUsername;
+
+    public AccountCache(AccountRepository accountRepository) {
+        this(accountRepository,
+                Integer.getInteger("socialmedia.accountCache.maxSize", 10000),
+                Long.getLong("socialmedia.accountCache.ttlSeconds", 300));
+    }
+
+    public AccountCache(AccountRepository accountRepository, int maxSize, long ttlSeconds) {
+        this.accountRepository = accountRepository;
+        this.byID = new BoundedCache<>(maxSize, ttlSeconds, TimeUnit.SECONDS);
+        this.byUsername = new BoundedCache<>(maxSize, ttlSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+    * Retrieves an account by its ID, from the cache when possible.
+    *
+    * @param account_id The ID of the account to retrieve.
+    * @return The account object if found, or null if no account exists with the given ID.
+    * @throws DAO.DataAccessException if the account is not cached and the repository lookup failed.
+    */
+    public Account getAccountByID(int account_id) {
+        return byID.get(account_id, accountRepository::getAccountByID);
+    }
+
+    /**
+    * Retrieves an account by its username, from the cache when possible.
+    *
+    * @param username The username of the account to retrieve.
+    * @return The account object if found, or null if no account exists with the given username.
+    * @throws DAO.DataAccessException if the account is not cached and the repository lookup failed.
+    */
+    public Account getAccountByUsername(String username) {
+        return byUsername.get(username, accountRepository::getAccountByUsername);
+    }
+
+    /**
+    * Finds which of the given account IDs exist. IDs of accounts already in the cache are answered from it, and all
+    * the others are looked up together in a single query.
+    *
+    * @param account_ids The IDs to look for.
+    * @return The subset of account_ids that belong to an existing account.
+    */
+    public Set<Integer> getExistingAccountIDs(Collection<Integer> account_ids) {
+        Set<Integer> existing = new HashSet<>();
+        List<Integer> unknown = new ArrayList<>();
+        for (Integer account_id : account_ids) {
+            if (byID.getIfPresent(account_id) != null) {
+                existing.add(account_id);
+            } else {
+                unknown.add(account_id);
+            }
+        }
+        existing.addAll(accountRepository.getExistingAccountIDs(unknown));
+        return existing;
+    }
+
+    /**
+    * Records a newly inserted account, replacing any cached "not found" result for its id or username.
+    *
+    * @param account The account that was just created, with its generated account_id.
+    */
+    public void accountCreated(Account account) {
+        byID.put(account.getAccount_id(), account);
+        byUsername.put(account.getUsername(), account);
+    }
+
+    /**
+    * @return the cache of lookups by account_id, for its hit and miss counts.
+    */
+    public BoundedCache<Integer, Account> getByIDCache() {
+        return byID;
+    }
+
+    /**
+    * @return the cache of lookups by username, for its hit and miss counts.
+    */
+    public BoundedCache<String, Account> getByUsernameCache() {
+        return byUsername;
+    }
+}
@@ -1,59 +1,172 @@
 package Service;
 
 import DAO.AccountDAO;
+import DAO.AccountRepository;
 import Model.Account;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class AccountService {
-    private AccountDAO accountDAO;
+    private AccountRepository accountRepository;
+    private AccountCache accountCache;
+    /**
+    * Hashes passwords away from the caller's thread. Stored passwords are never compared in SQL.
+    */
+    private PasswordHasher passwordHasher;
+    /**
+    * Stores new accounts and rehashed passwords once they are hashed. The password hasher's threads are sized for
+    * hashing, so they are not kept waiting on a connection or on the database; this pool has
+    * socialmedia.account.writeThreads threads (as many as the connection pool by default).
+    */
+    private final ThreadPoolExecutor accountWriter;
 
     public AccountService() {
-        this.accountDAO = new AccountDAO();
+        this(new AccountCache(new AccountDAO()));
+    }
+
+    /**
+    * @param accountCache The account cache to read through and to tell about new accounts. Share it with the
+    *                     MessageService so that it sees accounts registered here.
+    */
+    public AccountService(AccountCache accountCache) {
+        this(accountCache, new AccountDAO());
     }
 
     /**
-    * Handles user registration by validating input and interacting with the DAO layer.
+    * @param accountCache The account cache to read through and to tell about new accounts.
+    * @param accountRepository Where accounts are stored; the same one accountCache reads through.
+    */
+    public AccountService(AccountCache accountCache, AccountRepository accountRepository) {
+        this.accountRepository = accountRepository;
+        this.accountCache = accountCache;
+        this.passwordHasher = new PasswordHasher();
+        int threads = Integer.getInteger("socialmedia.account.writeThreads",
+                Integer.getInteger("socialmedia.pool.maxSize", 10));
+        AtomicInteger threadNumber = new AtomicInteger();
+        // unbounded: every write queued here already got past the password hasher's bounded queue
+        this.accountWriter = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "account-writer-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        accountWriter.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+    * Handles user registration by validating input and interacting with the DAO layer. The password is stored
+    * hashed; see registerUserAsync.
     * @param account The account to register.
     * @return The newly created account with an account_id, or null if registration fails.
     */
     public Account registerUser(Account account) {
+        return await(registerUserAsync(account));
+    }
+
+    /**
+    * Validates a registration straight away, then hashes the password on the password hasher's threads and stores
+    * the account with the hash on the account writer's. The caller's thread is free while the hash is computed.
+    *
+    * @param account The account to register.
+    * @return The newly created account with an account_id and the password as it was given, or null if
+    * registration fails.
+    * @throws java.util.concurrent.RejectedExecutionException if too many passwords are already waiting to be hashed.
+    */
+    public CompletableFuture<Account> registerUserAsync(Account account) {
         // Validate username: it should not be null or blank
         if (account.getUsername() == null || account.getUsername().isBlank()) {
-            return null;
+            return CompletableFuture.completedFuture(null);
         }
 
         // Validate password: it should be at least 4 characters long
         if (account.getPassword() == null || account.getPassword().length() < 4) {
-            return null;
+            return CompletableFuture.completedFuture(null);
         }
 
         // Check if the username already exists in the database
-        if (accountDAO.getAccountByUsername(account.getUsername()) != null) {
-            return null; // Registration fails if username already exists
+        if (accountCache.getAccountByUsername(account.getUsername()) != null) {
+            return CompletableFuture.completedFuture(null); // Registration fails if username already exists
         }
 
-        // If all validations pass, create the account in the database
-        return accountDAO.createAccount(account);
+        // If all validations pass, create the account in the database with its password hashed
+        return passwordHasher.hash(account.getPassword()).thenApplyAsync(hash -> {
+            Account createdAccount = accountRepository.createAccount(new Account(account.getUsername(), hash));
+            if (createdAccount == null) {
+                return null;
+            }
+            accountCache.accountCreated(createdAccount);
+            return new Account(createdAccount.getAccount_id(), account.getUsername(), account.getPassword());
+        }, accountWriter);
     }
 
     /**
     * Handles user login by validating the provided username and password
-    * and checking against the database for a matching account.
+    * and checking against the database for a matching account. See loginUserAsync.
     * 
     * @param account The account object containing the username and password to validate.
     * @return The existing account with its account_id if login is successful, or null if login fails.
     */
     public Account loginUser(Account account) {
+        return await(loginUserAsync(account));
+    }
+
+    /**
+    * Looks the account up straight away, then checks the password on the password hasher's threads. A password that
+    * is stored in plaintext, or hashed at an older cost, is rehashed and stored again once it has matched. A username
+    * with no account is checked against a dummy hash all the same, so that how long a login takes does not tell
+    * whether the username exists.
+    *
+    * @param account The account object containing the username and password to validate.
+    * @return The existing account with its account_id and the password as it was given if login is successful, or
+    * null if login fails.
+    * @throws java.util.concurrent.RejectedExecutionException if too many passwords are already waiting to be hashed.
+    */
+    public CompletableFuture<Account> loginUserAsync(Account account) {
         // Validate input: username and password must not be null
         if (account.getUsername() == null || account.getPassword() == null) {
-            return null; // Return null if inputs are invalid
+            return CompletableFuture.completedFuture(null); // Return null if inputs are invalid
+        }
+
+        // read from the database rather than the cache, which may hold a password from before a rehash
+        Account storedAccount = accountRepository.getAccountByUsername(account.getUsername());
+        if (storedAccount == null) {
+            return passwordHasher.verifyDummy(account.getPassword()).thenApply(ignored -> null);
         }
-    
-        // Check if the username and password match an existing account in the database
-        Account existingAccount = accountDAO.validateCredentials(account.getUsername(), account.getPassword());
-    
-        // If credentials are valid, return the matching account; otherwise, return null
-        return existingAccount;
+
+        String storedPassword = storedAccount.getPassword();
+        return passwordHasher.verify(account.getPassword(), storedPassword).thenApplyAsync(newPassword -> {
+            if (newPassword == null) {
+                return null;
+            }
+            if (!newPassword.equals(storedPassword)) {
+                // a concurrent login may have rehashed it first, which leaves a hash that is just as good
+                accountRepository.updatePassword(storedAccount.getAccount_id(), storedPassword, newPassword);
+            }
+            return new Account(storedAccount.getAccount_id(), storedAccount.getUsername(), account.getPassword());
+        }, accountWriter);
     }
 
-}
+    /**
+    * @return the password hasher, for its statistics and to change its cost.
+    */
+    public PasswordHasher getPasswordHasher() {
+        return passwordHasher;
+    }
 
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
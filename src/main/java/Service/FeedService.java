@@ -0,0 +1,503 @@
+package Service;
+
+import DAO.DataAccessException;
+import DAO.FollowDAO;
+import DAO.FollowRepository;
+import DAO.MessageDAO;
+import DAO.MessageRepository;
+import Model.Message;
+import Util.BoundedCache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Follow relationships and each account's home feed: the messages of the accounts it follows, newest first.
+ *
+ * Feeds are built with hybrid fan-out. Most accounts have few followers, so when one of them posts, the new message's
+ * id is pushed into the in-memory feed buffer of each follower whose feed is loaded, and reading a feed is mostly a
+ * matter of copying ids out of that buffer. Pushing is wasteful for an account with a huge audience, so accounts with
+ * at least socialmedia.feed.celebrityFollowers followers are never pushed; instead, reading a feed pulls a page from
+ * the timeline of each such account that is followed, and k-way merges those pages with the buffer through a heap.
+ *
+ * A feed buffer holds the ids of the newest socialmedia.feed.size messages of the feed, and is loaded with one query
+ * the first time the feed is read. A page that reaches past the end of a buffer that does not hold the whole feed is
+ * read from the database instead. Buffers only hold ids, so the messages themselves come from MessageService's cache
+ * and always show their latest text; deleted messages are skipped.
+ */
+public class FeedService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FeedService.class);
+
+    private final FollowRepository followRepository;
+    private final MessageRepository messageRepository;
+    private final MessageService messageService;
+    private final AccountCache accountCache;
+    private final int capacity;
+    private final int celebrityFollowers;
+
+    /**
+     * Feed buffers by account_id, least recently used first. Guarded by itself; only lookups and insertions happen
+     * under that lock, never database work.
+     */
+    private final LinkedHashMap<Integer, FeedBuffer> feeds;
+    /**
+     * Accounts with at least celebrityFollowers followers, whose messages are pulled rather than pushed.
+     */
+    private final Set<Integer> celebrities = ConcurrentHashMap.newKeySet();
+    /**
+     * Followers of each account that is not a celebrity, for pushing its new messages.
+     */
+    private final BoundedCache<Integer, List<Integer>> followers;
+
+    private final LongAdder pushes = new LongAdder();
+    private final LongAdder pulls = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+
+    /**
+    * @param messageService Resolves pushed ids to messages, and serves the timelines of celebrities.
+    * @param accountCache Checks that both sides of a follow exist.
+    */
+    public FeedService(MessageService messageService, AccountCache accountCache) {
+        this(new FollowDAO(), new MessageDAO(), messageService, accountCache);
+    }
+
+    /**
+    * @param followRepository Where follows are stored.
+    * @param messageRepository Where feeds that are not buffered are read from; the one messageService stores into.
+    */
+    public FeedService(FollowRepository followRepository, MessageRepository messageRepository,
+                       MessageService messageService, AccountCache accountCache) {
+        this(followRepository, messageRepository, messageService, accountCache,
+                Integer.getInteger("socialmedia.feed.size", 500),
+                Integer.getInteger("socialmedia.feed.maxAccounts", 10000),
+                Integer.getInteger("socialmedia.feed.celebrityFollowers", 10000));
+    }
+
+    /**
+    * @param capacity The most message ids kept per feed.
+    * @param maxAccounts The most accounts feed buffers are kept for.
+    * @param celebrityFollowers How many followers make an account's messages pulled instead of pushed.
+    */
+    public FeedService(FollowRepository followRepository, MessageRepository messageRepository,
+                       MessageService messageService, AccountCache accountCache, int capacity, int maxAccounts,
+                       int celebrityFollowers) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.followRepository = followRepository;
+        this.messageRepository = messageRepository;
+        this.messageService = messageService;
+        this.accountCache = accountCache;
+        this.capacity = capacity;
+        this.celebrityFollowers = celebrityFollowers;
+        this.feeds = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, FeedBuffer> eldest) {
+                return size() > maxAccounts;
+            }
+        };
+        this.followers = new BoundedCache<>(maxAccounts, 0, TimeUnit.SECONDS);
+        celebrities.addAll(followRepository.getFolloweeIDsWithFollowers(celebrityFollowers));
+    }
+
+    /**
+    * Makes one account follow another.
+    *
+    * @param follower_id The account that follows.
+    * @param followee_id The account to follow.
+    * @return true if the follow exists afterwards, or false if either account does not exist, they are the same
+    * account, or the follow could not be saved.
+    */
+    public boolean follow(int follower_id, int followee_id) {
+        if (follower_id == followee_id
+                || accountCache.getExistingAccountIDs(Arrays.asList(follower_id, followee_id)).size() != 2) {
+            return false;
+        }
+        if (!followRepository.follow(follower_id, followee_id)) {
+            return false;
+        }
+        followsChanged(follower_id, followee_id);
+        return true;
+    }
+
+    /**
+    * Makes one account stop following another.
+    *
+    * @param follower_id The account that follows.
+    * @param followee_id The account to stop following.
+    * @return true if the follow was removed, or false if there was none.
+    * @throws DAO.DataAccessException if the follow could not be removed.
+    */
+    public boolean unfollow(int follower_id, int followee_id) {
+        if (!followRepository.unfollow(follower_id, followee_id)) {
+            return false;
+        }
+        followsChanged(follower_id, followee_id);
+        return true;
+    }
+
+    /**
+    * Pushes a newly written message into the loaded feed buffer of every follower of its poster, unless the poster
+    * is a celebrity. Must be called after the message has been committed, so it never fails: if the followers cannot
+    * be read, the buffers missing the message are not known, and every buffer is reloaded on its next read instead.
+    */
+    public void messageCreated(Message message) {
+        int author = message.getPosted_by();
+        if (celebrities.contains(author)) {
+            return;
+        }
+        List<Integer> audience;
+        try {
+            audience = followers.get(author, followRepository::getFollowerIDs);
+        } catch (DataAccessException e) {
+            LOGGER.warn("Could not push message {} to the followers of {}, reloading every feed",
+                    message.getMessage_id(), author, e);
+            synchronized (feeds) {
+                feeds.clear();
+            }
+            return;
+        }
+        for (int follower_id : audience) {
+            FeedBuffer feed = loadedFeed(follower_id);
+            if (feed != null) {
+                feed.lock.lock();
+                try {
+                    feed.add(message.getTime_posted_epoch(), message.getMessage_id());
+                } finally {
+                    feed.lock.unlock();
+                }
+                pushes.increment();
+            }
+        }
+    }
+
+    /**
+    * Retrieves one page of an account's feed, newest first, continuing after the message identified by before_epoch
+    * and before_message_id.
+    *
+    * @param account_id The ID of the user whose feed is to be retrieved.
+    * @param before_epoch The time_posted_epoch of the last message on the previous page, or Long.MAX_VALUE for the
+    *                     first page.
+    * @param before_message_id The message_id of the last message on the previous page.
+    * @param limit The maximum number of messages to return.
+    * @return The page of messages.
+    */
+    public List<Message> getFeed(int account_id, long before_epoch, int before_message_id, int limit) {
+        reads.increment();
+        FeedBuffer feed = feedFor(account_id);
+        PriorityQueue<Source> heads = new PriorityQueue<>();
+        feed.lock.lock();
+        try {
+            int from = feed.firstOlderThan(before_epoch, before_message_id);
+            // some pushed ids may belong to deleted messages, so take a few more than the page needs
+            int count = Math.min(feed.size - from, limit * 2);
+            boolean truncated = !feed.complete || from + count < feed.size;
+            Source buffered = new BufferSource(
+                    Arrays.copyOfRange(feed.epochs, from, from + count),
+                    Arrays.copyOfRange(feed.ids, from, from + count),
+                    truncated, before_epoch, before_message_id);
+            if (!buffered.isExhausted()) {
+                heads.add(buffered);
+            }
+            for (int followee_id : feed.followees) {
+                if (celebrities.contains(followee_id)) {
+                    pulls.increment();
+                    Source pulled = new ListSource(messageService.getMessagesFromUserBeforeTime(
+                            followee_id, before_epoch, before_message_id, limit));
+                    if (!pulled.isExhausted()) {
+                        heads.add(pulled);
+                    }
+                }
+            }
+        } finally {
+            feed.lock.unlock();
+        }
+
+        List<Message> page = new ArrayList<>(limit);
+        Set<Integer> seen = new HashSet<>();
+        while (page.size() < limit && !heads.isEmpty()) {
+            Source head = heads.poll();
+            if (head.isAtBoundary()) {
+                // the buffer may be missing pushed messages older than this point, so the page cannot be merged
+                fallbacks.increment();
+                return messageRepository.getFeedBeforeTime(account_id, before_epoch, before_message_id, limit);
+            }
+            Message message = head.take();
+            if (message != null && seen.add(message.getMessage_id())) {
+                page.add(message);
+            }
+            if (!head.isExhausted()) {
+                heads.add(head);
+            }
+        }
+        return page;
+    }
+
+    /**
+    * @return the number of accounts with a loaded feed buffer.
+    */
+    public int size() {
+        synchronized (feeds) {
+            return feeds.size();
+        }
+    }
+
+    /**
+    * @return the store's size and counters, keyed by name, for the stats endpoint.
+    */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", size());
+        stats.put("celebrities", celebrities.size());
+        stats.put("reads", reads.sum());
+        stats.put("pushes", pushes.sum());
+        stats.put("pulls", pulls.sum());
+        stats.put("fallbacks", fallbacks.sum());
+        return stats;
+    }
+
+    /**
+    * Brings the fan-out state in line with a follow or unfollow: the follower's feed is reloaded on its next read, and
+    * the followee's audience is recounted. When an account stops being a celebrity, every feed is reloaded, since
+    * none of them were pushed the messages it posted while it was one.
+    */
+    private void followsChanged(int follower_id, int followee_id) {
+        followers.invalidate(followee_id);
+        synchronized (feeds) {
+            feeds.remove(follower_id);
+        }
+        boolean celebrity = followRepository.getFollowerCount(followee_id) >= celebrityFollowers;
+        if (celebrity) {
+            celebrities.add(followee_id);
+        } else if (celebrities.remove(followee_id)) {
+            synchronized (feeds) {
+                feeds.clear();
+            }
+        }
+    }
+
+    /**
+    * Returns the account's feed buffer, loading it first if needed. As with TimelineStore, the new buffer is
+    * published locked, so a push that commits while it loads is applied on top of it, and a push of an id the load
+    * already read changes nothing. A buffer whose load fails is removed again rather than kept as an empty feed.
+    */
+    private FeedBuffer feedFor(int account_id) {
+        FeedBuffer created;
+        synchronized (feeds) {
+            FeedBuffer feed = feeds.get(account_id);
+            if (feed != null) {
+                return feed;
+            }
+            created = new FeedBuffer(capacity);
+            created.lock.lock();
+            feeds.put(account_id, created);
+        }
+        boolean loaded = false;
+        try {
+            created.followees = followRepository.getFolloweeIDs(account_id).stream().mapToInt(Integer::intValue).toArray();
+            List<Message> newest = messageRepository.getFeedBeforeTime(account_id, Long.MAX_VALUE, Integer.MAX_VALUE, capacity + 1);
+            created.complete = newest.size() <= capacity;
+            created.size = Math.min(newest.size(), capacity);
+            for (int i = 0; i < created.size; i++) {
+                created.epochs[i] = newest.get(i).getTime_posted_epoch();
+                created.ids[i] = newest.get(i).getMessage_id();
+            }
+            loaded = true;
+        } finally {
+            if (!loaded) {
+                synchronized (feeds) {
+                    feeds.remove(account_id, created);
+                }
+            }
+            created.lock.unlock();
+        }
+        return created;
+    }
+
+    private FeedBuffer loadedFeed(int account_id) {
+        synchronized (feeds) {
+            return feeds.get(account_id);
+        }
+    }
+
+    /**
+    * True if the message at (epoch, message_id) comes after the position (before_epoch, before_message_id) in
+    * newest-first order.
+    */
+    private static boolean isOlder(long epoch, int message_id, long before_epoch, int before_message_id) {
+        return epoch < before_epoch || (epoch == before_epoch && message_id < before_message_id);
+    }
+
+    private static final class FeedBuffer {
+        final ReentrantLock lock = new ReentrantLock();
+        /**
+         * The feed's newest message ids and their time_posted_epoch, newest first, in positions 0 to size - 1. One
+         * slot more than the capacity, so an add can insert before it drops the oldest.
+         */
+        final long[] epochs;
+        final int[] ids;
+        final int capacity;
+        int size;
+        /**
+         * Whether the buffer holds every message of the feed, rather than just the newest capacity of them.
+         */
+        boolean complete;
+        int[] followees = new int[0];
+
+        FeedBuffer(int capacity) {
+            this.epochs = new long[capacity + 1];
+            this.ids = new int[capacity + 1];
+            this.capacity = capacity;
+        }
+
+        int firstOlderThan(long epoch, int message_id) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (isOlder(epochs[middle], ids[middle], epoch, message_id)) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            return low;
+        }
+
+        void add(long epoch, int message_id) {
+            int position = firstOlderThan(epoch, message_id);
+            if (position > 0 && ids[position - 1] == message_id) {
+                return; // already loaded
+            }
+            if (!complete && position == size) {
+                return; // older than everything held, and there may be messages between them that are not held
+            }
+            System.arraycopy(epochs, position, epochs, position + 1, size - position);
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            epochs[position] = epoch;
+            ids[position] = message_id;
+            size++;
+            if (size > capacity) {
+                size--;
+                complete = false;
+            }
+        }
+    }
+
+    /**
+    * One newest-first input to the merge. Sources are ordered by their next message, newest first.
+    */
+    private abstract static class Source implements Comparable<Source> {
+        abstract long headEpoch();
+
+        abstract int headID();
+
+        /**
+         * @return the next message, or null if it no longer exists, and moves past it.
+         */
+        abstract Message take();
+
+        abstract boolean isExhausted();
+
+        /**
+         * @return true if nothing is known about this source past its current position.
+         */
+        boolean isAtBoundary() {
+            return false;
+        }
+
+        @Override
+        public int compareTo(Source other) {
+            int byEpoch = Long.compare(other.headEpoch(), headEpoch());
+            return byEpoch != 0 ? byEpoch : Integer.compare(other.headID(), headID());
+        }
+    }
+
+    /**
+    * A page pulled from a celebrity's timeline.
+    */
+    private static final class ListSource extends Source {
+        final List<Message> messages;
+        int next;
+
+        ListSource(List<Message> messages) {
+            this.messages = messages;
+        }
+
+        long headEpoch() {
+            return messages.get(next).getTime_posted_epoch();
+        }
+
+        int headID() {
+            return messages.get(next).getMessage_id();
+        }
+
+        Message take() {
+            return messages.get(next++);
+        }
+
+        boolean isExhausted() {
+            return next == messages.size();
+        }
+    }
+
+    /**
+    * Ids copied out of a feed buffer, resolved to messages only as the merge reaches them. When the copy does not
+    * reach the end of the feed, the source does not run out: it stays in the heap as a boundary at its last position,
+    * so the merge notices if the page needs anything older.
+    */
+    private final class BufferSource extends Source {
+        final long[] epochs;
+        final int[] ids;
+        final boolean truncated;
+        long boundaryEpoch;
+        int boundaryID;
+        int next;
+
+        BufferSource(long[] epochs, int[] ids, boolean truncated, long before_epoch, int before_message_id) {
+            this.epochs = epochs;
+            this.ids = ids;
+            this.truncated = truncated;
+            this.boundaryEpoch = before_epoch;
+            this.boundaryID = before_message_id;
+        }
+
+        long headEpoch() {
+            return next < ids.length ? epochs[next] : boundaryEpoch;
+        }
+
+        int headID() {
+            return next < ids.length ? ids[next] : boundaryID;
+        }
+
+        Message take() {
+            boundaryEpoch = epochs[next];
+            boundaryID = ids[next];
+            return messageService.getMessageByID(ids[next++]);
+        }
+
+        boolean isExhausted() {
+            return next == ids.length && !truncated;
+        }
+
+        @Override
+        boolean isAtBoundary() {
+            return next == ids.length && truncated;
+        }
+    }
+}
@@ -1,17 +1,131 @@
 package Service;
 
 import DAO.MessageDAO;
+import DAO.MessageRepository;
 import DAO.AccountDAO;
 import Model.Message;
+import Model.MessageBatchResult;
+import Model.VersionedMessage;
+import Util.BoundedCache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class MessageService {
-    private MessageDAO messageDAO;
-    private AccountDAO accountDAO;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageService.class);
+
+    /**
+    * The largest page a single paginated request may ask for.
+    */
+    public static final int MAX_PAGE_SIZE = 1000;
+    /**
+    * The most messages a single batch post may contain.
+    */
+    public static final int MAX_BATCH_SIZE = 1000;
+    /**
+    * Number of locks that updates and deletes of the same message_id serialise on.
+    */
+    private static final int WRITE_LOCK_STRIPES = 64;
+    /**
+    * Number of change counters the accounts' message lists share.
+    */
+    private static final int USER_VERSION_STRIPES = 4096;
+
+    private MessageRepository messageRepository;
+    private AccountCache accountCache;
+    /**
+    * Messages and their versions by message_id, kept in step with every create, update and delete made through this service. Sized with
+    * socialmedia.messageCache.maxSize; socialmedia.messageCache.ttlSeconds (0, the default, never expires) bounds how
+    * long a change made outside this service can go unseen.
+    */
+    private BoundedCache<Integer, VersionedMessage> messageCache;
+    /**
+    * Holding the lock for a message_id while writing both the database and the cache keeps two concurrent updates of
+    * the same message from leaving the cache with the older text. These are ReentrantLocks rather than monitors because
+    * the lock is held across a JDBC call, and a virtual thread blocked inside synchronized pins its carrier thread.
+    */
+    private ReentrantLock[] writeLocks;
+    /**
+    * Set when socialmedia.writeBehind.enabled is true: createMessage then reserves the message_id from the repository
+    * and leaves the insert to writeBehind, and is answered before the message is stored.
+    */
+    private MessageWriteBehind writeBehind;
+    /**
+    * Each account's newest messages, kept in step with every create, update and delete once it has been committed.
+    */
+    private TimelineStore timelineStore;
+    /**
+    * Every committed message by the tokens of its text, kept in step with every create, update and delete. Null
+    * unless socialmedia.search.enabled is true, since building it reads the whole message table.
+    */
+    private SearchIndex searchIndex;
+    /**
+    * Goes up after every committed create, update and delete, once the change can be read back. Two reads of the
+    * message list that see the same count saw the same list.
+    */
+    private AtomicLong messagesVersion = new AtomicLong();
+    /**
+    * The same for each account's list of messages. Accounts share USER_VERSION_STRIPES counters, so a change to one
+    * account's messages can also move the count of a few others, which costs them a needless re-read, never a stale
+    * one.
+    */
+    private AtomicLongArray userMessagesVersions = new AtomicLongArray(USER_VERSION_STRIPES);
+    /**
+    * Told about every new message once it has been committed.
+    */
+    private List<Consumer<Message>> createdListeners = new CopyOnWriteArrayList<>();
 
     public MessageService() {
-        this.messageDAO = new MessageDAO();
-        this.accountDAO = new AccountDAO();
+        this(new AccountCache(new AccountDAO()));
+    }
+
+    /**
+    * @param accountCache The account cache used to check that posted_by refers to an existing user.
+    */
+    public MessageService(AccountCache accountCache) {
+        this(accountCache, new MessageDAO());
+    }
+
+    /**
+    * @param accountCache The account cache used to check that posted_by refers to an existing user.
+    * @param messageRepository Where messages are stored.
+    */
+    public MessageService(AccountCache accountCache, MessageRepository messageRepository) {
+        this.messageRepository = messageRepository;
+        this.accountCache = accountCache;
+        this.messageCache = new BoundedCache<>(
+                Integer.getInteger("socialmedia.messageCache.maxSize", 10000),
+                Long.getLong("socialmedia.messageCache.ttlSeconds", 0),
+                TimeUnit.SECONDS);
+        this.writeLocks = new ReentrantLock[WRITE_LOCK_STRIPES];
+        for (int i = 0; i < WRITE_LOCK_STRIPES; i++) {
+            writeLocks[i] = new ReentrantLock();
+        }
+        this.timelineStore = new TimelineStore(messageRepository);
+        if (Boolean.getBoolean("socialmedia.search.enabled")) {
+            this.searchIndex = new SearchIndex(messageRepository);
+        }
+        if (Boolean.getBoolean("socialmedia.writeBehind.enabled")) {
+            this.writeBehind = new MessageWriteBehind(messageRepository,
+                    Integer.getInteger("socialmedia.writeBehind.queueSize", 10000),
+                    Integer.getInteger("socialmedia.writeBehind.batchSize", 500),
+                    this::messageWritten,
+                    dropped -> messageCache.invalidate(dropped.getMessage_id()));
+        }
     }
 
     /**
@@ -19,29 +133,188 @@ public class MessageService {
     * 
     * @param message The message object to be created.
     * @return The newly created message with its message_id if creation is successful, or null if validation fails.
+    * @throws WriteQueueFullException in write-behind mode, if too many messages are already waiting to be written.
     */
     public Message createMessage(Message message) {
         // Validate the message text: it must not be null or exceed 255 characters
-        if (message.getMessage_text() == null || message.getMessage_text().isBlank() || message.getMessage_text().length() > 255) {
+        if (!isValidMessageText(message.getMessage_text())) {
             return null; // Return null if message text is invalid
         }
 
         // Validate that the posted_by field refers to an existing user
-        if (accountDAO.getAccountByID(message.getPosted_by()) == null) {
+        if (accountCache.getAccountByID(message.getPosted_by()) == null) {
             return null; // Return null if posted_by is invalid or user doesn't exist
         }
 
+        return insertMessage(message);
+    }
+
+    /**
+    * Creates a message posted by an account that has already been authenticated, such as by a session token. The
+    * account is known to exist, so unlike createMessage this does not look it up.
+    *
+    * @param account_id The authenticated author; the message's own posted_by is ignored.
+    * @param message The message object to be created.
+    * @return The newly created message with its message_id if creation is successful, or null if validation fails.
+    * @throws WriteQueueFullException in write-behind mode, if too many messages are already waiting to be written.
+    */
+    public Message createMessageAs(int account_id, Message message) {
+        if (!isValidMessageText(message.getMessage_text())) {
+            return null;
+        }
+        return insertMessage(new Message(account_id, message.getMessage_text(), message.getTime_posted_epoch()));
+    }
+
+    /**
+    * Inserts a message that has passed validation, or queues it in write-behind mode.
+    */
+    private Message insertMessage(Message message) {
+        if (writeBehind != null) {
+            return enqueueMessage(message);
+        }
+
         // If all validations pass, call the DAO to persist the message
-        return messageDAO.createMessage(message);
+        Message createdMessage = messageRepository.createMessage(message);
+        if (createdMessage != null) {
+            messageCache.put(createdMessage.getMessage_id(), new VersionedMessage(createdMessage, 1));
+            messageWritten(createdMessage);
+        }
+        return createdMessage;
     }   
 
+    /**
+    * Gives the message its message_id and queues it to be written. It is cached first, so reads by id see it
+    * straight away even though the insert has not happened yet.
+    */
+    private Message enqueueMessage(Message message) {
+        Message queuedMessage = new Message(
+                messageRepository.nextMessageID(),
+                message.getPosted_by(),
+                message.getMessage_text(),
+                message.getTime_posted_epoch());
+        messageCache.put(queuedMessage.getMessage_id(), new VersionedMessage(queuedMessage, 1));
+        try {
+            writeBehind.enqueue(queuedMessage);
+        } catch (RuntimeException e) {
+            messageCache.invalidate(queuedMessage.getMessage_id());
+            throw e;
+        }
+        return queuedMessage;
+    }
+
+    /**
+    * Creates several messages at once. Every message is validated like createMessage does, but the posted_by
+    * accounts of the whole batch are checked with one query and the valid messages are inserted with one JDBC batch
+    * in a single transaction.
+    *
+    * @param messages The messages to create, at most MAX_BATCH_SIZE.
+    * @return One result per message, in the same order: the created message with its message_id, or the reason it
+    * was rejected.
+    */
+    public List<MessageBatchResult> createMessages(List<Message> messages) {
+        Set<Integer> posters = new HashSet<>();
+        for (Message message : messages) {
+            posters.add(message.getPosted_by());
+        }
+        return createMessages(messages, accountCache.getExistingAccountIDs(posters));
+    }
+
+    /**
+    * Creates several messages posted by an account that has already been authenticated, like createMessageAs. The
+    * messages' own posted_by is ignored.
+    *
+    * @param account_id The authenticated author.
+    * @param messages The messages to create, at most MAX_BATCH_SIZE.
+    * @return One result per message, in the same order, as for createMessages.
+    */
+    public List<MessageBatchResult> createMessagesAs(int account_id, List<Message> messages) {
+        List<Message> authored = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            authored.add(new Message(account_id, message.getMessage_text(), message.getTime_posted_epoch()));
+        }
+        return createMessages(authored, Collections.singleton(account_id));
+    }
+
+    /**
+    * @param existingPosters The posted_by values known to belong to an existing account.
+    */
+    private List<MessageBatchResult> createMessages(List<Message> messages, Set<Integer> existingPosters) {
+        MessageBatchResult[] results = new MessageBatchResult[messages.size()];
+
+        List<Message> valid = new ArrayList<>();
+        List<Integer> validPositions = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            if (!isValidMessageText(message.getMessage_text())) {
+                results[i] = MessageBatchResult.rejected("message_text must not be blank or over 255 characters");
+            } else if (!existingPosters.contains(message.getPosted_by())) {
+                results[i] = MessageBatchResult.rejected("posted_by does not refer to an existing account");
+            } else {
+                valid.add(message);
+                validPositions.add(i);
+            }
+        }
+
+        List<Message> created = messageRepository.createMessages(valid);
+        for (int i = 0; i < valid.size(); i++) {
+            int position = validPositions.get(i);
+            if (created == null) {
+                results[position] = MessageBatchResult.rejected("the batch could not be saved");
+            } else {
+                Message createdMessage = created.get(i);
+                messageCache.put(createdMessage.getMessage_id(), new VersionedMessage(createdMessage, 1));
+                messageWritten(createdMessage);
+                results[position] = MessageBatchResult.created(createdMessage);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
     /**
     * Retrieves all messages from the database.
     * 
     * @return A list of all messages.
     */
     public List<Message> getAllMessages() {
-        return messageDAO.getAllMessages();
+        return messageRepository.getAllMessages();
+    }
+
+    /**
+    * Retrieves one page of messages in message_id order.
+    *
+    * @param after_message_id Only messages with a larger message_id are returned; 0 starts from the beginning.
+    * @param limit The maximum number of messages to return, clamped to MAX_PAGE_SIZE.
+    * @return The page of messages.
+    */
+    public List<Message> getMessagesAfterID(int after_message_id, int limit) {
+        return messageRepository.getMessagesAfterID(after_message_id, clampPageSize(limit));
+    }
+
+    /**
+    * Retrieves one page of messages newest first, continuing after the message identified by before_epoch and
+    * before_message_id.
+    *
+    * @param before_epoch The time_posted_epoch of the last message on the previous page, or Long.MAX_VALUE for the
+    *                     first page.
+    * @param before_message_id The message_id of the last message on the previous page.
+    * @param limit The maximum number of messages to return, clamped to MAX_PAGE_SIZE.
+    * @return The page of messages.
+    */
+    public List<Message> getMessagesBeforeTime(long before_epoch, int before_message_id, int limit) {
+        return messageRepository.getMessagesBeforeTime(before_epoch, before_message_id, clampPageSize(limit));
+    }
+
+    /**
+    * Passes every message to the consumer one at a time, as the repository reads them a page at a time.
+    *
+    * @param consumer Receives each message in message_id order.
+    */
+    public void streamAllMessages(Consumer<Message> consumer) {
+        messageRepository.streamAllMessages(consumer);
+    }
+
+    private int clampPageSize(int limit) {
+        return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
     }
 
     /**
@@ -51,7 +324,21 @@ public class MessageService {
     * @return The message object if found, or null if no message exists with the given ID.
     */
     public Message getMessageByID(int message_id) {
-        return messageDAO.getMessageByID(message_id); // Delegate to DAO
+        VersionedMessage versionedMessage = getVersionedMessageByID(message_id);
+        return versionedMessage == null ? null : versionedMessage.getMessage();
+    }
+
+    /**
+    * Retrieves a specific message by its ID together with its version.
+    *
+    * @param message_id The ID of the message to retrieve.
+    * @return The message and its version if found, or null if no message exists with the given ID.
+    */
+    public VersionedMessage getVersionedMessageByID(int message_id) {
+        return messageCache.get(message_id, id -> {
+            awaitWritten(id); // a queued message that has fallen out of the cache is read once it is written
+            return messageRepository.getVersionedMessageByID(id); // Delegate to DAO on a cache miss
+        });
     }
 
     /**
@@ -61,13 +348,43 @@ public class MessageService {
     * @return The deleted message object if it existed, or null if no message was found.
     */
     public Message deleteMessageByID(int message_id) {
-        Message message = messageDAO.getMessageByID(message_id);
+        VersionedMessage deleted = deleteMessageByID(message_id, null, null);
+        return deleted == null ? null : deleted.getMessage();
+    }
 
-        if (message != null) {
-            messageDAO.deleteMessageByID(message_id);
+    /**
+    * Deletes a message by its ID, on condition that it is still at the expected version and was posted by the
+    * expected account.
+    *
+    * @param message_id The ID of the message to delete.
+    * @param expected_version The version the client last read, or null to delete whatever the version.
+    * @param posted_by The account deleting the message, or null to delete whoever posted it.
+    * @return The deleted message and its version if it existed, or null if no message was found.
+    * @throws NotAuthorException if the message exists but was posted by another account.
+    * @throws VersionConflictException if the message exists but is at another version.
+    */
+    public VersionedMessage deleteMessageByID(int message_id, Integer expected_version, Integer posted_by) {
+        ReentrantLock lock = writeLockFor(message_id);
+        lock.lock();
+        try {
+            awaitWritten(message_id);
+            // the DAO deletes and returns the old row in one round trip, so there is no need to look it up first
+            VersionedMessage deleted = messageRepository.deleteMessageByID(message_id, expected_version, posted_by);
+            if (deleted == null) {
+                checkWriteRefused(message_id, expected_version, posted_by);
+                messageCache.put(message_id, null); // remember that the message is gone
+                return null;
+            }
+            messageCache.put(message_id, null); // remember that the message is gone
+            timelineStore.messageDeleted(deleted.getMessage());
+            if (searchIndex != null) {
+                searchIndex.messageDeleted(deleted.getMessage());
+            }
+            messagesChanged(deleted.getMessage());
+            return deleted;
+        } finally {
+            lock.unlock();
         }
-
-        return message;
     }
 
     /**
@@ -78,26 +395,215 @@ public class MessageService {
     * @return The updated message object if successful, or null if the message does not exist or validation fails.
     */
     public Message updateMessageByID(int message_id, String new_message_text) {
-        Message message = messageDAO.getMessageByID(message_id);
+        VersionedMessage updated = updateMessageByID(message_id, new_message_text, null, null);
+        return updated == null ? null : updated.getMessage();
+    }
 
-        if (new_message_text == null || new_message_text.isBlank() || new_message_text.length() > 255) {
+    /**
+    * Updates the text of a specific message by its ID, on condition that it is still at the expected version, so an
+    * update based on a stale read fails instead of silently overwriting a newer one.
+    *
+    * @param message_id The ID of the message to update.
+    * @param new_message_text The new text to update the message with.
+    * @param expected_version The version the client last read, or null to update whatever the version.
+    * @param posted_by The account updating the message, or null to update whoever posted it.
+    * @return The updated message and its new version if successful, or null if the message does not exist or
+    * validation fails.
+    * @throws NotAuthorException if the message exists but was posted by another account.
+    * @throws VersionConflictException if the message exists but is at another version.
+    */
+    public VersionedMessage updateMessageByID(int message_id, String new_message_text, Integer expected_version,
+                                              Integer posted_by) {
+        if (!isValidMessageText(new_message_text)) {
             return null; // Return null if message text is invalid
         }
-    
-        if (message != null) {
-            return messageDAO.updateMessageByID(message_id, new_message_text);
+
+        ReentrantLock lock = writeLockFor(message_id);
+        lock.lock();
+        try {
+            awaitWritten(message_id);
+            // the DAO updates and returns the new row in one round trip; null means there was no such message
+            VersionedMessage updated = messageRepository.updateMessageByID(
+                    message_id, new_message_text, expected_version, posted_by);
+            if (updated == null) {
+                checkWriteRefused(message_id, expected_version, posted_by);
+                messageCache.put(message_id, null);
+                return null;
+            }
+            messageCache.put(message_id, updated);
+            timelineStore.messageUpdated(updated.getMessage());
+            if (searchIndex != null) {
+                searchIndex.messageUpdated(updated.getMessage());
+            }
+            messagesChanged(updated.getMessage());
+            return updated;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        return null;
+    /**
+    * Called with the message's write lock held, after a conditional write changed nothing: tells a message that was
+    * posted by another account, or is at another version, apart from one that does not exist. Only a refused write
+    * pays for this read.
+    */
+    private void checkWriteRefused(int message_id, Integer expected_version, Integer posted_by) {
+        if (expected_version == null && posted_by == null) {
+            return;
+        }
+        VersionedMessage current = messageRepository.getVersionedMessageByID(message_id);
+        if (current != null) {
+            messageCache.put(message_id, current);
+            if (posted_by != null && current.getMessage().getPosted_by() != posted_by) {
+                throw new NotAuthorException(message_id, posted_by);
+            }
+            if (expected_version != null && current.getVersion() != expected_version) {
+                throw new VersionConflictException(message_id, current.getVersion());
+            }
+        }
     }
 
     /**
     * Retrieves all messages written by a specific user.
     * 
     * @param account_id The ID of the user whose messages are to be retrieved.
-    * @return A list of all messages written by the user with the given account_id.
+    * @return A list of all messages written by the user with the given account_id, newest first.
     */
     public List<Message> getAllMessagesFromUser(int account_id) {
-        return messageDAO.getAllMessagesFromUser(account_id);
+        return timelineStore.getMessages(account_id);
+    }
+
+    /**
+    * Retrieves one page of a user's messages newest first, continuing after the message identified by before_epoch
+    * and before_message_id.
+    *
+    * @param account_id The ID of the user whose messages are to be retrieved.
+    * @param before_epoch The time_posted_epoch of the last message on the previous page, or Long.MAX_VALUE for the
+    *                     first page.
+    * @param before_message_id The message_id of the last message on the previous page.
+    * @param limit The maximum number of messages to return, clamped to MAX_PAGE_SIZE.
+    * @return The page of messages.
+    */
+    public List<Message> getMessagesFromUserBeforeTime(int account_id, long before_epoch, int before_message_id, int limit) {
+        return timelineStore.getMessagesBefore(account_id, before_epoch, before_message_id, clampPageSize(limit));
+    }
+
+    /**
+    * Finds the newest messages whose text contains every term and "quoted phrase" of a query, continuing after the
+    * message identified by before_epoch and before_message_id. Matching ignores case and punctuation.
+    *
+    * @param query The terms and phrases to search for.
+    * @param before_epoch The time_posted_epoch of the last message on the previous page, or Long.MAX_VALUE for the
+    *                     first page.
+    * @param before_message_id The message_id of the last message on the previous page.
+    * @param limit The maximum number of messages to return, clamped to MAX_PAGE_SIZE.
+    * @return The matching messages, newest first.
+    * @throws IllegalStateException if search is not enabled.
+    */
+    public List<Message> searchMessages(String query, long before_epoch, int before_message_id, int limit) {
+        if (searchIndex == null) {
+            throw new IllegalStateException("Search is not enabled");
+        }
+        return searchIndex.search(query, before_epoch, before_message_id, clampPageSize(limit));
+    }
+
+    /**
+    * @return a count that changes whenever a message is created, updated or deleted through this service, so a list
+    * of messages read at the same count is still current. Changes made to the database directly are not counted.
+    */
+    public long getMessagesVersion() {
+        return messagesVersion.get();
+    }
+
+    /**
+    * @param account_id The ID of the user whose messages are listed.
+    * @return a count that changes whenever one of the user's messages is created, updated or deleted through this
+    * service; it may also change when other users' messages do.
+    */
+    public long getUserMessagesVersion(int account_id) {
+        return userMessagesVersions.get(Math.floorMod(account_id, USER_VERSION_STRIPES));
+    }
+
+    /**
+    * @return the search index, for its size, or null unless socialmedia.search.enabled is true.
+    */
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+    * @return the per-account timelines, for their hit and miss counts.
+    */
+    public TimelineStore getTimelineStore() {
+        return timelineStore;
+    }
+
+    /**
+    * @return the cache of messages by message_id, for its hit and miss counts.
+    */
+    public BoundedCache<Integer, VersionedMessage> getMessageCache() {
+        return messageCache;
+    }
+
+    /**
+    * @return the write-behind queue, or null unless socialmedia.writeBehind.enabled is true.
+    */
+    public MessageWriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+    * Writes out every queued message and stops accepting new ones. Does nothing unless write-behind is enabled.
+    */
+    public void close() {
+        if (writeBehind != null) {
+            writeBehind.close();
+        }
+    }
+
+    /**
+    * Registers a callback to be told about every new message once it has been committed, such as the feed fan-out.
+    * What the callback throws is logged and does not fail the write, which has already been committed.
+    */
+    public void addMessageCreatedListener(Consumer<Message> listener) {
+        createdListeners.add(listener);
+    }
+
+    private void messageWritten(Message message) {
+        timelineStore.messageCreated(message);
+        if (searchIndex != null) {
+            searchIndex.messageCreated(message);
+        }
+        messagesChanged(message);
+        for (Consumer<Message> listener : createdListeners) {
+            try {
+                listener.accept(message);
+            } catch (RuntimeException e) {
+                // the message is committed: failing here would only make the client retry and post it twice
+                LOGGER.error("A message created listener failed for message {}", message.getMessage_id(), e);
+            }
+        }
+    }
+
+    private void messagesChanged(Message message) {
+        messagesVersion.incrementAndGet();
+        userMessagesVersions.incrementAndGet(Math.floorMod(message.getPosted_by(), USER_VERSION_STRIPES));
+    }
+
+    private void awaitWritten(int message_id) {
+        if (writeBehind != null) {
+            writeBehind.awaitWritten(message_id);
+        }
+    }
+
+    /**
+    * Message text must not be null or blank and must be at most 255 characters.
+    */
+    public boolean isValidMessageText(String message_text) {
+        return message_text != null && !message_text.isBlank() && message_text.length() <= 255;
+    }
+
+    private ReentrantLock writeLockFor(int message_id) {
+        return writeLocks[Math.floorMod(message_id, WRITE_LOCK_STRIPES)];
     }
 }
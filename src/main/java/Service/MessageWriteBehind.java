@@ -0,0 +1,303 @@
+package Service;
+
+import DAO.MessageRepository;
+import Model.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes new messages to the database in the background. Messages arrive with their message_id already reserved,
+ * wait in a bounded queue, and are inserted by a single flusher thread that takes whatever has queued up, up to
+ * batchSize messages, and inserts it as one batch in one transaction. Under load, many requests share each commit;
+ * when idle, a message is written as soon as it arrives.
+ *
+ * When the queue is full, enqueue() throws WriteQueueFullException instead of waiting, so a spike turns into fast
+ * rejections the client can retry rather than requests piling up on the database. close() stops new messages from
+ * being accepted and returns only once everything already accepted has been written.
+ *
+ * Each message is passed to the onWritten callback once its batch has committed. Accepted messages have already been
+ * answered with their message_ids, so they are not given up lightly. While the repository is unavailable, so that
+ * insertMessages throws, the flusher keeps the batch and tries it again with a growing pause, up to
+ * MAX_RETRY_BACKOFF_MILLIS, for as long as it takes, including while close() is draining the queue. Meanwhile the queue
+ * fills and new messages are rejected. A batch the repository rejects is retried a message at a time, so one bad
+ * message does not lose the others, and only a message that is rejected on its own, such as for a constraint
+ * violation, is logged and passed to the onDropped callback. Nothing a callback throws stops the flusher, and every
+ * message's waiters are released once it is written or dropped.
+ */
+public class MessageWriteBehind {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageWriteBehind.class);
+    /**
+     * The pause before the first retry of an insert that threw; each further retry waits twice as long as the last.
+     */
+    private static final long MIN_RETRY_BACKOFF_MILLIS = 50;
+    /**
+     * The longest pause between retries, so that writing resumes soon after the repository is back.
+     */
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 5000;
+
+    private final MessageRepository messageRepository;
+    private final BlockingQueue<Message> queue;
+    private final int batchSize;
+    private final Consumer<Message> onWritten;
+    private final Consumer<Message> onDropped;
+    /**
+     * Accepted messages not written yet, by message_id, each completed once its batch has committed (or been
+     * dropped), so a reader or writer of that message can wait for it.
+     */
+    private final Map<Integer, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+    /**
+     * enqueue() holds the read lock while it checks closed and offers, and close() takes the write lock to set it,
+     * so that once close() has set closed no message can still be on its way into the queue.
+     */
+    private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+    private final Thread flusher;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    /**
+    * @param messageRepository The repository the batches are inserted into.
+    * @param queueSize The most messages that may be waiting to be written.
+    * @param batchSize The most messages inserted in one transaction.
+    * @param onWritten Called with each message once it has been committed.
+    * @param onDropped Called with each message the repository rejected.
+    */
+    public MessageWriteBehind(MessageRepository messageRepository, int queueSize, int batchSize, Consumer<Message> onWritten,
+                              Consumer<Message> onDropped) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.messageRepository = messageRepository;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.onWritten = onWritten;
+        this.onDropped = onDropped;
+        this.flusher = new Thread(this::flushUntilClosed, "message-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+    * Queues a message to be written.
+    *
+    * @param message The message to write, with its message_id already reserved.
+    * @throws WriteQueueFullException if the queue is full.
+    * @throws IllegalStateException if close() has been called.
+    */
+    public void enqueue(Message message) {
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("The write-behind queue has been closed");
+            }
+            CompletableFuture<Void> written = new CompletableFuture<>();
+            pending.put(message.getMessage_id(), written);
+            if (!queue.offer(message)) {
+                pending.remove(message.getMessage_id());
+                rejected.incrementAndGet();
+                throw new WriteQueueFullException("The write-behind queue is full");
+            }
+            accepted.incrementAndGet();
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+    * Waits until the message with the given id has been written, if it is still queued. Returns immediately for any
+    * other id.
+    *
+    * @param message_id The id of the message about to be read or changed.
+    */
+    public void awaitWritten(int message_id) {
+        CompletableFuture<Void> written = pending.get(message_id);
+        if (written != null) {
+            written.join();
+        }
+    }
+
+    /**
+    * Stops accepting messages and waits until every message already accepted has been written or rejected, however
+    * long the repository stays unavailable.
+    */
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Interrupted while draining {} queued messages", queue.size());
+        }
+    }
+
+    private void flushUntilClosed() {
+        List<Message> batch = new ArrayList<>(batchSize);
+        while (true) {
+            // read before polling: if the queue was closed before an empty poll, nothing can be added to it later
+            boolean wasClosed = closed;
+            Message first;
+            try {
+                first = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // the flusher is only stopped through close(), which lets it drain the queue first
+                continue;
+            }
+            if (first == null) {
+                if (wasClosed) {
+                    return;
+                }
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, batchSize - 1);
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<Message> batch) {
+        batches.incrementAndGet();
+        if (insert(batch)) {
+            for (Message message : batch) {
+                markWritten(message);
+            }
+            return;
+        }
+        // the repository rejected something in the batch; alone, only the messages at fault are rejected again
+        for (Message message : batch) {
+            if (insert(Collections.singletonList(message))) {
+                markWritten(message);
+            } else {
+                drop(message);
+            }
+        }
+    }
+
+    /**
+    * Inserts the messages, trying again for as long as the repository throws, such as when no connection is free.
+    *
+    * @return true once they are inserted, or false if the repository rejected them.
+    */
+    private boolean insert(List<Message> messages) {
+        long backoffMillis = MIN_RETRY_BACKOFF_MILLIS;
+        while (true) {
+            try {
+                return messageRepository.insertMessages(messages);
+            } catch (RuntimeException e) {
+                retries.incrementAndGet();
+                LOGGER.warn("Could not write {} messages, retrying in {} ms", messages.size(), backoffMillis, e);
+            }
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                // the flusher is only stopped through close(), which lets it drain the queue first
+            }
+            backoffMillis = Math.min(backoffMillis * 2, MAX_RETRY_BACKOFF_MILLIS);
+        }
+    }
+
+    private void markWritten(Message message) {
+        written.incrementAndGet();
+        notifyListener(onWritten, message);
+        finish(message);
+    }
+
+    private void drop(Message message) {
+        dropped.incrementAndGet();
+        LOGGER.error("Dropped message {} posted by {}: the repository rejected it",
+                message.getMessage_id(), message.getPosted_by());
+        notifyListener(onDropped, message);
+        finish(message);
+    }
+
+    /**
+    * Passes a message to a callback, logging whatever it throws, so that a failing callback cannot stop the flusher
+    * or keep the message's waiters from being released.
+    */
+    private void notifyListener(Consumer<Message> listener, Message message) {
+        try {
+            listener.accept(message);
+        } catch (RuntimeException e) {
+            LOGGER.error("Write-behind callback failed for message {}", message.getMessage_id(), e);
+        }
+    }
+
+    private void finish(Message message) {
+        CompletableFuture<Void> written = pending.remove(message.getMessage_id());
+        if (written != null) {
+            written.complete(null);
+        }
+    }
+
+    /**
+    * @return the number of messages waiting to be written.
+    */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+    * @return the number of inserts that threw and were tried again.
+    */
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    @Override
+    public String toString() {
+        return "MessageWriteBehind{" +
+                "queued=" + getQueueDepth() +
+                ", accepted=" + getAcceptedCount() +
+                ", rejected=" + getRejectedCount() +
+                ", written=" + getWrittenCount() +
+                ", dropped=" + getDroppedCount() +
+                ", batches=" + getBatchCount() +
+                ", retries=" + getRetryCount() +
+                '}';
+    }
+}
@@ -0,0 +1,11 @@
+package Service;
+
+/**
+ * Thrown when a message is updated or deleted on behalf of an account, and the message was posted by another one.
+ */
+public class NotAuthorException extends RuntimeException {
+
+    public NotAuthorException(int message_id, int account_id) {
+        super("message " + message_id + " was not posted by account " + account_id);
+    }
+}
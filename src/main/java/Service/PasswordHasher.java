@@ -0,0 +1,232 @@
+package Service;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hashes and verifies passwords with salted PBKDF2-HMAC-SHA256, on a small pool of its own threads.
+ *
+ * A hash costs tens of milliseconds of CPU on purpose, so it is never run on a request thread: the pool has
+ * socialmedia.password.threads threads (one per processor by default), and at most socialmedia.password.queueSize
+ * hashes wait for one of them. When the queue is full, hash and verify throw RejectedExecutionException instead of
+ * queueing more work than the pool can finish in reasonable time.
+ *
+ * A stored password is "pbkdf2_sha256$iterations$salt$hash" with the salt and hash in Base64. Anything else is taken
+ * to be a plaintext password from before passwords were hashed. The cost, socialmedia.password.iterations, can be
+ * changed while running with setIterations, which registerMBean also offers over JMX; verify then hands back a new
+ * hash for every password stored at another cost or in plaintext, so stored passwords move to the current cost as
+ * their owners log in.
+ */
+public class PasswordHasher implements PasswordHasherMBean {
+
+    /**
+    * The name the hasher is registered under with the platform MBean server.
+    */
+    public static final String MBEAN_NAME = "socialmedia:type=PasswordHasher";
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2_sha256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final ThreadPoolExecutor executor;
+    private final SecureRandom random = new SecureRandom();
+    private volatile int iterations;
+    /**
+    * A hash of a random password at the current cost, for verifyDummy. Replaced when the cost changes.
+    */
+    private volatile String dummy;
+
+    private final LongAdder hashes = new LongAdder();
+    private final LongAdder verifications = new LongAdder();
+    private final LongAdder rehashes = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public PasswordHasher() {
+        this(Integer.getInteger("socialmedia.password.iterations", 600_000),
+                Integer.getInteger("socialmedia.password.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("socialmedia.password.queueSize", 1000));
+    }
+
+    /**
+    * @param iterations The PBKDF2 iteration count new hashes are made with.
+    * @param threads How many passwords are hashed at once.
+    * @param queueSize How many hashes may wait for a thread before new ones are rejected.
+    */
+    public PasswordHasher(int iterations, int threads, int queueSize) {
+        setIterations(iterations);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, pool) -> {
+                    rejected.increment();
+                    throw new RejectedExecutionException("too many passwords are waiting to be hashed");
+                });
+        // idle threads exit, so a service that is no longer used does not keep its pool
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+    * Registers this hasher with the platform MBean server as MBEAN_NAME, in place of any hasher registered before, so
+    * its Iterations can be read and changed over JMX without a restart.
+    *
+    * @throws JMException if the MBean server refused the registration.
+    */
+    public void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(MBEAN_NAME);
+        synchronized (PasswordHasher.class) {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        }
+    }
+
+    /**
+    * Changes the iteration count of new hashes. Passwords already stored at another count are rehashed as their
+    * owners log in.
+    */
+    @Override
+    public void setIterations(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be positive: " + iterations);
+        }
+        this.iterations = iterations;
+        this.dummy = null;
+    }
+
+    @Override
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+    * @param password The plaintext password.
+    * @return the password in its stored form, salted and hashed at the current cost, once a pool thread has hashed
+    * it.
+    * @throws RejectedExecutionException if too many hashes are already waiting.
+    */
+    public CompletableFuture<String> hash(String password) {
+        return CompletableFuture.supplyAsync(() -> {
+            hashes.increment();
+            return encode(password, iterations);
+        }, executor);
+    }
+
+    /**
+    * Checks a password against its stored form, in constant time.
+    *
+    * @param password The plaintext password to check.
+    * @param stored The stored form: a hash made by this class, or a plaintext password.
+    * @return null if the password does not match. Otherwise the form that should be stored from now on: stored
+    * itself, or a new hash at the current cost if stored is plaintext or was hashed at another cost.
+    * @throws RejectedExecutionException if too many hashes are already waiting.
+    */
+    public CompletableFuture<String> verify(String password, String stored) {
+        return CompletableFuture.supplyAsync(() -> {
+            verifications.increment();
+            String[] parts = stored.split("\\$");
+            boolean hashed = parts.length == 4 && parts[0].equals(PREFIX) && parts[1].matches("[0-9]{1,9}");
+            if (!hashed) {
+                if (!MessageDigest.isEqual(
+                        password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8))) {
+                    return null;
+                }
+                rehashes.increment();
+                return encode(password, iterations);
+            }
+
+            int storedIterations = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+            if (!MessageDigest.isEqual(derive(password, salt, storedIterations), expected)) {
+                return null;
+            }
+            if (storedIterations != iterations) {
+                rehashes.increment();
+                return encode(password, iterations);
+            }
+            return stored;
+        }, executor);
+    }
+
+    /**
+    * Checks a password against a dummy hash at the current cost, for a login to an account that does not exist. It
+    * takes as long as checking the password of an account that does, so the time a failed login takes does not tell
+    * whether its username exists.
+    *
+    * @param password The plaintext password to check.
+    * @return null, once a pool thread has checked the password.
+    * @throws RejectedExecutionException if too many hashes are already waiting.
+    */
+    public CompletableFuture<String> verifyDummy(String password) {
+        String stored = dummy;
+        if (stored == null) {
+            byte[] salt = new byte[SALT_BYTES];
+            random.nextBytes(salt);
+            // only the salt and cost matter to the timing, so the dummy hash itself needs no PBKDF2 run
+            stored = PREFIX + "$" + iterations + "$" + Base64.getEncoder().encodeToString(salt) + "$"
+                    + Base64.getEncoder().encodeToString(new byte[HASH_BITS / 8]);
+            dummy = stored;
+        }
+        return verify(password, stored).thenApply(ignored -> null);
+    }
+
+    /**
+    * @return the current cost, the pool's queue depth and busy threads, and how many hashes it has done.
+    */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("iterations", iterations);
+        stats.put("queued", executor.getQueue().size());
+        stats.put("active", executor.getActiveCount());
+        stats.put("hashes", hashes.sum());
+        stats.put("verifications", verifications.sum());
+        stats.put("rehashes", rehashes.sum());
+        stats.put("rejected", rejected.sum());
+        return stats;
+    }
+
+    private String encode(String password, int iterations) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder();
+        return PREFIX + "$" + iterations + "$" + base64.encodeToString(salt) + "$"
+                + base64.encodeToString(derive(password, salt, iterations));
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
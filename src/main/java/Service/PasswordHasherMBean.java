@@ -0,0 +1,19 @@
+package Service;
+
+/**
+ * What PasswordHasher shows over JMX, as socialmedia:type=PasswordHasher, so operators can tune the hashing cost of a
+ * running server from jconsole or any other JMX client.
+ */
+public interface PasswordHasherMBean {
+
+    /**
+    * @return the PBKDF2 iteration count new hashes are made with.
+    */
+    int getIterations();
+
+    /**
+    * Changes the iteration count of new hashes. Passwords already stored at another count are rehashed as their
+    * owners log in.
+    */
+    void setIterations(int iterations);
+}
@@ -0,0 +1,438 @@
+package Service;
+
+import DAO.MessageRepository;
+import Model.Message;
+import Util.IntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory inverted index over message_text, so messages can be searched without scanning the message table.
+ *
+ * Text is split into tokens at every character that is not a letter or digit, and lowercased. Each token maps to a
+ * postings list: the message_ids containing it, kept sorted in a primitive int array. A query is a list of terms and
+ * "quoted phrases", all of which must match; the postings of every token in the query are intersected, smallest list
+ * first, and the newest candidates by time_posted_epoch, then message_id, are picked through a heap no larger than
+ * the page, so a common term costs O(n log k) rather than a sort of every candidate. Only the postings, and each
+ * message's time_posted_epoch and the postings it is in, are held in memory: the text of the newest candidates is read
+ * from the repository, a page at a time, and checked against the whole query, phrases included, until enough of them
+ * match.
+ *
+ * The index is built from the message table when it is created, and is then kept up to date by messageCreated,
+ * messageUpdated and messageDeleted, which must be called after each change has been committed. Each message
+ * remembers the postings it is in, so an update moves it out of those of tokens its new text no longer has, and a
+ * delete out of all of them: however often messages are edited, the index holds one posting per distinct token of
+ * each message's current text.
+ */
+public class SearchIndex {
+
+    /**
+     * Newest first, the same order as the recent pages of GET /messages.
+     */
+    private static final Comparator<Candidate> NEWEST_FIRST = Comparator
+            .comparingLong((Candidate candidate) -> candidate.time_posted_epoch)
+            .thenComparingInt(candidate -> candidate.message_id)
+            .reversed();
+
+    private final MessageRepository messageRepository;
+    /**
+     * Postings by token. Guarded by lock, like messages and postingCount.
+     */
+    private final Map<String, Postings> postings = new HashMap<>();
+    /**
+     * Every indexed message by message_id, with its time_posted_epoch, all that ranking the candidates needs, and the
+     * postings it is in.
+     */
+    private final IntHashMap<Indexed> messages = new IntHashMap<>();
+    /**
+     * The number of message_ids across all postings.
+     */
+    private long postingCount;
+    /**
+     * Searches run concurrently under the read lock; index changes take the write lock. Neither is held across
+     * database work once the index is built.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final LongAdder searches = new LongAdder();
+
+    /**
+    * @param messageRepository The repository the index is built from, and the candidates' text is read from.
+    */
+    public SearchIndex(MessageRepository messageRepository) {
+        this.messageRepository = messageRepository;
+        lock.writeLock().lock();
+        try {
+            messageRepository.streamAllMessages(this::index);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+    * Finds the newest messages matching every term and phrase of a query, continuing after the message identified
+    * by before_epoch and before_message_id.
+    *
+    * @param query Terms and "quoted phrases", separated by whitespace.
+    * @param before_epoch The time_posted_epoch of the last message on the previous page, or Long.MAX_VALUE for the
+    *                     first page.
+    * @param before_message_id The message_id of the last message on the previous page.
+    * @param limit The maximum number of messages to return.
+    * @return The matching messages, newest first; empty if the query has no tokens.
+    */
+    public List<Message> search(String query, long before_epoch, int before_message_id, int limit) {
+        searches.increment();
+        List<List<String>> phrases = parseQuery(query);
+        List<String> tokens = new ArrayList<>();
+        for (List<String> phrase : phrases) {
+            tokens.addAll(phrase);
+        }
+        if (tokens.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Candidate> candidates = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int message_id : intersect(tokens)) {
+                long time_posted_epoch = messages.get(message_id).time_posted_epoch;
+                if (isOlder(time_posted_epoch, message_id, before_epoch, before_message_id)) {
+                    candidates.add(new Candidate(message_id, time_posted_epoch));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Message> results = new ArrayList<>(limit);
+        long cursor_epoch = before_epoch;
+        int cursor_message_id = before_message_id;
+        while (results.size() < limit) {
+            List<Candidate> page = newest(candidates, cursor_epoch, cursor_message_id, limit - results.size());
+            if (page.isEmpty()) {
+                break;
+            }
+            List<Integer> ids = new ArrayList<>(page.size());
+            for (Candidate candidate : page) {
+                ids.add(candidate.message_id);
+            }
+            Map<Integer, Message> texts = new HashMap<>();
+            for (Message message : messageRepository.getMessagesByIDs(ids)) {
+                texts.put(message.getMessage_id(), message);
+            }
+            for (Candidate candidate : page) {
+                Message message = texts.get(candidate.message_id);
+                // gone, or changed since it was indexed so that it no longer matches
+                if (message != null && matches(message, phrases)) {
+                    results.add(message);
+                }
+            }
+            // some did not match, so the next page continues after the oldest candidate read
+            Candidate last = page.get(page.size() - 1);
+            cursor_epoch = last.time_posted_epoch;
+            cursor_message_id = last.message_id;
+        }
+        return results;
+    }
+
+    /**
+    * Indexes a message that has been committed.
+    */
+    public void messageCreated(Message message) {
+        lock.writeLock().lock();
+        try {
+            index(message);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+    * Re-indexes a message whose text has been updated.
+    */
+    public void messageUpdated(Message message) {
+        lock.writeLock().lock();
+        try {
+            index(message);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+    * Removes a deleted message from the index.
+    */
+    public void messageDeleted(Message message) {
+        lock.writeLock().lock();
+        try {
+            remove(message.getMessage_id());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+    * @return the number of indexed messages, distinct tokens and postings, and how many searches have run.
+    */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            stats.put("messages", messages.size());
+            stats.put("tokens", postings.size());
+            stats.put("postings", postingCount);
+        } finally {
+            lock.readLock().unlock();
+        }
+        stats.put("searches", searches.sum());
+        return stats;
+    }
+
+    /**
+    * Splits text into lowercase tokens of letters and digits.
+    */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inToken = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inToken && start < 0) {
+                start = i;
+            } else if (!inToken && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+    * Splits a query into phrases: each "quoted phrase" is one, and each bare term is a phrase of its own. An
+    * unclosed quote runs to the end of the query.
+    */
+    static List<List<String>> parseQuery(String query) {
+        List<List<String>> phrases = new ArrayList<>();
+        String[] parts = query.split("\"", -1);
+        for (int i = 0; i < parts.length; i++) {
+            List<String> tokens = tokenize(parts[i]);
+            if (i % 2 == 1) {
+                if (!tokens.isEmpty()) {
+                    phrases.add(tokens);
+                }
+            } else {
+                for (String token : tokens) {
+                    phrases.add(Collections.singletonList(token));
+                }
+            }
+        }
+        return phrases;
+    }
+
+    /**
+    * Must be called under the write lock. A message that is already indexed keeps the postings of tokens its new
+    * text still has, leaves those of tokens it no longer has, and joins those of tokens that are new to it.
+    */
+    private void index(Message message) {
+        int message_id = message.getMessage_id();
+        Indexed old = messages.get(message_id);
+        Set<String> tokens = distinctTokens(message);
+        Postings[] in = new Postings[tokens.size()];
+        int count = 0;
+        if (old != null) {
+            for (Postings list : old.postings) {
+                if (tokens.remove(list.token)) {
+                    in[count++] = list;
+                } else {
+                    removePosting(list, message_id);
+                }
+            }
+        }
+        for (String token : tokens) {
+            Postings list = postings.computeIfAbsent(token, Postings::new);
+            list.add(message_id);
+            in[count++] = list;
+        }
+        postingCount += in.length - (old == null ? 0 : old.postings.length);
+        messages.put(message_id, new Indexed(message.getTime_posted_epoch(), in));
+    }
+
+    /**
+    * Must be called under the write lock.
+    */
+    private void remove(int message_id) {
+        Indexed old = messages.remove(message_id);
+        if (old == null) {
+            return;
+        }
+        for (Postings list : old.postings) {
+            removePosting(list, message_id);
+        }
+        postingCount -= old.postings.length;
+    }
+
+    private void removePosting(Postings list, int message_id) {
+        list.remove(message_id);
+        if (list.size == 0) {
+            postings.remove(list.token);
+        }
+    }
+
+    private static Set<String> distinctTokens(Message message) {
+        return new HashSet<>(tokenize(message.getMessage_text()));
+    }
+
+    /**
+    * @return the message_ids in the postings of every token, ascending. Must be called under the read lock.
+    */
+    private int[] intersect(List<String> tokens) {
+        List<Postings> lists = new ArrayList<>();
+        for (String token : tokens) {
+            Postings list = postings.get(token);
+            if (list == null) {
+                return new int[0];
+            }
+            lists.add(list);
+        }
+        // starting from the shortest list keeps every later step no larger than it
+        lists.sort(Comparator.comparingInt(list -> list.size));
+        int[] result = Arrays.copyOf(lists.get(0).ids, lists.get(0).size);
+        int size = result.length;
+        for (int i = 1; i < lists.size() && size > 0; i++) {
+            Postings other = lists.get(i);
+            int kept = 0;
+            int from = 0;
+            for (int j = 0; j < size; j++) {
+                int found = Arrays.binarySearch(other.ids, from, other.size, result[j]);
+                if (found >= 0) {
+                    result[kept++] = result[j];
+                    from = found + 1;
+                } else {
+                    from = -found - 1;
+                }
+            }
+            size = kept;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+    * @return whether the message's current text contains every term and phrase of the query.
+    */
+    private static boolean matches(Message message, List<List<String>> phrases) {
+        List<String> tokens = tokenize(message.getMessage_text());
+        for (List<String> phrase : phrases) {
+            if (Collections.indexOfSubList(tokens, phrase) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+    * @return the k newest candidates older than the cursor, newest first. The heap holds at most k of them, its head
+    * the oldest kept, which anything newer replaces.
+    */
+    private static List<Candidate> newest(List<Candidate> candidates, long before_epoch, int before_message_id, int k) {
+        PriorityQueue<Candidate> heap = new PriorityQueue<>(k + 1, NEWEST_FIRST.reversed());
+        for (Candidate candidate : candidates) {
+            if (!isOlder(candidate.time_posted_epoch, candidate.message_id, before_epoch, before_message_id)) {
+                continue;
+            }
+            if (heap.size() < k) {
+                heap.add(candidate);
+            } else if (NEWEST_FIRST.compare(candidate, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(candidate);
+            }
+        }
+        List<Candidate> page = new ArrayList<>(heap);
+        page.sort(NEWEST_FIRST);
+        return page;
+    }
+
+    private static boolean isOlder(long time_posted_epoch, int message_id, long before_epoch, int before_message_id) {
+        return time_posted_epoch < before_epoch
+                || (time_posted_epoch == before_epoch && message_id < before_message_id);
+    }
+
+    /**
+     * A message matching every token of a query, with what it is ranked by.
+     */
+    private static final class Candidate {
+        final int message_id;
+        final long time_posted_epoch;
+
+        Candidate(int message_id, long time_posted_epoch) {
+            this.message_id = message_id;
+            this.time_posted_epoch = time_posted_epoch;
+        }
+    }
+
+    /**
+     * An indexed message: what it is ranked by, and the postings of the distinct tokens of its text.
+     */
+    private static final class Indexed {
+        final long time_posted_epoch;
+        final Postings[] postings;
+
+        Indexed(long time_posted_epoch, Postings[] postings) {
+            this.time_posted_epoch = time_posted_epoch;
+            this.postings = postings;
+        }
+    }
+
+    /**
+     * The message_ids containing one token, ascending, in the first size slots of ids. Ids are mostly handed out in
+     * increasing order, so adding one is usually an append.
+     */
+    private static class Postings {
+        final String token;
+        int[] ids = new int[4];
+        int size;
+
+        Postings(String token) {
+            this.token = token;
+        }
+
+        void add(int message_id) {
+            int position = size == 0 || ids[size - 1] < message_id
+                    ? size
+                    : Arrays.binarySearch(ids, 0, size, message_id);
+            if (position >= 0 && position < size) {
+                return; // already present
+            }
+            if (position < 0) {
+                position = -position - 1;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = message_id;
+            size++;
+        }
+
+        boolean remove(int message_id) {
+            int position = Arrays.binarySearch(ids, 0, size, message_id);
+            if (position < 0) {
+                return false;
+            }
+            System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+            size--;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Issues and checks stateless session tokens, so a logged-in account can be identified on every request without a
+ * database lookup or any state shared between servers.
+ *
+ * A token is "account_id.expires.signature": the account it was issued to, the epoch second it stops being valid,
+ * and an HMAC-SHA256 of the two in URL-safe Base64. Checking one only recomputes the HMAC. Accounts are never
+ * deleted, so a correctly signed token always names an existing account.
+ *
+ * The key is socialmedia.session.secret (Base64) when it is set, so that tokens stay valid across restarts and every
+ * server accepts the tokens of the others; otherwise a random key is made at startup. Tokens are valid for
+ * socialmedia.session.ttlSeconds (3600).
+ */
+public class SessionTokens {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final SecretKeySpec key;
+    private final long ttlSeconds;
+
+    public SessionTokens() {
+        this(secretFromProperty(), Long.getLong("socialmedia.session.ttlSeconds", 3600));
+    }
+
+    /**
+    * @param secret The HMAC key.
+    * @param ttlSeconds How long a token is valid after it is issued.
+    */
+    public SessionTokens(byte[] secret, long ttlSeconds) {
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    /**
+    * @param account_id The account that has just logged in.
+    * @return a token identifying the account until it expires.
+    */
+    public String issue(int account_id) {
+        String payload = account_id + "." + (System.currentTimeMillis() / 1000 + ttlSeconds);
+        return payload + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(sign(payload));
+    }
+
+    /**
+    * @param token A token from issue, as sent back by the client.
+    * @return the account_id the token was issued to, or null if it is malformed, wrongly signed or expired.
+    */
+    public Integer verify(String token) {
+        int signatureStart = token.lastIndexOf('.');
+        int expiresStart = token.indexOf('.');
+        if (signatureStart <= expiresStart || expiresStart < 1) {
+            return null;
+        }
+        String payload = token.substring(0, signatureStart);
+        byte[] signature;
+        try {
+            signature = Base64.getUrlDecoder().decode(token.substring(signatureStart + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(sign(payload), signature)) {
+            return null;
+        }
+        // the payload was signed by issue, so both numbers parse
+        long expires = Long.parseLong(payload.substring(expiresStart + 1));
+        if (System.currentTimeMillis() / 1000 >= expires) {
+            return null;
+        }
+        return Integer.valueOf(payload.substring(0, expiresStart));
+    }
+
+    private byte[] sign(String payload) {
+        try {
+            // a Mac is not thread safe, and making one is cheap next to the request it authenticates
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+
+    private static byte[] secretFromProperty() {
+        String secret = System.getProperty("socialmedia.session.secret");
+        if (secret != null) {
+            return Base64.getDecoder().decode(secret);
+        }
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        return random;
+    }
+}
@@ -0,0 +1,323 @@
+package Service;
+
+import DAO.MessageRepository;
+import Model.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the most recent messages of each account in memory, newest first (by time_posted_epoch, then message_id), so
+ * that an account's messages can be listed and paged without a query.
+ *
+ * Each account's timeline holds at most socialmedia.timeline.size messages. It is loaded from the database the first
+ * time the account is read, and is then kept up to date by messageCreated, messageUpdated and messageDeleted, which
+ * must be called after each change has been committed. A timeline always holds the newest messages of its account;
+ * when the account has more messages than fit, the oldest fall off the end, and a page reaching past the end is read
+ * from the database instead. An account whose messages all fit is answered entirely from memory.
+ *
+ * Timelines are kept for the socialmedia.timeline.maxAccounts most recently used accounts.
+ */
+public class TimelineStore {
+
+    private final MessageRepository messageRepository;
+    private final int capacity;
+    /**
+     * Timelines by account_id, least recently used first. Guarded by itself; only lookups and insertions happen under
+     * that lock, never database work.
+     */
+    private final LinkedHashMap<Integer, Timeline> timelines;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public TimelineStore(MessageRepository messageRepository) {
+        this(messageRepository,
+                Integer.getInteger("socialmedia.timeline.size", 200),
+                Integer.getInteger("socialmedia.timeline.maxAccounts", 10000));
+    }
+
+    /**
+    * @param messageRepository The repository timelines are loaded from, and pages past their end are read from.
+    * @param capacity The most messages kept per account.
+    * @param maxAccounts The most accounts timelines are kept for.
+    */
+    public TimelineStore(MessageRepository messageRepository, int capacity, int maxAccounts) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.messageRepository = messageRepository;
+        this.capacity = capacity;
+        this.timelines = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Timeline> eldest) {
+                return size() > maxAccounts;
+            }
+        };
+    }
+
+    /**
+    * @param account_id The ID of the user whose messages are to be retrieved.
+    * @return every message posted by the user, newest first.
+    */
+    public List<Message> getMessages(int account_id) {
+        Timeline timeline = timelineFor(account_id);
+        timeline.lock.lock();
+        try {
+            if (timeline.complete) {
+                hits.increment();
+                return timeline.copy(0, timeline.size);
+            }
+        } finally {
+            timeline.lock.unlock();
+        }
+        misses.increment();
+        return messageRepository.getAllMessagesFromUser(account_id);
+    }
+
+    /**
+    * Retrieves one page of a user's messages newest first, continuing after the message identified by before_epoch
+    * and before_message_id. The page is found by binary search and copied out of the timeline, unless it reaches past
+    * the messages the timeline holds.
+    *
+    * @param account_id The ID of the user whose messages are to be retrieved.
+    * @param before_epoch The time_posted_epoch of the last message on the previous page, or Long.MAX_VALUE for the
+    *                     first page.
+    * @param before_message_id The message_id of the last message on the previous page.
+    * @param limit The maximum number of messages to return.
+    * @return The page of messages, newest first.
+    */
+    public List<Message> getMessagesBefore(int account_id, long before_epoch, int before_message_id, int limit) {
+        Timeline timeline = timelineFor(account_id);
+        timeline.lock.lock();
+        try {
+            int from = timeline.firstOlderThan(before_epoch, before_message_id);
+            int available = timeline.size - from;
+            if (available >= limit || timeline.complete) {
+                hits.increment();
+                return timeline.copy(from, Math.min(limit, available));
+            }
+        } finally {
+            timeline.lock.unlock();
+        }
+        misses.increment();
+        return messageRepository.getMessagesFromUserBeforeTime(account_id, before_epoch, before_message_id, limit);
+    }
+
+    /**
+    * Adds a newly written message to its poster's timeline, if that timeline is loaded.
+    */
+    public void messageCreated(Message message) {
+        Timeline timeline = loadedTimeline(message.getPosted_by());
+        if (timeline != null) {
+            timeline.lock.lock();
+            try {
+                timeline.add(message);
+            } finally {
+                timeline.lock.unlock();
+            }
+        }
+    }
+
+    /**
+    * Replaces a message whose text was changed in its poster's timeline, if it is there.
+    */
+    public void messageUpdated(Message message) {
+        Timeline timeline = loadedTimeline(message.getPosted_by());
+        if (timeline != null) {
+            timeline.lock.lock();
+            try {
+                int index = timeline.indexOf(message.getMessage_id());
+                if (index >= 0) {
+                    timeline.entries[index] = message;
+                }
+            } finally {
+                timeline.lock.unlock();
+            }
+        }
+    }
+
+    /**
+    * Removes a deleted message from its poster's timeline, if it is there.
+    */
+    public void messageDeleted(Message message) {
+        Timeline timeline = loadedTimeline(message.getPosted_by());
+        if (timeline != null) {
+            timeline.lock.lock();
+            try {
+                timeline.remove(message.getMessage_id());
+            } finally {
+                timeline.lock.unlock();
+            }
+        }
+    }
+
+    /**
+    * @return the number of accounts with a loaded timeline.
+    */
+    public int size() {
+        synchronized (timelines) {
+            return timelines.size();
+        }
+    }
+
+    /**
+    * @return the number of reads answered from memory.
+    */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+    * @return the number of reads that had to query the database because they reached past a timeline's end.
+    */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+    * @return the store's size and counters, keyed by name, for the stats endpoint.
+    */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", size());
+        stats.put("hits", getHitCount());
+        stats.put("misses", getMissCount());
+        return stats;
+    }
+
+    /**
+    * Returns the account's timeline, loading it first if needed. The new timeline is published locked, so a write
+    * that commits while it loads waits for the load and is then applied on top of it; adding a message that the load
+    * already read, or removing one it never saw, changes nothing.
+    *
+    * A load that fails is not kept: the timeline is taken out of the store before it is unlocked, empty and not
+    * complete, so whoever already holds it reads from the repository, and the next read loads it again.
+    *
+    * @throws DAO.DataAccessException if the timeline had to be loaded and the load failed.
+    */
+    private Timeline timelineFor(int account_id) {
+        Timeline created;
+        synchronized (timelines) {
+            Timeline timeline = timelines.get(account_id);
+            if (timeline != null) {
+                return timeline;
+            }
+            created = new Timeline(capacity);
+            created.lock.lock();
+            timelines.put(account_id, created);
+        }
+        boolean loaded = false;
+        try {
+            List<Message> newest = messageRepository.getMessagesFromUserBeforeTime(
+                    account_id, Long.MAX_VALUE, Integer.MAX_VALUE, capacity + 1);
+            created.complete = newest.size() <= capacity;
+            created.size = Math.min(newest.size(), capacity);
+            for (int i = 0; i < created.size; i++) {
+                created.entries[i] = newest.get(i);
+            }
+            loaded = true;
+        } finally {
+            if (!loaded) {
+                synchronized (timelines) {
+                    timelines.remove(account_id, created);
+                }
+            }
+            created.lock.unlock();
+        }
+        return created;
+    }
+
+    /**
+    * @return the account's timeline if it is loaded (or loading), or null; a write to an account that has no timeline
+    * is seen by the query that loads one later.
+    */
+    private Timeline loadedTimeline(int account_id) {
+        synchronized (timelines) {
+            return timelines.get(account_id);
+        }
+    }
+
+    private static final class Timeline {
+        final ReentrantLock lock = new ReentrantLock();
+        /**
+         * The account's newest messages, newest first, in entries[0] to entries[size - 1]. One slot more than the
+         * capacity, so an add can insert before it drops the oldest.
+         */
+        final Message[] entries;
+        final int capacity;
+        int size;
+        /**
+         * Whether the timeline holds every message of the account, rather than just the newest capacity of them.
+         */
+        boolean complete;
+
+        Timeline(int capacity) {
+            this.entries = new Message[capacity + 1];
+            this.capacity = capacity;
+        }
+
+        /**
+         * @return the index of the first message older than the given position, or size if there is none.
+         */
+        int firstOlderThan(long epoch, int message_id) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (isOlder(entries[middle], epoch, message_id)) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            return low;
+        }
+
+        void add(Message message) {
+            remove(message.getMessage_id());
+            int position = firstOlderThan(message.getTime_posted_epoch(), message.getMessage_id());
+            if (!complete && position == size) {
+                return; // older than everything held, and there may be messages between them that are not held
+            }
+            System.arraycopy(entries, position, entries, position + 1, size - position);
+            entries[position] = message;
+            size++;
+            if (size > capacity) {
+                entries[--size] = null;
+                complete = false;
+            }
+        }
+
+        void remove(int message_id) {
+            int index = indexOf(message_id);
+            if (index >= 0) {
+                System.arraycopy(entries, index + 1, entries, index, size - index - 1);
+                entries[--size] = null;
+            }
+        }
+
+        int indexOf(int message_id) {
+            for (int i = 0; i < size; i++) {
+                if (entries[i].getMessage_id() == message_id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        List<Message> copy(int from, int count) {
+            return new ArrayList<>(Arrays.asList(entries).subList(from, from + count));
+        }
+
+        private static boolean isOlder(Message message, long epoch, int message_id) {
+            return message.getTime_posted_epoch() < epoch
+                    || (message.getTime_posted_epoch() == epoch && message.getMessage_id() < message_id);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package Service;
+
+/**
+ * Thrown when a message is updated or deleted on condition that it is at a version it is no longer at, because
+ * another client changed it since the version was read.
+ */
+public class VersionConflictException extends RuntimeException {
+    private final int currentVersion;
+
+    public VersionConflictException(int message_id, int currentVersion) {
+        super("message " + message_id + " is at version " + currentVersion);
+        this.currentVersion = currentVersion;
+    }
+
+    /**
+    * @return the version the message is at now.
+    */
+    public int getCurrentVersion() {
+        return currentVersion;
+    }
+}
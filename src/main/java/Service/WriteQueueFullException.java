@@ -0,0 +1,12 @@
+package Service;
+
+/**
+ * Thrown when a write cannot be accepted because the write-behind queue is full. The caller should be told to retry
+ * later rather than that the request was invalid.
+ */
+public class WriteQueueFullException extends RuntimeException {
+
+    public WriteQueueFullException(String message) {
+        super(message);
+    }
+}
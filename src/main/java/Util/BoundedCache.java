@@ -0,0 +1,246 @@
+package Util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A thread safe, size bounded, read-through cache with optional expiry.
+ *
+ * Keys are spread over a fixed number of segments, each an access ordered LinkedHashMap guarded by its own lock, so
+ * threads working on different keys rarely contend. Each segment evicts its least recently used entry once it is over
+ * its share of the maximum size, and entries older than the time to live are treated as missing.
+ *
+ * A loader that returns null has that result cached too, so repeated lookups of a key that does not exist do not
+ * reach the database either. Callers that create the missing value must invalidate the key. A loader that throws has
+ * nothing cached, so a failed lookup is never remembered as a missing value.
+ */
+public class BoundedCache<K, V> {
+
+    /**
+     * Stands in for a cached null so that absent and not-yet-loaded keys can be told apart.
+     */
+    private static final Object NULL_VALUE = new Object();
+
+    private final Segment<K>[] segments;
+    private final long ttlNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maximumSize The most entries the cache will hold.
+     * @param ttl How long an entry stays valid after it was loaded or put, or 0 for no expiry.
+     * @param unit The unit of ttl.
+     */
+    @SuppressWarnings("unchecked")
+    public BoundedCache(int maximumSize, long ttl, TimeUnit unit) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        int segmentCount = Integer.highestOneBit(Math.min(16, maximumSize));
+        int segmentCapacity = (maximumSize + segmentCount - 1) / segmentCount;
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<>(segmentCapacity, evictions);
+        }
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * Returns the cached value for the key, calling the loader and caching its result on a miss. The loader runs
+     * outside the segment lock; if the key is invalidated while it runs, its result is returned but not cached, so a
+     * concurrent write is never hidden by a stale load.
+     *
+     * @param key The key to look up.
+     * @param loader Loads the value from the backing store; may return null. Whatever it throws is passed on, and
+     *               nothing is cached.
+     * @return the cached or loaded value, possibly null.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        Segment<K> segment = segmentFor(key);
+        long now = System.nanoTime();
+        long generation;
+        synchronized (segment) {
+            Entry entry = segment.map.get(key);
+            if (entry != null && !isExpired(entry, now)) {
+                hits.increment();
+                return entry.value == NULL_VALUE ? null : (V) entry.value;
+            }
+            if (entry != null) {
+                segment.map.remove(key);
+            }
+            generation = segment.generation;
+        }
+        misses.increment();
+
+        V loaded = loader.apply(key);
+        synchronized (segment) {
+            if (segment.generation == generation) {
+                segment.put(key, new Entry(loaded == null ? NULL_VALUE : loaded, System.nanoTime()));
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Returns the cached value for the key without loading it.
+     *
+     * @return the cached value, or null if the key is not cached (or is cached as absent).
+     */
+    @SuppressWarnings("unchecked")
+    public V getIfPresent(K key) {
+        Segment<K> segment = segmentFor(key);
+        synchronized (segment) {
+            Entry entry = segment.map.get(key);
+            if (entry != null && !isExpired(entry, System.nanoTime()) && entry.value != NULL_VALUE) {
+                hits.increment();
+                return (V) entry.value;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Caches a value, replacing whatever was cached for the key.
+     */
+    public void put(K key, V value) {
+        Segment<K> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.generation++;
+            segment.put(key, new Entry(value == null ? NULL_VALUE : value, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Removes the key, so the next lookup goes to the loader.
+     */
+    public void invalidate(K key) {
+        Segment<K> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.generation++;
+            segment.map.remove(key);
+        }
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public void invalidateAll() {
+        for (Segment<K> segment : segments) {
+            synchronized (segment) {
+                segment.generation++;
+                segment.map.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries currently cached, including expired entries not yet removed.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K> segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the fraction of lookups answered from the cache, or 0 if there have been none.
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    /**
+     * @return the cache's size and counters, keyed by name, for the stats endpoint.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", size());
+        stats.put("hits", getHitCount());
+        stats.put("misses", getMissCount());
+        stats.put("evictions", getEvictionCount());
+        stats.put("hitRate", getHitRate());
+        return stats;
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return ttlNanos > 0 && now - entry.writtenAt >= ttlNanos;
+    }
+
+    private Segment<K> segmentFor(Object key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return segments[hash & (segments.length - 1)];
+    }
+
+    @Override
+    public String toString() {
+        return "BoundedCache{" +
+                "size=" + size() +
+                ", hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", evictions=" + getEvictionCount() +
+                ", hitRate=" + String.format("%.3f", getHitRate()) +
+                '}';
+    }
+
+    private static final class Entry {
+        final Object value;
+        final long writtenAt;
+
+        Entry(Object value, long writtenAt) {
+            this.value = value;
+            this.writtenAt = writtenAt;
+        }
+    }
+
+    private static final class Segment<K> {
+        final LinkedHashMap<K, Entry> map = new LinkedHashMap<>(16, 0.75f, true);
+        final int capacity;
+        final LongAdder evictions;
+        /**
+         * Bumped on every write or invalidation, so a load that started before it knows its result may be stale.
+         */
+        long generation;
+
+        Segment(int capacity, LongAdder evictions) {
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        void put(K key, Entry entry) {
+            map.put(key, entry);
+            Iterator<Map.Entry<K, Entry>> eldestFirst = map.entrySet().iterator();
+            while (map.size() > capacity && eldestFirst.hasNext()) {
+                eldestFirst.next();
+                eldestFirst.remove();
+                evictions.increment();
+            }
+        }
+    }
+}
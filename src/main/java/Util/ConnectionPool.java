@@ -0,0 +1,495 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of physical JDBC connections. Callers borrow a connection with getConnection() and hand it back by
+ * calling close() on it, which returns the physical connection to the pool instead of closing it.
+ *
+ * The pool never holds more than maxSize physical connections. A borrower that finds the pool exhausted waits up to
+ * acquireTimeoutMillis before getting an SQLException. Idle connections above minSize are closed once they have been
+ * idle for idleTimeoutMillis, and any connection borrowed for longer than leakThresholdMillis is reported together
+ * with the stack trace of the code that borrowed it.
+ *
+ * Each physical connection keeps its own StatementCache, so prepareStatement() on a borrowed connection returns an
+ * already prepared statement when the same SQL was prepared on that connection before.
+ */
+public class ConnectionPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
+
+    private final DataSource dataSource;
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final int statementCacheSize;
+
+    /**
+     * One permit per connection that may still be handed out, so acquiring a permit is what bounds the pool.
+     */
+    private final Semaphore permits;
+    /**
+     * Idle physical connections, most recently returned first so that the least used ones age out.
+     */
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    /**
+     * Connections currently borrowed, used for leak detection.
+     */
+    private final Map<Lease, Boolean> leased = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService housekeeper;
+
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final AtomicInteger peakActive = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong leaksDetected = new AtomicLong();
+    private final LatencyHistogram waitTimes = new LatencyHistogram();
+    private final StatementStats statementStats = new StatementStats();
+
+    public ConnectionPool(DataSource dataSource, int minSize, int maxSize, long acquireTimeoutMillis,
+                          long idleTimeoutMillis, long leakThresholdMillis, int statementCacheSize) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.dataSource = dataSource;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, Math.min(idleTimeoutMillis, leakThresholdMillis) / 2);
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new physical connection if none is idle and the pool is not yet
+     * at maxSize.
+     *
+     * @return a connection whose close() method returns it to the pool.
+     * @throws SQLException if no connection became available within the acquisition timeout, or the database refused
+     * a new connection.
+     */
+    public Connection getConnection() throws SQLException {
+        return getConnection(null);
+    }
+
+    /**
+     * Borrows a connection like getConnection(), and records how long it is held, from when it is handed out until
+     * it is closed.
+     *
+     * @param holdTimes Where the time the connection was held is recorded, or null not to record it.
+     * @return a connection whose close() method returns it to the pool.
+     * @throws SQLException if no connection became available within the acquisition timeout, or the database refused
+     * a new connection.
+     */
+    public Connection getConnection(LatencyHistogram holdTimes) throws SQLException {
+        long start = System.nanoTime();
+        waiting.incrementAndGet();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a pooled connection", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+        long waited = System.nanoTime() - start;
+        if (!acquired) {
+            timeouts.incrementAndGet();
+            throw new SQLException("Timed out after " + acquireTimeoutMillis + "ms waiting for a pooled connection ("
+                    + maxSize + " in use)");
+        }
+        recordWait(waited);
+
+        PooledConnection pooled;
+        try {
+            pooled = takeIdleOrOpen();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+
+        Lease lease = new Lease(pooled, new Throwable("Connection borrowed here"), holdTimes);
+        leased.put(lease, Boolean.TRUE);
+        peakActive.accumulateAndGet(leased.size(), Math::max);
+        return (Connection) Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(), new Class<?>[] { Connection.class }, lease);
+    }
+
+    private PooledConnection takeIdleOrOpen() throws SQLException {
+        PooledConnection candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            if (isUsable(candidate.physical)) {
+                return candidate;
+            }
+            discard(candidate);
+        }
+        return open();
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection physical = dataSource.getConnection();
+        totalConnections.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    private boolean isUsable(Connection connection) {
+        try {
+            return !connection.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void recordWait(long waitedNanos) {
+        acquisitions.incrementAndGet();
+        totalWaitNanos.addAndGet(waitedNanos);
+        maxWaitNanos.accumulateAndGet(waitedNanos, Math::max);
+        waitTimes.record(waitedNanos);
+    }
+
+    /**
+     * Returns a borrowed physical connection to the idle deque, resetting any per-session state a borrower may have
+     * changed.
+     */
+    private void release(Lease lease) {
+        if (lease.holdTimes != null) {
+            lease.holdTimes.recordSince(lease.borrowedAtNanos);
+        }
+        leased.remove(lease);
+        PooledConnection pooled = lease.pooled;
+        try {
+            lease.closeStatements();
+            if (pooled.statements != null) {
+                pooled.statements.returnAll();
+            }
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            pooled.idleSince = System.currentTimeMillis();
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        if (pooled.statements != null) {
+            pooled.statements.closeAll();
+        }
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            LOGGER.debug("Failed to close discarded connection", e);
+        }
+    }
+
+    /**
+     * Runs periodically to close connections that have been idle too long and to report borrowed connections that
+     * look leaked.
+     */
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        Iterator<PooledConnection> oldestFirst = idle.descendingIterator();
+        while (oldestFirst.hasNext() && totalConnections.get() > minSize) {
+            PooledConnection candidate = oldestFirst.next();
+            if (now - candidate.idleSince >= idleTimeoutMillis && idle.remove(candidate)) {
+                discard(candidate);
+            }
+        }
+        for (Lease lease : leased.keySet()) {
+            if (!lease.reported && now - lease.borrowedAt >= leakThresholdMillis) {
+                lease.reported = true;
+                leaksDetected.incrementAndGet();
+                LOGGER.warn("Connection held for more than {}ms without being closed; possible leak",
+                        leakThresholdMillis, lease.borrowedBy);
+            }
+        }
+    }
+
+    /**
+     * Opens connections up to minSize so the first requests do not pay the connection cost.
+     */
+    public void warmUp() {
+        while (totalConnections.get() < minSize) {
+            try {
+                idle.offerLast(open());
+            } catch (SQLException e) {
+                LOGGER.warn("Failed to pre-open pooled connection", e);
+                return;
+            }
+        }
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of connections currently borrowed.
+     */
+    public int getActiveConnections() {
+        return leased.size();
+    }
+
+    /**
+     * @return the number of open connections waiting in the pool to be borrowed.
+     */
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    /**
+     * @return the number of physical connections currently open, borrowed or idle.
+     */
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    /**
+     * @return the highest number of connections that were borrowed at the same time.
+     */
+    public int getPeakActiveConnections() {
+        return peakActive.get();
+    }
+
+    /**
+     * @return the number of threads currently blocked waiting for a connection.
+     */
+    public int getWaitingThreads() {
+        return waiting.get();
+    }
+
+    public long getAcquisitionCount() {
+        return acquisitions.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    public long getLeakCount() {
+        return leaksDetected.get();
+    }
+
+    /**
+     * @return the total time borrowers have spent waiting for a connection, in nanoseconds.
+     */
+    public long getTotalWaitNanos() {
+        return totalWaitNanos.get();
+    }
+
+    /**
+     * @return the longest time a single borrower has waited for a connection, in nanoseconds.
+     */
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    /**
+     * @return how long borrowers have waited for a connection.
+     */
+    public LatencyHistogram getWaitTimes() {
+        return waitTimes;
+    }
+
+    /**
+     * @return the number of prepareStatement() calls served from a connection's statement cache.
+     */
+    public long getStatementCacheHits() {
+        return statementStats.hits.get();
+    }
+
+    /**
+     * @return the number of prepareStatement() calls that had to prepare a new statement.
+     */
+    public long getStatementCacheMisses() {
+        return statementStats.misses.get();
+    }
+
+    /**
+     * @return the number of statements dropped from a statement cache to stay within its capacity.
+     */
+    public long getStatementCacheEvictions() {
+        return statementStats.evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        long count = acquisitions.get();
+        return "ConnectionPool{" +
+                "active=" + getActiveConnections() +
+                ", idle=" + getIdleConnections() +
+                ", total=" + getTotalConnections() +
+                ", max=" + maxSize +
+                ", peakActive=" + getPeakActiveConnections() +
+                ", waiting=" + getWaitingThreads() +
+                ", acquisitions=" + count +
+                ", timeouts=" + getTimeoutCount() +
+                ", meanWaitMicros=" + (count == 0 ? 0 : totalWaitNanos.get() / count / 1000) +
+                ", maxWaitMicros=" + maxWaitNanos.get() / 1000 +
+                ", leaks=" + getLeakCount() +
+                ", statementCacheHits=" + getStatementCacheHits() +
+                ", statementCacheMisses=" + getStatementCacheMisses() +
+                '}';
+    }
+
+    /**
+     * Statement cache counters shared by every connection in the pool.
+     */
+    static final class StatementStats {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+    }
+
+    /**
+     * A physical connection together with the statements cached on it.
+     */
+    private final class PooledConnection {
+        final Connection physical;
+        final StatementCache statements;
+        volatile long idleSince = System.currentTimeMillis();
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statements = statementCacheSize > 0
+                    ? new StatementCache(physical, statementCacheSize, statementStats)
+                    : null;
+        }
+    }
+
+    /**
+     * The handler behind every borrowed connection proxy. It forwards calls to the physical connection until the
+     * borrower closes it, at which point the physical connection goes back to the pool and the proxy becomes unusable.
+     */
+    private final class Lease implements InvocationHandler {
+        final PooledConnection pooled;
+        final Connection physical;
+        final Throwable borrowedBy;
+        final long borrowedAt = System.currentTimeMillis();
+        final long borrowedAtNanos = System.nanoTime();
+        final LatencyHistogram holdTimes;
+        volatile boolean reported;
+        /**
+         * Set once by close(). An atomic flag rather than a synchronized block, so that a virtual thread returning the
+         * connection is not pinned to its carrier while release() talks to the database.
+         */
+        private final AtomicBoolean closed = new AtomicBoolean();
+        /**
+         * Statements the borrower opened, closed on its behalf when the connection goes back to the pool.
+         */
+        private final List<Statement> statements = new ArrayList<>();
+
+        Lease(PooledConnection pooled, Throwable borrowedBy, LatencyHistogram holdTimes) {
+            this.pooled = pooled;
+            this.physical = pooled.physical;
+            this.borrowedBy = borrowedBy;
+            this.holdTimes = holdTimes;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (closed.compareAndSet(false, true)) {
+                        release(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed.get() || physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + physical + "]";
+                default:
+                    if (closed.get()) {
+                        throw new SQLException("Connection has already been returned to the pool");
+                    }
+                    if (pooled.statements != null && isCacheablePrepare(method, args)) {
+                        return pooled.statements.prepare((String) args[0], args.length == 2 ? (Integer) args[1] : -1);
+                    }
+                    Object result;
+                    try {
+                        result = method.invoke(physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    if (result instanceof Statement) {
+                        synchronized (this) {
+                            statements.add((Statement) result);
+                        }
+                    }
+                    return result;
+            }
+        }
+
+        /**
+         * Only prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys) are cached; the overloads that
+         * change cursor type, holdability or key columns are rare here and are prepared fresh.
+         */
+        private boolean isCacheablePrepare(Method method, Object[] args) {
+            return method.getName().equals("prepareStatement")
+                    && (args.length == 1 || (args.length == 2 && args[1] instanceof Integer));
+        }
+
+        void closeStatements() throws SQLException {
+            List<Statement> open;
+            synchronized (this) {
+                open = new ArrayList<>(statements);
+                statements.clear();
+            }
+            for (Statement statement : open) {
+                statement.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package Util;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown when no pooled connection could be borrowed, most often because every connection stayed in use for the whole
+ * acquisition timeout. Under overload this is expected, so the caller should be told to retry later rather than that
+ * the request was invalid or that the server failed.
+ */
+public class ConnectionUnavailableException extends RuntimeException {
+
+    public ConnectionUnavailableException(SQLException cause) {
+        super(cause.getMessage(), cause);
+    }
+}
@@ -1,22 +1,28 @@
 package Util;
 
-import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 
 import org.h2.jdbcx.JdbcDataSource;
 import org.h2.tools.RunScript;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * The ConnectionUtil class will be utilized to create an active connection to
  * our database. This class utilizes the singleton design pattern. We will be
  * utilizing an in-memory called h2database for the sql demos.
  *
- * DO NOT CHANGE ANYTHING IN THIS CLASS
+ * Connections are drawn from a bounded ConnectionPool, so every caller must
+ * close the connection it gets to hand it back to the pool. The pool can be
+ * sized with the socialmedia.pool.* system properties.
  */
 public class ConnectionUtil {
 
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionUtil.class);
+
 	/**
 	 * url will represent our connection string. Since this is an in-memory db, we
 	 * will represent a file location to store the data
@@ -32,30 +38,74 @@ public class ConnectionUtil {
 	private static String password = "sa";
 
 	/**
-	 * DataSource for pooling. Pooling enables the creation of multiple connections when connections are closed.
+	 * DataSource used by the pool to open physical connections.
 	 */
-	private static JdbcDataSource pool = new JdbcDataSource();
+	private static JdbcDataSource dataSource = new JdbcDataSource();
 
 	/**
-	 * static initialization block to establish credentials for DataSoure Pool
+	 * Bounded pool that every connection handed out by this class is borrowed from.
+	 */
+	private static ConnectionPool pool;
+
+	/**
+	 * static initialization block to establish credentials for the DataSource and size the pool
 	 */
 	static {
-		pool.setURL(url);
-		pool.setUser(username);
-		pool.setPassword(password);
+		dataSource.setURL(url);
+		dataSource.setUser(username);
+		dataSource.setPassword(password);
+
+		pool = new ConnectionPool(dataSource,
+				Integer.getInteger("socialmedia.pool.minSize", 2),
+				Integer.getInteger("socialmedia.pool.maxSize", 10),
+				Long.getLong("socialmedia.pool.acquireTimeoutMillis", 5000),
+				Long.getLong("socialmedia.pool.idleTimeoutMillis", 300000),
+				Long.getLong("socialmedia.pool.leakThresholdMillis", 30000),
+				Integer.getInteger("socialmedia.pool.statementCacheSize", 64));
+		pool.warmUp();
 	}
 
 	/**
-	 * @return an active connection to the database
+	 * @return an active connection to the database, borrowed from the pool. Closing it returns it to the pool.
+	 * @throws ConnectionUnavailableException if no connection could be borrowed within the acquisition timeout.
 	 */
 	public static Connection getConnection() {
 		try {
 			return pool.getConnection();
 		} catch (SQLException e) {
-			e.printStackTrace();
+			throw unavailable(e);
+		}
+	}
+
+	/**
+	 * Borrows a connection like getConnection(), and records how long it is held under the given operation in
+	 * Metrics, from when it is handed out until it is closed.
+	 *
+	 * @param operation The DAO method borrowing the connection, as "DAO.method".
+	 * @return an active connection to the database, borrowed from the pool. Closing it returns it to the pool.
+	 * @throws ConnectionUnavailableException if no connection could be borrowed within the acquisition timeout.
+	 */
+	public static Connection getConnection(String operation) {
+		try {
+			return pool.getConnection(Metrics.getQueryTimes(operation));
+		} catch (SQLException e) {
+			throw unavailable(e);
 		}
+	}
+
+	/**
+	 * The pool already counts its timeouts, so each one is only logged as a warning, without a stack trace.
+	 */
+	private static ConnectionUnavailableException unavailable(SQLException e) {
+		LOGGER.warn("No database connection available: {}", e.getMessage());
+		return new ConnectionUnavailableException(e);
+	}
 
-		return null;
+	/**
+	 * @return the pool behind getConnection(), for reading occupancy and wait-time metrics.
+	 */
+	public static ConnectionPool getPool() {
+		return pool;
 	}
 
 	/**
@@ -64,11 +114,11 @@ public class ConnectionUtil {
 	 * file in resources. This will be performed before every test.
 	 */
 	public static void resetTestDatabase() {
-		try {
-			FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql");
-			RunScript.execute(getConnection(), sqlReader);
-		} catch (SQLException | FileNotFoundException e) {
-			e.printStackTrace();
+		try (Connection connection = getConnection();
+				FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql")) {
+			RunScript.execute(connection, sqlReader);
+		} catch (SQLException | IOException e) {
+			LOGGER.error("Could not reset the database", e);
 		}
 	}
 }
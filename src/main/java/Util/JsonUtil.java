@@ -0,0 +1,42 @@
+package Util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+
+import io.javalin.json.JavalinJackson;
+import io.javalin.json.JsonMapper;
+
+/**
+ * The JsonUtil class holds the single ObjectMapper used by the whole application. An ObjectMapper is thread safe and
+ * expensive to build, and it caches the serializers it creates for each class, so sharing one instance means the
+ * Account and Message serializers are only ever built once.
+ *
+ * The Blackbird module replaces Jackson's reflective access to the models' getters and setters with generated lambdas.
+ */
+public class JsonUtil {
+
+	/**
+	 * The application-wide mapper.
+	 */
+	private static final ObjectMapper mapper = new ObjectMapper()
+			.registerModule(new BlackbirdModule());
+
+	/**
+	 * Javalin's view of the same mapper, so ctx.json() and ctx.bodyAsClass() share its serializer caches.
+	 */
+	private static final JsonMapper javalinMapper = new JavalinJackson(mapper);
+
+	/**
+	 * @return the shared ObjectMapper.
+	 */
+	public static ObjectMapper getObjectMapper() {
+		return mapper;
+	}
+
+	/**
+	 * @return a Javalin JsonMapper backed by the shared ObjectMapper.
+	 */
+	public static JsonMapper getJsonMapper() {
+		return javalinMapper;
+	}
+}
@@ -0,0 +1,114 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds, laid out the way HdrHistogram lays out its buckets: every power of two is
+ * split into SUB_BUCKETS equal buckets, so any recorded value is reported within 1/SUB_BUCKETS (under 2%) of itself
+ * whether it is a microsecond or a minute, in a fixed array of counts.
+ *
+ * Recording is an atomic increment of one count plus two LongAdder additions; it never takes a lock or allocates, so
+ * request threads can record on every call. Reading percentiles copies the counts, so a snapshot taken while other
+ * threads record may be off by the few values recorded during the copy. Durations longer than MAX_NANOS are counted
+ * as MAX_NANOS.
+ */
+public class LatencyHistogram {
+
+    /**
+    * Buckets per power of two, and the number of values below SUB_BUCKETS * 2 that each get a bucket of their own.
+    */
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+    * The longest duration told apart from longer ones, about 68 seconds.
+    */
+    public static final long MAX_NANOS = (1L << 36) - 1;
+    private static final int BUCKETS = bucketOf(MAX_NANOS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    /**
+    * @param nanos A duration in nanoseconds; negative durations are counted as 0.
+    */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_NANOS);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sumNanos.add(value);
+    }
+
+    /**
+    * Records the time elapsed since start.
+    *
+    * @param startNanos A System.nanoTime() reading taken when the timed work began.
+    */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+    * @return the number of durations recorded.
+    */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+    * @return the sum of every duration recorded, in nanoseconds.
+    */
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+    * @param quantiles Quantiles between 0 and 1, in increasing order.
+    * @return for each quantile, the duration in nanoseconds that that fraction of the recorded durations did not
+    * exceed, from one copy of the counts so the results agree with each other; 0 for each if nothing was recorded.
+    */
+    public long[] getValuesAtQuantiles(double... quantiles) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            snapshot[bucket] = counts.get(bucket);
+            total += snapshot[bucket];
+        }
+        long[] values = new long[quantiles.length];
+        if (total == 0) {
+            return values;
+        }
+        int bucket = 0;
+        long seen = snapshot[0];
+        for (int i = 0; i < quantiles.length; i++) {
+            long rank = Math.max(1, (long) Math.ceil(quantiles[i] * total));
+            while (seen < rank && bucket < BUCKETS - 1) {
+                seen += snapshot[++bucket];
+            }
+            values[i] = highestValueIn(bucket);
+        }
+        return values;
+    }
+
+    /**
+    * Values below 2 * SUB_BUCKETS have a bucket each; above that, a value whose highest set bit is above the
+    * SUB_BUCKET_BITS + 1 kept bits shares its bucket with the values that differ from it only in the bits below them.
+    */
+    private static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long highestValueIn(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
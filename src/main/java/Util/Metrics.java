@@ -0,0 +1,285 @@
+package Util;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * The application's request, query, connection pool and JVM metrics, written out in the Prometheus text format.
+ *
+ * Like ConnectionUtil, there is one set of metrics per JVM, so the DAOs can time their queries without being handed
+ * anything. Recording only increments counters in histograms and LongAdders that already exist; the maps that find
+ * them are only written the first time a route, status or query is seen.
+ *
+ * Latencies are Prometheus summaries with quantiles 0.5, 0.99 and 0.999 over everything recorded since the server
+ * started, plus the _sum and _count that rate() needs for a mean over any window.
+ */
+public class Metrics {
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    /**
+    * Request durations and counts by method and then route. Nested rather than keyed by "method route" so that
+    * recording a request builds no key.
+    */
+    private static final Map<String, Map<String, RouteMetrics>> requests = new ConcurrentHashMap<>();
+    /**
+    * How long each DAO method held its connection, by "DAO.method".
+    */
+    private static final Map<String, LatencyHistogram> queryTimes = new ConcurrentHashMap<>();
+    /**
+    * How many statements of each DAO method failed, by "DAO.method".
+    */
+    private static final Map<String, LongAdder> queryErrors = new ConcurrentHashMap<>();
+    /**
+    * Bytes allocated in the young generation up to the last collection, from the collections' own before and after
+    * sizes, and what the young generation held when that collection ended.
+    */
+    private static final LongAdder allocatedBeforeLastGC = new LongAdder();
+    private static volatile long youngUsedAfterLastGC;
+
+    static {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                    String type = notification.getType();
+                    if (type.equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                        collected(GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()));
+                    }
+                }, null, null);
+            }
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+    * @param method The request's HTTP method.
+    * @param route The route that handled the request, as registered, so that every message_id shares one series.
+    * @param status The response status.
+    * @param nanos How long the request took.
+    */
+    public static void recordRequest(String method, String route, int status, long nanos) {
+        RouteMetrics metrics = requests.computeIfAbsent(method, m -> new ConcurrentHashMap<>())
+                .computeIfAbsent(route, r -> new RouteMetrics());
+        metrics.times.record(nanos);
+        metrics.count(status);
+    }
+
+    /**
+    * @param operation The DAO method, as "DAO.method".
+    * @return the histogram the operation's query times are recorded in.
+    */
+    public static LatencyHistogram getQueryTimes(String operation) {
+        return queryTimes.computeIfAbsent(operation, k -> new LatencyHistogram());
+    }
+
+    /**
+    * Counts a DAO method whose statement failed with an SQLException.
+    *
+    * @param operation The DAO method, as "DAO.method".
+    */
+    public static void recordQueryError(String operation) {
+        queryErrors.computeIfAbsent(operation, k -> new LongAdder()).increment();
+    }
+
+    /**
+    * @return every metric in the Prometheus text exposition format, version 0.0.4.
+    */
+    public static String toPrometheus() {
+        StringBuilder out = new StringBuilder(8192);
+
+        Map<String, Map<String, RouteMetrics>> routesByMethod = new TreeMap<>();
+        requests.forEach((method, routes) -> routesByMethod.put(method, new TreeMap<>(routes)));
+        header(out, "http_requests_total", "counter", "Requests served, by method, route and status.");
+        routesByMethod.forEach((method, routes) -> routes.forEach((route, metrics) -> {
+            for (int status = 0; status < metrics.statuses.length(); status++) {
+                LongAdder count = metrics.statuses.get(status);
+                if (count != null) {
+                    sample(out, "http_requests_total",
+                            labels("method", method, "route", route, "status", Integer.toString(status)), count.sum());
+                }
+            }
+        }));
+        header(out, "http_request_duration_seconds", "summary",
+                "Time from a request arriving to its response being sent.");
+        routesByMethod.forEach((method, routes) -> routes.forEach((route, metrics) ->
+                summary(out, "http_request_duration_seconds", metrics.times, "method", method, "route", route)));
+        header(out, "db_query_duration_seconds", "summary",
+                "Time each DAO method held its connection, by DAO method.");
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(queryTimes).entrySet()) {
+            summary(out, "db_query_duration_seconds", entry.getValue(), "operation", entry.getKey());
+        }
+        header(out, "db_query_errors_total", "counter", "Statements that failed, by DAO method.");
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(queryErrors).entrySet()) {
+            sample(out, "db_query_errors_total", labels("operation", entry.getKey()), entry.getValue().sum());
+        }
+
+        writePool(out, ConnectionUtil.getPool());
+        writeJvm(out);
+        return out.toString();
+    }
+
+    private static void writePool(StringBuilder out, ConnectionPool pool) {
+        header(out, "db_pool_connections", "gauge", "Pooled connections, by state.");
+        sample(out, "db_pool_connections", labels("state", "active"), pool.getActiveConnections());
+        sample(out, "db_pool_connections", labels("state", "idle"), pool.getIdleConnections());
+        gauge(out, "db_pool_connections_max", "The most connections the pool opens.", pool.getMaxSize());
+        gauge(out, "db_pool_waiting_threads", "Threads waiting for a connection.", pool.getWaitingThreads());
+        counter(out, "db_pool_acquisitions_total", "Connections handed out.", pool.getAcquisitionCount());
+        counter(out, "db_pool_timeouts_total", "Borrowers that gave up waiting for a connection.",
+                pool.getTimeoutCount());
+        counter(out, "db_pool_leaks_total", "Connections held past the leak threshold.", pool.getLeakCount());
+        header(out, "db_pool_wait_seconds", "summary", "Time borrowers waited for a connection.");
+        summary(out, "db_pool_wait_seconds", pool.getWaitTimes());
+        counter(out, "db_statement_cache_hits_total", "Statements reused from a connection's statement cache.",
+                pool.getStatementCacheHits());
+        counter(out, "db_statement_cache_misses_total", "Statements that had to be prepared.",
+                pool.getStatementCacheMisses());
+    }
+
+    private static void writeJvm(StringBuilder out) {
+        header(out, "jvm_gc_collections_total", "counter", "Garbage collections, by collector.");
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sample(out, "jvm_gc_collections_total", labels("gc", collector.getName()), collector.getCollectionCount());
+        }
+        header(out, "jvm_gc_collection_seconds_total", "counter", "Time spent in garbage collection, by collector.");
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sample(out, "jvm_gc_collection_seconds_total", labels("gc", collector.getName()),
+                    collector.getCollectionTime() / 1e3);
+        }
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        header(out, "jvm_memory_heap_bytes", "gauge", "Heap memory, used, committed by the JVM, and at most.");
+        sample(out, "jvm_memory_heap_bytes", labels("kind", "used"), heap.getUsed());
+        sample(out, "jvm_memory_heap_bytes", labels("kind", "committed"), heap.getCommitted());
+        sample(out, "jvm_memory_heap_bytes", labels("kind", "max"), heap.getMax());
+
+        long youngUsed = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (isYoungGeneration(pool.getName())) {
+                youngUsed += pool.getUsage().getUsed();
+            }
+        }
+        counter(out, "jvm_allocated_bytes_total", "Bytes allocated in the young generation.",
+                allocatedBeforeLastGC.sum() + Math.max(0, youngUsed - youngUsedAfterLastGC));
+        gauge(out, "jvm_threads_live", "Live threads.", ManagementFactory.getThreadMXBean().getThreadCount());
+    }
+
+    /**
+    * Everything the young generation gained between the end of the previous collection and the start of this one was
+    * allocated in that time.
+    */
+    private static void collected(GarbageCollectionNotificationInfo info) {
+        long before = 0;
+        long after = 0;
+        for (Map.Entry<String, MemoryUsage> entry : info.getGcInfo().getMemoryUsageBeforeGc().entrySet()) {
+            if (isYoungGeneration(entry.getKey())) {
+                before += entry.getValue().getUsed();
+                after += info.getGcInfo().getMemoryUsageAfterGc().get(entry.getKey()).getUsed();
+            }
+        }
+        allocatedBeforeLastGC.add(Math.max(0, before - youngUsedAfterLastGC));
+        youngUsedAfterLastGC = after;
+    }
+
+    /**
+    * New objects go to Eden under the serial, parallel and G1 collectors; ZGC and Shenandoah have no young
+    * generation, so allocation is not counted under them.
+    */
+    private static boolean isYoungGeneration(String poolName) {
+        return poolName.contains("Eden");
+    }
+
+    /**
+    * A route's request durations, and its request counts indexed by status; a status outside 0-599, which no
+    * handler here sets, is counted as 0.
+    */
+    private static final class RouteMetrics {
+        final LatencyHistogram times = new LatencyHistogram();
+        final AtomicReferenceArray<LongAdder> statuses = new AtomicReferenceArray<>(600);
+
+        void count(int status) {
+            int index = status >= 0 && status < statuses.length() ? status : 0;
+            LongAdder count = statuses.get(index);
+            if (count == null) {
+                statuses.compareAndSet(index, null, new LongAdder());
+                count = statuses.get(index);
+            }
+            count.increment();
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, double value) {
+        header(out, name, "counter", help);
+        sample(out, name, labels(), value);
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        header(out, name, "gauge", help);
+        sample(out, name, labels(), value);
+    }
+
+    /**
+    * @param namesAndValues The series' labels, to which each quantile adds its own.
+    */
+    private static void summary(StringBuilder out, String name, LatencyHistogram histogram, String... namesAndValues) {
+        long[] values = histogram.getValuesAtQuantiles(QUANTILES);
+        String[] withQuantile = Arrays.copyOf(namesAndValues, namesAndValues.length + 2);
+        withQuantile[namesAndValues.length] = "quantile";
+        for (int i = 0; i < QUANTILES.length; i++) {
+            withQuantile[namesAndValues.length + 1] = Double.toString(QUANTILES[i]);
+            sample(out, name, labels(withQuantile), values[i] / 1e9);
+        }
+        sample(out, name + "_sum", labels(namesAndValues), histogram.getSumNanos() / 1e9);
+        sample(out, name + "_count", labels(namesAndValues), histogram.getCount());
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append(labels).append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    /**
+    * @param namesAndValues Label names each followed by its value.
+    * @return the labels in braces, with the values escaped, or nothing if there are none.
+    */
+    private static String labels(String... namesAndValues) {
+        if (namesAndValues.length == 0) {
+            return "";
+        }
+        StringBuilder labels = new StringBuilder("{");
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            if (i > 0) {
+                labels.append(',');
+            }
+            labels.append(namesAndValues[i]).append("=\"")
+                    .append(namesAndValues[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return labels.append('}').toString();
+    }
+}
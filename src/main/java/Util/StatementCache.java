@@ -0,0 +1,173 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An LRU cache of prepared statements for one physical connection, keyed by SQL text. A statement handed out by the
+ * cache is a proxy whose close() gives the statement back to the cache instead of closing it, so the next borrower of
+ * the same connection that prepares the same SQL skips the parse and plan step.
+ *
+ * A pooled connection is only ever used by one borrower at a time, so the cache itself is not synchronized; the pool
+ * hands connections between threads through a concurrent deque, which makes the cache state visible to the next
+ * borrower.
+ */
+class StatementCache {
+
+    private final Connection physical;
+    private final int capacity;
+    private final ConnectionPool.StatementStats stats;
+    private final LinkedHashMap<String, CachedStatement> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Statements checked out by the current borrower, given back when the connection returns to the pool.
+     */
+    private final List<CachedStatement> checkedOut = new ArrayList<>();
+
+    StatementCache(Connection physical, int capacity, ConnectionPool.StatementStats stats) {
+        this.physical = physical;
+        this.capacity = capacity;
+        this.stats = stats;
+    }
+
+    /**
+     * Returns a cached statement for the given SQL, preparing and caching a new one on a miss. If the statement for
+     * this SQL is already checked out (the same query prepared twice before the first was closed) an uncached
+     * statement is prepared instead.
+     *
+     * @param sql the SQL text to prepare.
+     * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS or Statement.NO_GENERATED_KEYS, or -1 when the caller
+     * did not ask for either.
+     */
+    PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys < 0 ? sql : autoGeneratedKeys + ":" + sql;
+        CachedStatement entry = entries.get(key);
+        if (entry != null && !entry.inUse) {
+            stats.hits.incrementAndGet();
+        } else if (entry != null) {
+            stats.misses.incrementAndGet();
+            return prepareUncached(sql, autoGeneratedKeys);
+        } else {
+            stats.misses.incrementAndGet();
+            entry = new CachedStatement(prepareUncached(sql, autoGeneratedKeys));
+            entries.put(key, entry);
+            evictOverflow();
+        }
+        entry.inUse = true;
+        checkedOut.add(entry);
+        return entry.proxy;
+    }
+
+    private PreparedStatement prepareUncached(String sql, int autoGeneratedKeys) throws SQLException {
+        return autoGeneratedKeys < 0 ? physical.prepareStatement(sql) : physical.prepareStatement(sql, autoGeneratedKeys);
+    }
+
+    /**
+     * Drops least recently used statements beyond capacity. A statement that is checked out is only closed once its
+     * borrower gives it back.
+     */
+    private void evictOverflow() throws SQLException {
+        Iterator<Map.Entry<String, CachedStatement>> eldestFirst = entries.entrySet().iterator();
+        while (entries.size() > capacity && eldestFirst.hasNext()) {
+            CachedStatement eldest = eldestFirst.next().getValue();
+            eldestFirst.remove();
+            stats.evictions.incrementAndGet();
+            if (eldest.inUse) {
+                eldest.evicted = true;
+            } else {
+                eldest.statement.close();
+            }
+        }
+    }
+
+    /**
+     * Gives back every statement the current borrower left checked out. Called when the connection returns to the
+     * pool.
+     */
+    void returnAll() throws SQLException {
+        for (CachedStatement entry : new ArrayList<>(checkedOut)) {
+            entry.giveBack();
+        }
+        checkedOut.clear();
+    }
+
+    /**
+     * Closes every cached statement. Called before the physical connection is closed.
+     */
+    void closeAll() {
+        for (CachedStatement entry : entries.values()) {
+            try {
+                entry.statement.close();
+            } catch (SQLException e) {
+                // the connection is being discarded anyway
+            }
+        }
+        entries.clear();
+        checkedOut.clear();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private final class CachedStatement implements InvocationHandler {
+        final PreparedStatement statement;
+        final PreparedStatement proxy;
+        boolean inUse;
+        boolean evicted;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(
+                    StatementCache.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, this);
+        }
+
+        void giveBack() throws SQLException {
+            if (!inUse) {
+                return;
+            }
+            inUse = false;
+            checkedOut.remove(this);
+            if (evicted) {
+                statement.close();
+            } else {
+                statement.clearParameters();
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    giveBack();
+                    return null;
+                case "isClosed":
+                    return !inUse || statement.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + statement + "]";
+                default:
+                    if (!inUse) {
+                        throw new SQLException("Statement has already been closed");
+                    }
+                    try {
+                        return method.invoke(statement, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
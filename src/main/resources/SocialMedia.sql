@@ -1,17 +1,40 @@
+drop table if exists follow;
 drop table if exists message;
 drop table if exists account;
+drop sequence if exists message_id_seq;
+drop sequence if exists account_id_seq;
+-- ids come from named sequences rather than identity columns: the DAOs reserve them a block at a time ahead of the
+-- insert (see DAO.IdAllocator), and inserts that leave the id out draw from the same sequence, so the two never collide
+create sequence account_id_seq;
+create sequence message_id_seq;
 create table account (
-    account_id int primary key auto_increment,
+    account_id int default next value for account_id_seq primary key,
     username varchar(255) unique,
     password varchar(255)
 );
 create table message (
-    message_id int primary key auto_increment,
+    message_id int default next value for message_id_seq primary key,
     posted_by int,
     message_text varchar(255),
     time_posted_epoch bigint,
+    -- 1 when created and one more on every update, for optimistic concurrency and ETags
+    version int default 1 not null,
     foreign key (posted_by) references  account(account_id)
 );
+-- a user's messages newest first, which also covers plain lookups by posted_by
+create index message_posted_by_time_idx on message (posted_by, time_posted_epoch desc);
+-- the timeline across all users, paged by time_posted_epoch
+create index message_time_idx on message (time_posted_epoch);
+-- follower_id follows followee_id; the primary key lists whom an account follows
+create table follow (
+    follower_id int,
+    followee_id int,
+    primary key (follower_id, followee_id),
+    foreign key (follower_id) references account(account_id),
+    foreign key (followee_id) references account(account_id)
+);
+-- an account's followers, for fanning out its new messages
+create index follow_followee_idx on follow (followee_id, follower_id);
 
 insert into account (username, password) values ('testuser1', 'password');
 insert into message (posted_by, message_text, time_posted_epoch) values (1,'test message 1',1669947792);
@@ -0,0 +1,127 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class CompressionTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * A list too long to fit in one packet is gzipped for a client that accepts gzip, and sent as it is otherwise; a
+     * short one is never compressed.
+     */
+    @Test
+    public void longListGzipped() throws IOException, InterruptedException {
+        HttpResponse<byte[]> shortResponse = get("/messages", "gzip");
+        Assert.assertFalse(shortResponse.headers().firstValue("Content-Encoding").isPresent());
+
+        for (int i = 0; i < 50; i++) {
+            post("message number " + i + " with some text to make the list longer");
+        }
+        HttpResponse<byte[]> gzipped = get("/messages", "gzip");
+        Assert.assertEquals(200, gzipped.statusCode());
+        Assert.assertEquals("gzip", gzipped.headers().firstValue("Content-Encoding").orElse(null));
+        List<Message> messages = objectMapper.readValue(
+                new GZIPInputStream(new ByteArrayInputStream(gzipped.body())), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(51, messages.size());
+
+        HttpResponse<byte[]> plain = get("/messages", null);
+        Assert.assertFalse(plain.headers().firstValue("Content-Encoding").isPresent());
+        Assert.assertEquals(messages, objectMapper.readValue(plain.body(), new TypeReference<List<Message>>(){}));
+        Assert.assertTrue(gzipped.body().length < plain.body().length);
+    }
+
+    /**
+     * A list sent with a weak ETag is answered with 304 and no body until a message is posted, and a user's list
+     * carries its own ETag.
+     */
+    @Test
+    public void unchangedListNotModified() throws IOException, InterruptedException {
+        HttpResponse<byte[]> first = get("/messages", null);
+        String etag = first.headers().firstValue("ETag").orElse(null);
+        Assert.assertNotNull(etag);
+        Assert.assertTrue(etag, etag.startsWith("W/\""));
+
+        HttpResponse<byte[]> revalidated = send(request("/messages").header("If-None-Match", etag));
+        Assert.assertEquals(304, revalidated.statusCode());
+        Assert.assertEquals(0, revalidated.body().length);
+
+        String userEtag = get("/accounts/1/messages", null).headers().firstValue("ETag").orElse(null);
+        Assert.assertEquals(304,
+                send(request("/accounts/1/messages").header("If-None-Match", userEtag)).statusCode());
+
+        post("a new message");
+        HttpResponse<byte[]> changed = send(request("/messages").header("If-None-Match", etag));
+        Assert.assertEquals(200, changed.statusCode());
+        Assert.assertNotEquals(etag, changed.headers().firstValue("ETag").orElse(null));
+        Assert.assertEquals(200,
+                send(request("/accounts/1/messages").header("If-None-Match", userEtag)).statusCode());
+    }
+
+    private void post(String text) throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = send(request("/messages")
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json"));
+        Assert.assertEquals(200, response.statusCode());
+    }
+
+    private HttpResponse<byte[]> get(String path, String acceptEncoding) throws IOException, InterruptedException {
+        HttpRequest.Builder request = request(path);
+        if (acceptEncoding != null) {
+            request.header("Accept-Encoding", acceptEncoding);
+        }
+        return send(request);
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+    }
+
+    private HttpResponse<byte[]> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+}
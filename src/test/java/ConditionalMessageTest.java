@@ -0,0 +1,114 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ConditionalMessageTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/1, then again with its ETag in If-None-Match
+     *
+     * Expected Response:
+     *  Status Code: 200 with the message and ETag "1", then 304 with no body
+     */
+    @Test
+    public void getMessageNotModified() throws IOException, InterruptedException {
+        HttpResponse<String> response = send(request("/messages/1").GET().build());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("\"1\"", response.headers().firstValue("ETag").orElse(null));
+
+        HttpResponse<String> notModified = send(request("/messages/1").header("If-None-Match", "\"1\"").GET().build());
+        Assert.assertEquals(304, notModified.statusCode());
+        Assert.assertEquals("", notModified.body());
+        Assert.assertEquals("\"1\"", notModified.headers().firstValue("ETag").orElse(null));
+    }
+
+    /**
+     * Two clients update the message after reading version 1: the first update wins and moves it to version 2, the
+     * second is refused with 412 and the current ETag, and a client polling with the old ETag gets the new text.
+     */
+    @Test
+    public void staleUpdateRefused() throws IOException, InterruptedException {
+        HttpResponse<String> first = send(patch("/messages/1", "first update").header("If-Match", "\"1\"").build());
+        Assert.assertEquals(200, first.statusCode());
+        Assert.assertEquals("\"2\"", first.headers().firstValue("ETag").orElse(null));
+
+        HttpResponse<String> second = send(patch("/messages/1", "second update").header("If-Match", "\"1\"").build());
+        Assert.assertEquals(412, second.statusCode());
+        Assert.assertEquals("\"2\"", second.headers().firstValue("ETag").orElse(null));
+
+        HttpResponse<String> poll = send(request("/messages/1").header("If-None-Match", "\"1\"").GET().build());
+        Assert.assertEquals(200, poll.statusCode());
+        Assert.assertEquals(new Message(1, 1, "first update", 1669947792),
+                objectMapper.readValue(poll.body(), Message.class));
+    }
+
+    /**
+     * A delete conditional on an old version is refused with 412, and succeeds with the current one. Updates without
+     * If-Match still apply whatever the version.
+     */
+    @Test
+    public void conditionalDelete() throws IOException, InterruptedException {
+        Assert.assertEquals(200, send(patch("/messages/1", "unconditional update").build()).statusCode());
+
+        HttpResponse<String> stale = send(request("/messages/1").header("If-Match", "\"1\"").DELETE().build());
+        Assert.assertEquals(412, stale.statusCode());
+
+        HttpResponse<String> current = send(request("/messages/1").header("If-Match", "\"2\"").DELETE().build());
+        Assert.assertEquals(200, current.statusCode());
+        Assert.assertEquals(new Message(1, 1, "unconditional update", 1669947792),
+                objectMapper.readValue(current.body(), Message.class));
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+    }
+
+    private HttpRequest.Builder patch(String path, String text) {
+        return request(path)
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"" + text + "\"}"))
+                .header("Content-Type", "application/json");
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,213 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class FeedTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    String user2Token;
+    String user4Token;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app with tiny feed buffers and a celebrity threshold
+     * of two followers, and create a new webClient and ObjectMapper for interacting locally on the web. Accounts 2,
+     * 3 and 4 are registered; 2 follows 1 and 3, and 4 follows 1, which makes account 1 a celebrity whose messages
+     * are pulled, while account 3's are pushed. Following needs the follower's session token.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        ConnectionUtil.resetTestDatabase();
+        System.setProperty("socialmedia.feed.size", "3");
+        System.setProperty("socialmedia.feed.celebrityFollowers", "2");
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+        register("user2");
+        register("user3");
+        register("user4");
+        user2Token = login("user2");
+        user4Token = login("user4");
+        Assert.assertEquals(200, send("PUT", "http://localhost:8080/accounts/2/following/1", user2Token).statusCode());
+        Assert.assertEquals(200, send("PUT", "http://localhost:8080/accounts/2/following/3", user2Token).statusCode());
+        Assert.assertEquals(200, send("PUT", "http://localhost:8080/accounts/4/following/1", user4Token).statusCode());
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("socialmedia.feed.size");
+        System.clearProperty("socialmedia.feed.celebrityFollowers");
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/2/feed after messages are posted by a followed celebrity
+     * and a followed normal account, with the feed already loaded
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the messages of both accounts merged newest first, and nothing from accounts not followed
+     */
+    @Test
+    public void feedMergesPushedAndPulledMessages() throws IOException, InterruptedException {
+        getFeed("http://localhost:8080/accounts/2/feed");
+        postMessage(3, "pushed", 1669947794);
+        postMessage(1, "pulled", 1669947795);
+        postMessage(4, "not followed", 1669947796);
+
+        HttpResponse<String> response = getFeed("http://localhost:8080/accounts/2/feed");
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(3, 1, "pulled", 1669947795));
+        expectedResult.add(new Message(2, 3, "pushed", 1669947794));
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        Assert.assertEquals(expectedResult, readMessages(response));
+    }
+
+    /**
+     * Sending http requests to GET localhost:8080/accounts/2/feed?limit=2, then following the X-Next-Cursor header
+     * past the end of the feed buffer
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: every message of the followed accounts, newest first, over three pages
+     */
+    @Test
+    public void feedPagesPastBuffer() throws IOException, InterruptedException {
+        getFeed("http://localhost:8080/accounts/2/feed");
+        postMessage(3, "three a", 1669947793);
+        postMessage(3, "three b", 1669947795);
+        postMessage(3, "three c", 1669947797);
+        postMessage(3, "three d", 1669947799);
+        postMessage(1, "one a", 1669947798);
+
+        List<Integer> ids = new ArrayList<>();
+        String uri = "http://localhost:8080/accounts/2/feed?limit=2";
+        while (uri != null) {
+            HttpResponse<String> response = getFeed(uri);
+            for (Message message : readMessages(response)) {
+                ids.add(message.getMessage_id());
+            }
+            String cursor = response.headers().firstValue("X-Next-Cursor").orElse(null);
+            uri = cursor == null ? null : "http://localhost:8080/accounts/2/feed?limit=2&after=" + cursor;
+        }
+        List<Integer> expectedIDs = List.of(5, 6, 4, 3, 2, 1);
+        Assert.assertEquals(expectedIDs, ids);
+    }
+
+    /**
+     * Unfollowing an account removes its messages from the feed, unfollowing it again is answered with 404, and
+     * following an account that does not exist is rejected with 400.
+     */
+    @Test
+    public void unfollowAndInvalidFollow() throws IOException, InterruptedException {
+        postMessage(3, "pushed", 1669947794);
+        Assert.assertEquals(200, send("DELETE", "http://localhost:8080/accounts/2/following/3", user2Token)
+                .statusCode());
+        Assert.assertEquals(404, send("DELETE", "http://localhost:8080/accounts/2/following/3", user2Token)
+                .statusCode());
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        Assert.assertEquals(expectedResult, readMessages(getFeed("http://localhost:8080/accounts/2/feed")));
+
+        Assert.assertEquals(400, send("PUT", "http://localhost:8080/accounts/2/following/99", user2Token)
+                .statusCode());
+        Assert.assertEquals(400, send("PUT", "http://localhost:8080/accounts/2/following/2", user2Token)
+                .statusCode());
+    }
+
+    /**
+     * Only the logged-in account can change whom it follows: without a session token the request is answered with
+     * 401, and on behalf of another account with 403.
+     */
+    @Test
+    public void followNeedsTheFollowersSession() throws IOException, InterruptedException {
+        Assert.assertEquals(401, send("PUT", "http://localhost:8080/accounts/3/following/1", null).statusCode());
+        Assert.assertEquals(401, send("DELETE", "http://localhost:8080/accounts/2/following/1", null).statusCode());
+        Assert.assertEquals(403, send("PUT", "http://localhost:8080/accounts/3/following/1", user2Token)
+                .statusCode());
+        Assert.assertEquals(403, send("DELETE", "http://localhost:8080/accounts/2/following/1", user4Token)
+                .statusCode());
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        Assert.assertEquals(expectedResult, readMessages(getFeed("http://localhost:8080/accounts/2/feed")));
+    }
+
+    private List<Message> readMessages(HttpResponse<String> response) throws IOException {
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    private HttpResponse<String> getFeed(String uri) throws IOException, InterruptedException {
+        return send("GET", uri, null);
+    }
+
+    private HttpResponse<String> send(String method, String uri, String token)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create(uri))
+                .method(method, HttpRequest.BodyPublishers.noBody());
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String login(String username) throws IOException, InterruptedException {
+        HttpRequest loginRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"" + username + "\", " +
+                        "\"password\": \"password\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(loginRequest, HttpResponse.BodyHandlers.ofString())
+                .headers().firstValue("X-Session-Token").orElseThrow();
+    }
+
+    private void register(String username) throws IOException, InterruptedException {
+        HttpRequest registerRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"" + username + "\", " +
+                        "\"password\": \"password\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(registerRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void postMessage(int posted_by, String text, long epoch) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":" + posted_by + ", " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": " + epoch + "}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+}
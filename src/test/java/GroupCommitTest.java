@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import DAO.DataAccessException;
+import DAO.GroupCommitter;
+import DAO.IdAllocator;
+import DAO.MessageDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class GroupCommitTest {
+    GroupCommitter groupCommitter;
+
+    /**
+     * Before every test, reset the database.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        if (groupCommitter != null) {
+            groupCommitter.close();
+        }
+        System.clearProperty("socialmedia.groupCommit.enabled");
+    }
+
+    /**
+     * Three writes committed in one group, one of which violates the foreign key on posted_by: only that one fails,
+     * and the other two are committed.
+     */
+    @Test
+    public void failingWriteDoesNotFailItsGroup() throws InterruptedException {
+        groupCommitter = new GroupCommitter(3, 10_000_000);
+        MessageDAO messageDAO = new MessageDAO(new IdAllocator("message_id_seq", 10), groupCommitter);
+        AtomicReference<Message> created = new AtomicReference<>();
+        AtomicReference<RuntimeException> invalid = new AtomicReference<>();
+        AtomicReference<Message> updated = new AtomicReference<>();
+        List<Thread> threads = List.of(
+                new Thread(() -> created.set(messageDAO.createMessage(new Message(1, "kept", 1669947793)))),
+                new Thread(() -> invalid.set(Assert.assertThrows(DataAccessException.class,
+                        () -> messageDAO.createMessage(new Message(999, "no such user", 1669947794))))),
+                new Thread(() -> updated.set(messageDAO.updateMessageByID(1, "updated"))));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertNotNull(invalid.get());
+        Assert.assertEquals(created.get(), new MessageDAO().getMessageByID(created.get().getMessage_id()));
+        Assert.assertEquals(new Message(1, 1, "updated", 1669947792), updated.get());
+        Assert.assertEquals(updated.get(), new MessageDAO().getMessageByID(1));
+        Assert.assertEquals(1, groupCommitter.getGroupCount());
+        Assert.assertEquals(1, groupCommitter.getFailedWriteCount());
+    }
+
+    /**
+     * Many threads creating messages at once all get their messages committed, in far fewer transactions than
+     * writes.
+     */
+    @Test
+    public void concurrentWritersShareCommits() throws InterruptedException {
+        groupCommitter = new GroupCommitter(64, 2000);
+        MessageDAO messageDAO = new MessageDAO(new IdAllocator("message_id_seq", 100), groupCommitter);
+        Set<Integer> ids = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 16; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 25; i++) {
+                    ids.add(messageDAO.createMessage(new Message(1, "message " + i, 1669947793)).getMessage_id());
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(400, ids.size());
+        Assert.assertEquals(401, new MessageDAO().getAllMessages().size());
+        Assert.assertEquals(400, groupCommitter.getWriteCount());
+        Assert.assertTrue(groupCommitter.toString(), groupCommitter.getGroupCount() < 200);
+    }
+
+    /**
+     * With socialmedia.groupCommit.enabled, the API's creates, updates and deletes go through the shared group
+     * committer and answer as before.
+     */
+    @Test
+    public void apiWritesThroughGroupCommit() throws IOException, InterruptedException {
+        System.setProperty("socialmedia.groupCommit.enabled", "true");
+        Javalin app = new SocialMediaController().startAPI().start(8080);
+        try {
+            Thread.sleep(1000);
+            HttpClient webClient = HttpClient.newHttpClient();
+            long before = GroupCommitter.getInstance().getWriteCount();
+            HttpResponse<String> created = send(webClient, "POST", "/messages",
+                    "{\"posted_by\":1, \"message_text\": \"grouped\", \"time_posted_epoch\": 1669947793}");
+            Assert.assertEquals(200, created.statusCode());
+            Assert.assertEquals(200, send(webClient, "PATCH", "/messages/2", "{\"message_text\": \"updated\"}")
+                    .statusCode());
+            HttpResponse<String> deleted = send(webClient, "DELETE", "/messages/2", null);
+            Assert.assertEquals("{\"message_id\":2,\"posted_by\":1,\"message_text\":\"updated\","
+                    + "\"time_posted_epoch\":1669947793}", deleted.body());
+            Assert.assertEquals(before + 3, GroupCommitter.getInstance().getWriteCount());
+        } finally {
+            app.stop();
+        }
+    }
+
+    private HttpResponse<String> send(HttpClient webClient, String method, String path, String body)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body == null
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,82 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.IdAllocator;
+import Util.ConnectionUtil;
+
+public class IdAllocatorTest {
+
+    /**
+     * Before every test, reset the database, which restarts the id sequences.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    /**
+     * Many threads taking ids at once, across many small blocks, never get the same id twice.
+     */
+    @Test
+    public void idsAreUniqueAcrossThreads() throws InterruptedException {
+        IdAllocator idAllocator = new IdAllocator("message_id_seq", 100);
+        Set<Integer> ids = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    Assert.assertTrue(ids.add(idAllocator.nextId()));
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(40000, ids.size());
+    }
+
+    /**
+     * An allocator started after another one (as after a restart) skips the ids the first one reserved but never
+     * used, and a plain insert that leaves message_id to its default does not reuse any of them either.
+     */
+    @Test
+    public void restartLeavesGapsButNeverReusesIds() throws SQLException {
+        IdAllocator beforeRestart = new IdAllocator("message_id_seq", 10);
+        Set<Integer> reserved = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            reserved.add(beforeRestart.nextId());
+        }
+        Assert.assertTrue(reserved.contains(2)); // message 1 is inserted by SocialMedia.sql
+
+        IdAllocator afterRestart = new IdAllocator("message_id_seq", 10);
+        int first = afterRestart.nextId();
+        Assert.assertEquals(12, first); // 2..11 were reserved before the restart
+
+        try (Connection connection = ConnectionUtil.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("INSERT INTO Message (posted_by, message_text, time_posted_epoch) "
+                    + "VALUES (1, 'default id', 1669947793)");
+            try (PreparedStatement select = connection.prepareStatement(
+                    "SELECT message_id FROM Message WHERE message_text = 'default id'");
+                 ResultSet resultSet = select.executeQuery()) {
+                resultSet.next();
+                Assert.assertEquals(22, resultSet.getInt(1)); // after both reserved blocks
+            }
+        }
+    }
+}
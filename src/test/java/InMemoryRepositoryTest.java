@@ -0,0 +1,96 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import DAO.InMemoryFollowRepository;
+import DAO.InMemoryMessageRepository;
+import Model.Message;
+import Util.IntHashMap;
+
+public class InMemoryRepositoryTest {
+
+    /**
+     * Random puts and removes, over a key range small enough that probe runs collide and wrap around, leave an
+     * IntHashMap holding exactly what a HashMap given the same operations holds.
+     */
+    @Test
+    public void intHashMapMatchesHashMap() {
+        IntHashMap<Integer> map = new IntHashMap<>(4);
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            int key = random.nextInt(2000) - 1000;
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                Assert.assertEquals(expected.put(key, i), map.put(key, i));
+            }
+        }
+        Assert.assertEquals(expected.size(), map.size());
+        for (int key = -1000; key < 1000; key++) {
+            Assert.assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    /**
+     * Messages created by many threads at once all get distinct ids, and every one of them can be found by id, in
+     * the list of all messages and in its poster's messages.
+     */
+    @Test
+    public void concurrentCreatesAreAllIndexed() throws InterruptedException {
+        InMemoryMessageRepository repository = new InMemoryMessageRepository(new InMemoryFollowRepository());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int posted_by = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    Assert.assertNotNull(repository.createMessage(new Message(posted_by, "message " + i, i)));
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(16000, repository.getAllMessages().size());
+        for (int posted_by = 0; posted_by < 8; posted_by++) {
+            List<Message> posted = repository.getAllMessagesFromUser(posted_by);
+            Assert.assertEquals(2000, posted.size());
+            Assert.assertEquals(1999, posted.get(0).getTime_posted_epoch());
+            Assert.assertEquals(posted.get(0), repository.getMessageByID(posted.get(0).getMessage_id()));
+        }
+    }
+
+    /**
+     * Pages newest first continue after the cursor, skip deleted messages and show updated text, with messages
+     * posted at the same time ordered by message_id.
+     */
+    @Test
+    public void pagesFollowUpdatesAndDeletes() {
+        InMemoryMessageRepository repository = new InMemoryMessageRepository(new InMemoryFollowRepository());
+        for (int i = 1; i <= 6; i++) {
+            repository.createMessage(new Message(1, "message " + i, i / 2));
+        }
+        repository.deleteMessageByID(5);
+        repository.updateMessageByID(3, "updated");
+        Assert.assertNull(repository.updateMessageByID(3, "stale", 1, null));
+        Assert.assertNull(repository.updateMessageByID(3, "not yours", null, 2));
+
+        List<Message> firstPage = repository.getMessagesFromUserBeforeTime(1, Long.MAX_VALUE, Integer.MAX_VALUE, 2);
+        Assert.assertEquals(List.of(new Message(6, 1, "message 6", 3), new Message(4, 1, "message 4", 2)),
+                firstPage);
+        Message last = firstPage.get(1);
+        Assert.assertEquals(List.of(new Message(3, 1, "updated", 1), new Message(2, 1, "message 2", 1),
+                        new Message(1, 1, "message 1", 0)),
+                repository.getMessagesBeforeTime(last.getTime_posted_epoch(), last.getMessage_id(), 10));
+        Assert.assertEquals(List.of(4, 6), List.of(repository.getMessagesAfterID(3, 10).get(0).getMessage_id(),
+                repository.getMessagesAfterID(4, 10).get(0).getMessage_id()));
+    }
+}
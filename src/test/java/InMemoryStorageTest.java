@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class InMemoryStorageTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, then start the Javalin app with socialmedia.storage=memory, which starts
+     * with no accounts and no messages, and register user1 and user2 in it.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        ConnectionUtil.resetTestDatabase();
+        System.setProperty("socialmedia.storage", "memory");
+        System.setProperty("socialmedia.password.iterations", "1000");
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+        Assert.assertEquals(new Account(1, "user1", "password"), readAccount(register("user1")));
+        Assert.assertEquals(new Account(2, "user2", "password"), readAccount(register("user2")));
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("socialmedia.storage");
+        System.clearProperty("socialmedia.password.iterations");
+    }
+
+    /**
+     * Registering, logging in, posting, listing, updating and deleting all work against the in-memory store, and
+     * none of it reaches the database.
+     */
+    @Test
+    public void messagesAreKeptInMemory() throws IOException, InterruptedException {
+        Assert.assertEquals(400, register("user1").statusCode());
+        Assert.assertEquals(200, send("POST", "/login", "{\"username\": \"user1\", \"password\": \"password\"}")
+                .statusCode());
+        Assert.assertEquals(401, send("POST", "/login", "{\"username\": \"user1\", \"password\": \"wrong\"}")
+                .statusCode());
+
+        postMessage(1, "first", 1669947792);
+        postMessage(2, "second", 1669947793);
+        postMessage(1, "third", 1669947794);
+        Assert.assertEquals(400, postMessage(3, "no such user", 1669947795).statusCode());
+
+        List<Message> expectedAll = new ArrayList<>();
+        expectedAll.add(new Message(1, 1, "first", 1669947792));
+        expectedAll.add(new Message(2, 2, "second", 1669947793));
+        expectedAll.add(new Message(3, 1, "third", 1669947794));
+        Assert.assertEquals(expectedAll, readMessages(send("GET", "/messages", null)));
+
+        Assert.assertEquals(200, send("PATCH", "/messages/1", "{\"message_text\": \"updated\"}").statusCode());
+        Assert.assertEquals(200, send("DELETE", "/messages/3", null).statusCode());
+        Assert.assertEquals("", send("GET", "/messages/3", null).body());
+
+        List<Message> expectedUser = new ArrayList<>();
+        expectedUser.add(new Message(1, 1, "updated", 1669947792));
+        Assert.assertEquals(expectedUser, readMessages(send("GET", "/accounts/1/messages", null)));
+
+        // the database still holds only what resetTestDatabase put there
+        Assert.assertEquals(1, new MessageDAO().getAllMessages().size());
+        Assert.assertNull(new AccountDAO().getAccountByUsername("user2"));
+    }
+
+    /**
+     * Follows are kept in memory with the accounts, and a feed pages newest first across the followed accounts.
+     */
+    @Test
+    public void feedPagesAcrossFollowedAccounts() throws IOException, InterruptedException {
+        Assert.assertEquals(200, register("user3").statusCode());
+        String token = send("POST", "/login", "{\"username\": \"user3\", \"password\": \"password\"}")
+                .headers().firstValue("X-Session-Token").orElseThrow();
+        Assert.assertEquals(200, follow(token, "/accounts/3/following/1").statusCode());
+        Assert.assertEquals(200, follow(token, "/accounts/3/following/2").statusCode());
+        Assert.assertEquals(400, follow(token, "/accounts/3/following/99").statusCode());
+        postMessage(1, "one a", 1669947792);
+        postMessage(2, "two a", 1669947793);
+        postMessage(1, "one b", 1669947794);
+        postMessage(2, "two b", 1669947794);
+        postMessage(3, "own", 1669947795);
+
+        List<Integer> ids = new ArrayList<>();
+        String uri = "/accounts/3/feed?limit=3";
+        while (uri != null) {
+            HttpResponse<String> response = send("GET", uri, null);
+            for (Message message : readMessages(response)) {
+                ids.add(message.getMessage_id());
+            }
+            String cursor = response.headers().firstValue("X-Next-Cursor").orElse(null);
+            uri = cursor == null ? null : "/accounts/3/feed?limit=3&after=" + cursor;
+        }
+        Assert.assertEquals(List.of(4, 3, 2, 1), ids);
+    }
+
+    private List<Message> readMessages(HttpResponse<String> response) throws IOException {
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    private Account readAccount(HttpResponse<String> response) throws IOException {
+        return objectMapper.readValue(response.body(), Account.class);
+    }
+
+    private HttpResponse<String> register(String username) throws IOException, InterruptedException {
+        return send("POST", "/register", "{\"username\": \"" + username + "\", \"password\": \"password\" }");
+    }
+
+    private HttpResponse<String> postMessage(int posted_by, String text, long epoch)
+            throws IOException, InterruptedException {
+        return send("POST", "/messages", "{"+
+                "\"posted_by\":" + posted_by + ", " +
+                "\"message_text\": \"" + text + "\", " +
+                "\"time_posted_epoch\": " + epoch + "}");
+    }
+
+    private HttpResponse<String> follow(String token, String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .PUT(HttpRequest.BodyPublishers.noBody())
+                .header("Authorization", "Bearer " + token)
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> send(String method, String path, String body)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body == null
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class LoadGeneratorTest {
+    SocialMediaController socialMediaController;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database and restart the Javalin app, hashing passwords cheaply so that setting
+     * up accounts is quick.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("socialmedia.password.iterations", "1000");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("socialmedia.password.iterations");
+    }
+
+    /**
+     * Every scheduled request of every operation in the mix is sent and answered without errors, and the saved
+     * scenarios load from the classpath.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void runScenario() throws Exception {
+        LoadGenerator.Scenario scenario = LoadGenerator.loadScenario("scenarios/mixed.json");
+        Assert.assertEquals("mixed", scenario.name);
+        scenario.ratePerSecond = 100;
+        scenario.arrivals = "constant";
+        scenario.warmupSeconds = 0;
+        scenario.durationSeconds = 2;
+        scenario.accounts = 3;
+
+        Map<String, Object> results = new LoadGenerator(scenario).run();
+
+        Map<String, Map<String, Object>> operations = (Map<String, Map<String, Object>>) results.get("operations");
+        Assert.assertEquals(Map.of("register", 0, "login", 0, "post", 0, "readById", 0, "listByUser", 0).keySet(),
+                operations.keySet());
+        long requests = 0;
+        for (Map<String, Object> operation : operations.values()) {
+            Assert.assertEquals(0L, operation.get("errors"));
+            requests += (Long) operation.get("requests");
+            Map<String, Double> latency = (Map<String, Double>) operation.get("latencyMillis");
+            Assert.assertTrue(latency.get("p99") >= latency.get("p50"));
+        }
+        Assert.assertEquals(200, requests);
+    }
+}
@@ -0,0 +1,203 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageDAO;
+import Model.Message;
+import Service.MessageWriteBehind;
+import Service.WriteQueueFullException;
+import Util.ConnectionUnavailableException;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageWriteBehindTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app with write-behind enabled, and create a new
+     * webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        System.setProperty("socialmedia.writeBehind.enabled", "true");
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("socialmedia.writeBehind.enabled");
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages, reading the message back by id, then stopping the app
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the message with its reserved id, readable straight away and in the database once the app stops
+     */
+    @Test
+    public void createMessageIsWrittenBehind() throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"hello message\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        Message created = objectMapper.readValue(response.body(), Message.class);
+        Assert.assertEquals(new Message(2, 1, "hello message", 1669947792), created);
+
+        HttpRequest getRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .build();
+        HttpResponse<String> getResponse = webClient.send(getRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(created, objectMapper.readValue(getResponse.body(), Message.class));
+
+        // stopping the app drains the queue
+        app.stop();
+        Assert.assertEquals(created, new MessageDAO().getMessageByID(2));
+    }
+
+    /**
+     * While the flusher is stuck writing one message and the queue holds another, a third is rejected; once the
+     * flusher is released, closing the queue writes everything that was accepted.
+     */
+    @Test
+    public void fullQueueRejectsAndCloseDrains() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MessageDAO blockedDAO = new MessageDAO() {
+            @Override
+            public boolean insertMessages(List<Message> messages) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.insertMessages(messages);
+            }
+        };
+        MessageWriteBehind writeBehind = new MessageWriteBehind(blockedDAO, 1, 10, written -> {}, dropped -> {});
+
+        writeBehind.enqueue(new Message(100, 1, "first", 1669947793));
+        writing.await();
+        writeBehind.enqueue(new Message(101, 1, "second", 1669947794));
+        try {
+            writeBehind.enqueue(new Message(102, 1, "third", 1669947795));
+            Assert.fail("the third message should not fit in the queue");
+        } catch (WriteQueueFullException expected) {
+        }
+
+        release.countDown();
+        writeBehind.close();
+        Assert.assertEquals(2, writeBehind.getWrittenCount());
+        Assert.assertEquals(1, writeBehind.getRejectedCount());
+        MessageDAO messageDAO = new MessageDAO();
+        Assert.assertNotNull(messageDAO.getMessageByID(100));
+        Assert.assertNotNull(messageDAO.getMessageByID(101));
+        Assert.assertNull(messageDAO.getMessageByID(102));
+    }
+
+    /**
+     * An insert that throws is retried until the repository is back, so an accepted message is not lost, and a
+     * callback that throws is only logged: the flusher keeps writing later messages, and no one waiting for a message
+     * is left waiting.
+     */
+    @Test
+    public void failuresDoNotStopTheFlusher() {
+        AtomicInteger calls = new AtomicInteger();
+        MessageDAO failingTwiceDAO = new MessageDAO() {
+            @Override
+            public boolean insertMessages(List<Message> messages) {
+                if (calls.getAndIncrement() < 2) {
+                    throw new ConnectionUnavailableException(new SQLException("no connection"));
+                }
+                return super.insertMessages(messages);
+            }
+        };
+        MessageWriteBehind writeBehind = new MessageWriteBehind(failingTwiceDAO, 10, 10, written -> {
+            throw new IllegalStateException("listener failed");
+        }, dropped -> {});
+
+        writeBehind.enqueue(new Message(100, 1, "retried", 1669947793));
+        writeBehind.awaitWritten(100);
+        writeBehind.enqueue(new Message(101, 1, "written", 1669947794));
+        writeBehind.awaitWritten(101);
+        writeBehind.enqueue(new Message(102, 1, "also written", 1669947795));
+        writeBehind.close();
+
+        Assert.assertEquals(0, writeBehind.getDroppedCount());
+        Assert.assertEquals(2, writeBehind.getRetryCount());
+        Assert.assertEquals(3, writeBehind.getWrittenCount());
+        MessageDAO messageDAO = new MessageDAO();
+        Assert.assertNotNull(messageDAO.getMessageByID(100));
+        Assert.assertNotNull(messageDAO.getMessageByID(101));
+        Assert.assertNotNull(messageDAO.getMessageByID(102));
+    }
+
+    /**
+     * A batch holding a message the database rejects, here for posted_by naming no account, is written a message at a
+     * time: only the rejected message is dropped.
+     */
+    @Test
+    public void onlyRejectedMessagesAreDropped() {
+        CountDownLatch release = new CountDownLatch(1);
+        MessageDAO heldDAO = new MessageDAO() {
+            @Override
+            public boolean insertMessages(List<Message> messages) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.insertMessages(messages);
+            }
+        };
+        List<Message> dropped = new CopyOnWriteArrayList<>();
+        MessageWriteBehind writeBehind = new MessageWriteBehind(heldDAO, 10, 10, written -> {}, dropped::add);
+
+        Message rejected = new Message(101, 999, "no such user", 1669947794);
+        writeBehind.enqueue(new Message(100, 1, "kept", 1669947793));
+        writeBehind.enqueue(rejected);
+        writeBehind.enqueue(new Message(102, 1, "also kept", 1669947795));
+        release.countDown();
+        writeBehind.close();
+
+        Assert.assertEquals(List.of(rejected), dropped);
+        Assert.assertEquals(2, writeBehind.getWrittenCount());
+        MessageDAO messageDAO = new MessageDAO();
+        Assert.assertNotNull(messageDAO.getMessageByID(100));
+        Assert.assertNull(messageDAO.getMessageByID(101));
+        Assert.assertNotNull(messageDAO.getMessageByID(102));
+    }
+}
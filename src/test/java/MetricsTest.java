@@ -0,0 +1,127 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import DAO.AccountDAO;
+import Model.Account;
+import Util.ConnectionUtil;
+import Util.LatencyHistogram;
+import io.javalin.Javalin;
+
+public class MetricsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Requests are counted by route and status, and the queries behind them by DAO method, alongside the pool and
+     * JVM metrics. Metrics last as long as the JVM, so the counts are compared before and after.
+     */
+    @Test
+    public void requestsAndQueriesCounted() throws IOException, InterruptedException {
+        String before = getMetrics();
+        String requestSeries = "http_requests_total{method=\"POST\",route=\"/messages\",status=\"200\"}";
+        String querySeries = "db_query_duration_seconds_count{operation=\"MessageDAO.createMessage\"}";
+
+        HttpResponse<String> posted = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, " +
+                        "\"message_text\": \"hello message\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, posted.statusCode());
+        webClient.send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/no/such/route")).build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        String after = getMetrics();
+        Assert.assertEquals(value(before, requestSeries) + 1, value(after, requestSeries), 0);
+        Assert.assertEquals(value(before, querySeries) + 1, value(after, querySeries), 0);
+        Assert.assertTrue(value(after, "http_requests_total{method=\"GET\",route=\"unmatched\",status=\"404\"}") >= 1);
+        Assert.assertTrue(after.contains(
+                "http_request_duration_seconds{method=\"POST\",route=\"/messages\",quantile=\"0.99\"}"));
+        Assert.assertTrue(after.contains("db_pool_connections{state=\"active\"}"));
+        Assert.assertTrue(after.contains("jvm_gc_collections_total{gc="));
+        Assert.assertTrue(value(after, "jvm_allocated_bytes_total") > 0);
+    }
+
+    /**
+     * A statement that fails, here an insert of a username that is taken, is counted against its DAO method.
+     */
+    @Test
+    public void failedQueriesCounted() throws IOException, InterruptedException {
+        String series = "db_query_errors_total{operation=\"AccountDAO.createAccount\"}";
+        String before = getMetrics();
+
+        Assert.assertNull(new AccountDAO().createAccount(new Account("testuser1", "password")));
+
+        String after = getMetrics();
+        Assert.assertEquals(value(before, series) + 1, value(after, series), 0);
+    }
+
+    /**
+     * Percentiles are reported within 2% of the recorded durations, from nanoseconds to tens of seconds.
+     */
+    @Test
+    public void histogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 100_000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        histogram.record(30_000_000_000L);
+        histogram.record(7);
+
+        long[] values = histogram.getValuesAtQuantiles(0, 0.5, 0.99, 1);
+        Assert.assertEquals(7, values[0]);
+        Assert.assertEquals(50_000_000, values[1], 50_000_000 * 0.02);
+        Assert.assertEquals(99_000_000, values[2], 99_000_000 * 0.02);
+        Assert.assertEquals(30_000_000_000L, values[3], 30_000_000_000L * 0.02);
+        Assert.assertEquals(100_002, histogram.getCount());
+        Assert.assertArrayEquals(new long[2], new LatencyHistogram().getValuesAtQuantiles(0.5, 0.99));
+    }
+
+    private String getMetrics() throws IOException, InterruptedException {
+        HttpResponse<String> response = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/metrics")).build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+        return response.body();
+    }
+
+    /**
+     * @return the value of a series in a scrape, or 0 if it is not there yet.
+     */
+    private static double value(String metrics, String series) {
+        Matcher matcher = Pattern.compile("^" + Pattern.quote(series) + " (\\S+)$", Pattern.MULTILINE).matcher(metrics);
+        return matcher.find() ? Double.parseDouble(matcher.group(1)) : 0;
+    }
+}
@@ -0,0 +1,190 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.AccountDAO;
+import DAO.InMemoryAccountRepository;
+import Model.Account;
+import Service.AccountCache;
+import Service.AccountService;
+import Service.PasswordHasher;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class PasswordHashingTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Registering stores a salted hash rather than the password, and the account can log in with the password.
+     */
+    @Test
+    public void registerStoresHash() throws IOException, InterruptedException {
+        HttpResponse<String> registered = post("/register", "user", "password");
+        Assert.assertEquals(200, registered.statusCode());
+        Assert.assertEquals(new Account(2, "user", "password"), objectMapper.readValue(registered.body(), Account.class));
+
+        String stored = new AccountDAO().getAccountByID(2).getPassword();
+        Assert.assertTrue(stored, stored.startsWith("pbkdf2_sha256$"));
+
+        HttpResponse<String> login = post("/login", "user", "password");
+        Assert.assertEquals(200, login.statusCode());
+        Assert.assertEquals(new Account(2, "user", "password"), objectMapper.readValue(login.body(), Account.class));
+        Assert.assertEquals(401, post("/login", "user", "wrong password").statusCode());
+    }
+
+    /**
+     * The hashing cost can be changed over JMX while the server runs, and new passwords are hashed at the new cost.
+     */
+    @Test
+    public void costChangesOverJmx() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(PasswordHasher.MBEAN_NAME);
+        server.setAttribute(name, new Attribute("Iterations", 1000));
+        Assert.assertEquals(1000, server.getAttribute(name, "Iterations"));
+
+        Assert.assertEquals(200, post("/register", "user", "password").statusCode());
+        String stored = new AccountDAO().getAccountByID(2).getPassword();
+        Assert.assertTrue(stored, stored.startsWith("pbkdf2_sha256$1000$"));
+        Assert.assertEquals(200, post("/login", "user", "password").statusCode());
+    }
+
+    /**
+     * The seeded account's password is stored in plaintext; logging in with it replaces it with a hash, and logging
+     * in keeps working afterwards.
+     */
+    @Test
+    public void loginRehashesPlaintextPassword() throws IOException, InterruptedException {
+        Assert.assertEquals("password", new AccountDAO().getAccountByID(1).getPassword());
+
+        Assert.assertEquals(401, post("/login", "testuser1", "wrong password").statusCode());
+        Assert.assertEquals("password", new AccountDAO().getAccountByID(1).getPassword());
+
+        HttpResponse<String> login = post("/login", "testuser1", "password");
+        Assert.assertEquals(200, login.statusCode());
+        Assert.assertEquals(new Account(1, "testuser1", "password"), objectMapper.readValue(login.body(), Account.class));
+        Assert.assertTrue(new AccountDAO().getAccountByID(1).getPassword().startsWith("pbkdf2_sha256$"));
+
+        Assert.assertEquals(200, post("/login", "testuser1", "password").statusCode());
+    }
+
+    /**
+     * After the cost changes, a matching password hashed at the old cost is handed back hashed at the new one.
+     */
+    @Test
+    public void verifyRehashesAtNewCost() {
+        PasswordHasher passwordHasher = new PasswordHasher(1000, 1, 10);
+        String stored = passwordHasher.hash("password").join();
+        Assert.assertTrue(stored, stored.startsWith("pbkdf2_sha256$1000$"));
+        Assert.assertEquals(stored, passwordHasher.verify("password", stored).join());
+        Assert.assertNull(passwordHasher.verify("wrong password", stored).join());
+
+        passwordHasher.setIterations(2000);
+        String rehashed = passwordHasher.verify("password", stored).join();
+        Assert.assertTrue(rehashed, rehashed.startsWith("pbkdf2_sha256$2000$"));
+        Assert.assertEquals(rehashed, passwordHasher.verify("password", rehashed).join());
+    }
+
+    /**
+     * A login to a username with no account fails after a password check all the same, so that it takes as long as
+     * a wrong password for an account that exists.
+     */
+    @Test
+    public void unknownUsernameIsCheckedAgainstDummyHash() {
+        PasswordHasher passwordHasher = new PasswordHasher(1000, 1, 10);
+        Assert.assertNull(passwordHasher.verifyDummy("password").join());
+        Assert.assertEquals(1L, passwordHasher.getStats().get("verifications"));
+
+        AccountService accountService = new AccountService(new AccountCache(new InMemoryAccountRepository()),
+                new InMemoryAccountRepository());
+        Assert.assertNull(accountService.loginUser(new Account("nobody", "password")));
+        Assert.assertEquals(1L, accountService.getPasswordHasher().getStats().get("verifications"));
+    }
+
+    /**
+     * A registered account is stored by an account writer thread, not by the thread that hashed its password.
+     */
+    @Test
+    public void accountIsStoredOffTheHasherThreads() {
+        AtomicReference<String> writerThread = new AtomicReference<>();
+        InMemoryAccountRepository accounts = new InMemoryAccountRepository() {
+            @Override
+            public Account createAccount(Account account) {
+                writerThread.set(Thread.currentThread().getName());
+                return super.createAccount(account);
+            }
+        };
+        AccountService accountService = new AccountService(new AccountCache(accounts), accounts);
+        accountService.getPasswordHasher().setIterations(1000);
+
+        Assert.assertNotNull(accountService.registerUser(new Account("user", "password")));
+        Assert.assertTrue(writerThread.get(), writerThread.get().startsWith("account-writer-"));
+    }
+
+    /**
+     * While the only hashing thread is busy and the queue is full, another hash is rejected rather than queued.
+     */
+    @Test
+    public void fullQueueRejectsHash() {
+        PasswordHasher passwordHasher = new PasswordHasher(1_000_000, 1, 1);
+        passwordHasher.hash("running");
+        passwordHasher.hash("queued");
+        try {
+            passwordHasher.hash("rejected");
+            Assert.fail("the third hash should not fit in the queue");
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+
+    private HttpResponse<String> post(String path, String username, String password)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"" + username + "\", " +
+                        "\"password\": \"" + password + "\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,70 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class PoolExhaustionTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+    List<Connection> held = new ArrayList<>();
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Connection connection : held) {
+            connection.close();
+        }
+        app.stop();
+    }
+
+    /**
+     * With every pooled connection held elsewhere, a request that needs the database waits out the acquisition
+     * timeout and is answered with 503 and Retry-After, and is served again once a connection is returned.
+     */
+    @Test
+    public void exhaustedPoolAnswers503() throws Exception {
+        for (int i = 0; i < ConnectionUtil.getPool().getMaxSize(); i++) {
+            held.add(ConnectionUtil.getConnection());
+        }
+
+        HttpResponse<String> response = get("/messages?limit=10");
+        Assert.assertEquals(503, response.statusCode());
+        Assert.assertEquals("1", response.headers().firstValue("Retry-After").orElse(null));
+
+        held.remove(0).close();
+        Assert.assertEquals(200, get("/messages?limit=10").statusCode());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,169 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.FollowDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+
+/**
+ * Runs the hot DAO methods against a seeded database, collects every SQL statement they executed from H2's query
+ * statistics, and runs EXPLAIN on each one. The test fails if any of them would read the message, account or follow
+ * table with a full table scan, so a query change or a dropped index that loses an index lookup is caught here rather
+ * than in production.
+ */
+public class QueryPlanTest {
+
+    /**
+     * Queries that return every row on purpose, so a scan is the right plan for them.
+     */
+    private static final Set<String> FULL_LISTING_QUERIES = new HashSet<>(Arrays.asList(
+            "SELECT * FROM Message",
+            "SELECT * FROM Message ORDER BY message_id"));
+
+    /**
+     * Matches SELECT ... FROM FINAL/OLD/NEW TABLE (...) and captures the data change statement inside.
+     */
+    private static final Pattern DELTA_TABLE = Pattern.compile(
+            "SELECT .* FROM (?:FINAL|OLD|NEW) TABLE \\((.*)\\)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    MessageDAO messageDAO;
+    AccountDAO accountDAO;
+    FollowDAO followDAO;
+
+    /**
+     * Before every test, reset the database, seed enough rows that the optimizer's choice is meaningful, and start
+     * recording query statistics.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        ConnectionUtil.resetTestDatabase();
+        messageDAO = new MessageDAO();
+        accountDAO = new AccountDAO();
+        followDAO = new FollowDAO();
+        for (int i = 0; i < 50; i++) {
+            accountDAO.createAccount(new Account("planuser" + i, "password"));
+        }
+        for (int i = 0; i < 500; i++) {
+            messageDAO.createMessage(new Message(1 + i % 50, "plan message " + i, 1669947792L + i));
+        }
+        for (int i = 1; i <= 50; i++) {
+            followDAO.follow(i, 1 + i % 50);
+            followDAO.follow(i, 1 + (i + 7) % 50);
+        }
+        execute("ANALYZE");
+        execute("SET QUERY_STATISTICS TRUE");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        execute("SET QUERY_STATISTICS FALSE");
+    }
+
+    @Test
+    public void hotQueriesUseIndexes() throws SQLException {
+        messageDAO.getMessageByID(1);
+        messageDAO.getAllMessagesFromUser(2);
+        messageDAO.getMessagesFromUserBeforeTime(2, 1669947992L, 200, 20);
+        messageDAO.getMessagesAfterID(100, 20);
+        messageDAO.getMessagesBeforeTime(1669947992L, 200, 20);
+        messageDAO.getFeedBeforeTime(2, 1669947992L, 200, 20);
+        followDAO.getFolloweeIDs(2);
+        followDAO.getFollowerIDs(2);
+        followDAO.getFollowerCount(2);
+        followDAO.unfollow(2, 3);
+        messageDAO.updateMessageByID(1, "updated text");
+        messageDAO.getVersionedMessageByID(3);
+        messageDAO.updateMessageByID(3, "versioned text", 1, null);
+        messageDAO.updateMessageByID(3, "own text", null, 1);
+        messageDAO.deleteMessageByID(4, 1, 1);
+        messageDAO.deleteMessageByID(2);
+        accountDAO.getAccountByID(1);
+        accountDAO.getAccountByUsername("planuser1");
+        accountDAO.updatePassword(1, "password", "new password");
+        accountDAO.getExistingAccountIDs(Arrays.asList(1, 2, 3));
+
+        List<String> statements = executedStatements();
+        Assert.assertFalse("no DAO statements were recorded", statements.isEmpty());
+
+        List<String> scans = new ArrayList<>();
+        for (String sql : statements) {
+            // the plan of a SELECT over a data change delta table only shows a scan of the delta rows, so the
+            // UPDATE or DELETE inside it is explained on its own
+            Matcher deltaTable = DELTA_TABLE.matcher(sql);
+            String explained = deltaTable.matches() ? deltaTable.group(1) : sql;
+            String plan = explain(explained);
+            if (plan.contains(".tableScan")) {
+                scans.add(sql + "\n    " + plan);
+            }
+        }
+        Assert.assertTrue("queries that scan a whole table:\n" + String.join("\n", scans), scans.isEmpty());
+    }
+
+    /**
+     * @return the distinct SELECT, UPDATE and DELETE statements recorded since query statistics were enabled,
+     * without their trailing semicolon.
+     */
+    private List<String> executedStatements() throws SQLException {
+        List<String> statements = new ArrayList<>();
+        try (Connection connection = ConnectionUtil.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(
+                     "SELECT SQL_STATEMENT FROM INFORMATION_SCHEMA.QUERY_STATISTICS")) {
+            while (resultSet.next()) {
+                String sql = resultSet.getString(1).trim();
+                if (sql.endsWith(";")) {
+                    sql = sql.substring(0, sql.length() - 1).trim();
+                }
+                String verb = sql.split("\\s+", 2)[0].toUpperCase();
+                boolean dataAccess = verb.equals("SELECT") || verb.equals("UPDATE") || verb.equals("DELETE");
+                if (dataAccess && !sql.contains("INFORMATION_SCHEMA") && !FULL_LISTING_QUERIES.contains(sql)) {
+                    statements.add(sql);
+                }
+            }
+        }
+        return statements;
+    }
+
+    /**
+     * Runs EXPLAIN for a statement, binding every parameter to "1" since the plan only depends on which columns are
+     * compared, not on the values.
+     */
+    private String explain(String sql) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement explain = connection.prepareStatement("EXPLAIN " + sql)) {
+            int parameters = explain.getParameterMetaData().getParameterCount();
+            for (int i = 1; i <= parameters; i++) {
+                explain.setString(i, "1");
+            }
+            try (ResultSet resultSet = explain.executeQuery()) {
+                resultSet.next();
+                return resultSet.getString(1).replace('\n', ' ');
+            }
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
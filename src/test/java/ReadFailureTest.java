@@ -0,0 +1,218 @@
+import java.sql.SQLException;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import DAO.DataAccessException;
+import DAO.FollowRepository;
+import DAO.InMemoryAccountRepository;
+import DAO.InMemoryFollowRepository;
+import DAO.InMemoryMessageRepository;
+import Model.Account;
+import Model.Message;
+import Model.VersionedMessage;
+import Service.AccountCache;
+import Service.FeedService;
+import Service.MessageService;
+import Service.TimelineStore;
+
+/**
+ * A repository read or write that fails is passed on to the caller, and is never remembered by a cache as an empty or
+ * missing result.
+ */
+public class ReadFailureTest {
+
+    /**
+     * A lookup that fails reaches the caller and is not cached as "no such account", so the next lookup finds the
+     * account.
+     */
+    @Test
+    public void failedAccountLookupIsNotCached() {
+        FailingAccountRepository accounts = new FailingAccountRepository();
+        Account account = accounts.createAccount(new Account("user1", "password"));
+        AccountCache cache = new AccountCache(accounts, 100, 300);
+
+        accounts.failing = true;
+        Assert.assertThrows(DataAccessException.class, () -> cache.getAccountByID(account.getAccount_id()));
+        Assert.assertThrows(DataAccessException.class, () -> cache.getAccountByUsername("user1"));
+
+        accounts.failing = false;
+        Assert.assertEquals(account, cache.getAccountByID(account.getAccount_id()));
+        Assert.assertEquals(account, cache.getAccountByUsername("user1"));
+    }
+
+    /**
+     * A timeline whose load fails is not kept as a complete, empty timeline: the failure reaches the caller, and the
+     * next read loads the account's messages.
+     */
+    @Test
+    public void failedTimelineLoadIsNotCached() {
+        FailingMessageRepository messages = new FailingMessageRepository(new InMemoryFollowRepository());
+        Message first = messages.createMessage(new Message(1, "first", 1669947792));
+        Message second = messages.createMessage(new Message(1, "second", 1669947793));
+        TimelineStore timelines = new TimelineStore(messages, 10, 10);
+
+        messages.failing = true;
+        Assert.assertThrows(DataAccessException.class, () -> timelines.getMessages(1));
+        Assert.assertEquals(0, timelines.size());
+
+        messages.failing = false;
+        Assert.assertEquals(List.of(second, first), timelines.getMessages(1));
+        Assert.assertEquals(List.of(second, first), timelines.getMessagesBefore(1, Long.MAX_VALUE, Integer.MAX_VALUE, 5));
+    }
+
+    /**
+     * A feed whose load fails is not kept as a complete, empty feed: the failure reaches the caller, and the next
+     * read loads the followed accounts' messages.
+     */
+    @Test
+    public void failedFeedLoadIsNotCached() {
+        InMemoryAccountRepository accounts = new InMemoryAccountRepository();
+        accounts.createAccount(new Account("user1", "password"));
+        accounts.createAccount(new Account("user2", "password"));
+        AccountCache accountCache = new AccountCache(accounts);
+        InMemoryFollowRepository follows = new InMemoryFollowRepository();
+        FailingMessageRepository messages = new FailingMessageRepository(follows);
+        FeedService feeds = new FeedService(follows, messages, new MessageService(accountCache, messages),
+                accountCache, 10, 10, 100);
+        Assert.assertTrue(feeds.follow(2, 1));
+        Message first = messages.createMessage(new Message(1, "first", 1669947792));
+        Message second = messages.createMessage(new Message(1, "second", 1669947793));
+
+        messages.failing = true;
+        Assert.assertThrows(DataAccessException.class, () -> feeds.getFeed(2, Long.MAX_VALUE, Integer.MAX_VALUE, 5));
+        Assert.assertEquals(0, feeds.size());
+
+        messages.failing = false;
+        Assert.assertEquals(List.of(second, first), feeds.getFeed(2, Long.MAX_VALUE, Integer.MAX_VALUE, 5));
+    }
+
+    /**
+     * An update or delete that fails reaches the caller and does not leave the message cached as deleted, so the next
+     * read still finds it.
+     */
+    @Test
+    public void failedWriteIsNotCachedAsDeleted() {
+        InMemoryAccountRepository accounts = new InMemoryAccountRepository();
+        accounts.createAccount(new Account("user1", "password"));
+        FailingMessageRepository messages = new FailingMessageRepository(new InMemoryFollowRepository());
+        MessageService messageService = new MessageService(new AccountCache(accounts), messages);
+        Message message = messageService.createMessage(new Message(1, "kept", 1669947792));
+
+        messages.failing = true;
+        Assert.assertThrows(DataAccessException.class,
+                () -> messageService.updateMessageByID(message.getMessage_id(), "lost"));
+        Assert.assertThrows(DataAccessException.class, () -> messageService.deleteMessageByID(message.getMessage_id()));
+
+        messages.failing = false;
+        Assert.assertEquals(message, messageService.getMessageByID(message.getMessage_id()));
+    }
+
+    /**
+    * A follower lookup that fails after a message is committed does not fail the post; the feeds that missed the
+    * push are reloaded instead, so they still show the message.
+    */
+    @Test
+    public void failedFanOutDoesNotFailThePost() {
+        InMemoryAccountRepository accounts = new InMemoryAccountRepository();
+        accounts.createAccount(new Account("user1", "password"));
+        accounts.createAccount(new Account("user2", "password"));
+        AccountCache accountCache = new AccountCache(accounts);
+        FailingFollowRepository follows = new FailingFollowRepository();
+        InMemoryMessageRepository messages = new InMemoryMessageRepository(follows);
+        MessageService messageService = new MessageService(accountCache, messages);
+        FeedService feeds = new FeedService(follows, messages, messageService, accountCache, 10, 10, 100);
+        messageService.addMessageCreatedListener(feeds::messageCreated);
+        Assert.assertTrue(feeds.follow(2, 1));
+        Assert.assertEquals(List.of(), feeds.getFeed(2, Long.MAX_VALUE, Integer.MAX_VALUE, 5));
+
+        follows.failing = true;
+        Message posted = messageService.createMessage(new Message(1, "posted", 1669947792));
+        Assert.assertNotNull(posted);
+        Assert.assertEquals(0, feeds.size());
+
+        follows.failing = false;
+        Assert.assertEquals(List.of(posted), feeds.getFeed(2, Long.MAX_VALUE, Integer.MAX_VALUE, 5));
+    }
+
+    private static final class FailingAccountRepository extends InMemoryAccountRepository {
+        volatile boolean failing;
+
+        @Override
+        public Account getAccountByUsername(String username) {
+            failIfAsked("getAccountByUsername");
+            return super.getAccountByUsername(username);
+        }
+
+        @Override
+        public Account getAccountByID(int account_id) {
+            failIfAsked("getAccountByID");
+            return super.getAccountByID(account_id);
+        }
+
+        void failIfAsked(String operation) {
+            if (failing) {
+                throw new DataAccessException(operation, new SQLException("database unavailable"));
+            }
+        }
+    }
+
+    private static final class FailingFollowRepository extends InMemoryFollowRepository {
+        volatile boolean failing;
+
+        @Override
+        public List<Integer> getFollowerIDs(int followee_id) {
+            if (failing) {
+                throw new DataAccessException("getFollowerIDs", new SQLException("database unavailable"));
+            }
+            return super.getFollowerIDs(followee_id);
+        }
+    }
+
+    private static final class FailingMessageRepository extends InMemoryMessageRepository {
+        volatile boolean failing;
+
+        FailingMessageRepository(FollowRepository followRepository) {
+            super(followRepository);
+        }
+
+        @Override
+        public List<Message> getAllMessagesFromUser(int account_id) {
+            failIfAsked("getAllMessagesFromUser");
+            return super.getAllMessagesFromUser(account_id);
+        }
+
+        @Override
+        public List<Message> getMessagesFromUserBeforeTime(int account_id, long before_epoch, int before_message_id,
+                                                           int limit) {
+            failIfAsked("getMessagesFromUserBeforeTime");
+            return super.getMessagesFromUserBeforeTime(account_id, before_epoch, before_message_id, limit);
+        }
+
+        @Override
+        public List<Message> getFeedBeforeTime(int follower_id, long before_epoch, int before_message_id, int limit) {
+            failIfAsked("getFeedBeforeTime");
+            return super.getFeedBeforeTime(follower_id, before_epoch, before_message_id, limit);
+        }
+
+        @Override
+        public VersionedMessage updateMessageByID(int message_id, String new_message_text, Integer expected_version,
+                                                  Integer posted_by) {
+            failIfAsked("updateMessageByID");
+            return super.updateMessageByID(message_id, new_message_text, expected_version, posted_by);
+        }
+
+        @Override
+        public VersionedMessage deleteMessageByID(int message_id, Integer expected_version, Integer posted_by) {
+            failIfAsked("deleteMessageByID");
+            return super.deleteMessageByID(message_id, expected_version, posted_by);
+        }
+
+        void failIfAsked(String operation) {
+            if (failing) {
+                throw new DataAccessException(operation, new SQLException("database unavailable"));
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveMessagesPageTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. Two more messages are posted so that there are three in total.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+        postMessage("second message", 1669947793);
+        postMessage("third message", 1669947794);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending http requests to GET localhost:8080/messages?limit=2, then following the X-Next-Cursor header
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the first two messages, then the third, and no cursor after the last page
+     */
+    @Test
+    public void getMessagesPageFollowsCursor() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("http://localhost:8080/messages?limit=2");
+        Assert.assertEquals(200, first.statusCode());
+        List<Message> firstPage = objectMapper.readValue(first.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(2, firstPage.size());
+        Assert.assertEquals(1, firstPage.get(0).getMessage_id());
+        Assert.assertEquals(2, firstPage.get(1).getMessage_id());
+        String cursor = first.headers().firstValue("X-Next-Cursor").orElse(null);
+        Assert.assertEquals("2", cursor);
+
+        HttpResponse<String> second = get("http://localhost:8080/messages?limit=2&after=" + cursor);
+        Assert.assertEquals(200, second.statusCode());
+        List<Message> secondPage = objectMapper.readValue(second.body(), new TypeReference<List<Message>>(){});
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(3, 1, "third message", 1669947794));
+        Assert.assertEquals(expectedResult, secondPage);
+        Assert.assertFalse(second.headers().firstValue("X-Next-Cursor").isPresent());
+    }
+
+    /**
+     * Sending http requests to GET localhost:8080/messages?order=recent&limit=2, then following the cursor
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: messages newest first, split across two pages
+     */
+    @Test
+    public void getMessagesRecentFirstPage() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("http://localhost:8080/messages?order=recent&limit=2");
+        Assert.assertEquals(200, first.statusCode());
+        List<Message> firstPage = objectMapper.readValue(first.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(3, firstPage.get(0).getMessage_id());
+        Assert.assertEquals(2, firstPage.get(1).getMessage_id());
+        String cursor = first.headers().firstValue("X-Next-Cursor").orElse(null);
+        Assert.assertEquals("1669947793_2", cursor);
+
+        HttpResponse<String> second = get("http://localhost:8080/messages?order=recent&limit=2&after=" + cursor);
+        List<Message> secondPage = objectMapper.readValue(second.body(), new TypeReference<List<Message>>(){});
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        Assert.assertEquals(expectedResult, secondPage);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?limit=abc
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void getMessagesPageInvalidLimit() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("http://localhost:8080/messages?limit=abc");
+        Assert.assertEquals(400, response.statusCode());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?stream=true
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of every message, in message_id order
+     */
+    @Test
+    public void getMessagesStreamed() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("http://localhost:8080/messages?stream=true");
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        expectedResult.add(new Message(2, 1, "second message", 1669947793));
+        expectedResult.add(new Message(3, 1, "third message", 1669947794));
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(expectedResult, actualResult);
+    }
+
+    /**
+     * Streaming reads the table a page at a time and holds no connection while a page's messages are being written, so
+     * slow clients cannot keep connections from other requests.
+     */
+    @Test
+    public void streamHoldsNoConnectionBetweenPages() {
+        System.setProperty("socialmedia.stream.pageSize", "2");
+        MessageDAO messageDAO;
+        try {
+            messageDAO = new MessageDAO();
+        } finally {
+            System.clearProperty("socialmedia.stream.pageSize");
+        }
+        int activeBefore = ConnectionUtil.getPool().getActiveConnections();
+        List<Message> streamed = new ArrayList<>();
+        List<Integer> activeConnections = new ArrayList<>();
+        messageDAO.streamAllMessages(message -> {
+            streamed.add(message);
+            activeConnections.add(ConnectionUtil.getPool().getActiveConnections());
+        });
+
+        Assert.assertEquals(messageDAO.getAllMessages(), streamed);
+        Assert.assertEquals(List.of(activeBefore, activeBefore, activeBefore), activeConnections);
+    }
+
+    private HttpResponse<String> get(String uri) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(uri))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void postMessage(String text, long epoch) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": " + epoch + "}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+}
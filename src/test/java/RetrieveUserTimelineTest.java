@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveUserTimelineTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app with timelines of only three messages, and
+     * create a new webClient and ObjectMapper for interacting locally on the web. Four more messages are posted out
+     * of time order, so user 1 has five messages, more than a timeline holds.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        ConnectionUtil.resetTestDatabase();
+        System.setProperty("socialmedia.timeline.size", "3");
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+        postMessage("b", 1669947795);
+        postMessage("a", 1669947793);
+        postMessage("c", 1669947797);
+        postMessage("d", 1669947794);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("socialmedia.timeline.size");
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/messages
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: all five messages, newest first
+     */
+    @Test
+    public void getUserMessagesNewestFirst() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("http://localhost:8080/accounts/1/messages");
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(4, 1, "c", 1669947797));
+        expectedResult.add(new Message(2, 1, "b", 1669947795));
+        expectedResult.add(new Message(5, 1, "d", 1669947794));
+        expectedResult.add(new Message(3, 1, "a", 1669947793));
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        Assert.assertEquals(expectedResult, readMessages(response));
+    }
+
+    /**
+     * Sending http requests to GET localhost:8080/accounts/1/messages?limit=2, then following the X-Next-Cursor
+     * header past the end of the timeline
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the five messages newest first over three pages, and no cursor after the last page
+     */
+    @Test
+    public void getUserMessagesPageFollowsCursor() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("http://localhost:8080/accounts/1/messages?limit=2");
+        List<Message> firstPage = readMessages(first);
+        Assert.assertEquals(4, firstPage.get(0).getMessage_id());
+        Assert.assertEquals(2, firstPage.get(1).getMessage_id());
+        String cursor = first.headers().firstValue("X-Next-Cursor").orElse(null);
+        Assert.assertEquals("1669947795_2", cursor);
+
+        HttpResponse<String> second = get("http://localhost:8080/accounts/1/messages?limit=2&after=" + cursor);
+        List<Message> secondPage = readMessages(second);
+        Assert.assertEquals(5, secondPage.get(0).getMessage_id());
+        Assert.assertEquals(3, secondPage.get(1).getMessage_id());
+        cursor = second.headers().firstValue("X-Next-Cursor").orElse(null);
+
+        HttpResponse<String> third = get("http://localhost:8080/accounts/1/messages?limit=2&after=" + cursor);
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        Assert.assertEquals(expectedResult, readMessages(third));
+        Assert.assertFalse(third.headers().firstValue("X-Next-Cursor").isPresent());
+    }
+
+    /**
+     * Once the timeline is loaded, deleting, updating and posting messages is reflected in the next page read.
+     */
+    @Test
+    public void getUserMessagesAfterChanges() throws IOException, InterruptedException {
+        get("http://localhost:8080/accounts/1/messages?limit=2");
+
+        HttpRequest deleteRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/4"))
+                .DELETE()
+                .build();
+        webClient.send(deleteRequest, HttpResponse.BodyHandlers.ofString());
+        HttpRequest patchRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"updated b\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(patchRequest, HttpResponse.BodyHandlers.ofString());
+        postMessage("e", 1669947799);
+
+        HttpResponse<String> response = get("http://localhost:8080/accounts/1/messages?limit=2");
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(6, 1, "e", 1669947799));
+        expectedResult.add(new Message(2, 1, "updated b", 1669947795));
+        Assert.assertEquals(expectedResult, readMessages(response));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/messages?after=abc
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void getUserMessagesInvalidCursor() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("http://localhost:8080/accounts/1/messages?after=abc");
+        Assert.assertEquals(400, response.statusCode());
+    }
+
+    private List<Message> readMessages(HttpResponse<String> response) throws IOException {
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    private HttpResponse<String> get(String uri) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(uri))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void postMessage(String text, long epoch) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": " + epoch + "}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,227 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.InMemoryFollowRepository;
+import DAO.InMemoryMessageRepository;
+import Model.Message;
+import Service.SearchIndex;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class SearchMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. Three more messages are posted, so user 1 has four.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        ConnectionUtil.resetTestDatabase();
+        System.setProperty("socialmedia.search.enabled", "true");
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+        postMessage("The quick brown fox", 1669947793);
+        postMessage("A brown dog, quick!", 1669947795);
+        postMessage("quick thinking", 1669947794);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("socialmedia.search.enabled");
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search?q=Quick BROWN
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the messages containing both terms in any case, newest first
+     */
+    @Test
+    public void searchMatchesEveryTerm() throws IOException, InterruptedException {
+        HttpResponse<String> response = search("Quick BROWN", "");
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(3, 1, "A brown dog, quick!", 1669947795));
+        expectedResult.add(new Message(2, 1, "The quick brown fox", 1669947793));
+        Assert.assertEquals(expectedResult, readMessages(response));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search?q="quick brown"
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: only the message with the words next to each other, in order
+     */
+    @Test
+    public void searchMatchesPhrase() throws IOException, InterruptedException {
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(2, 1, "The quick brown fox", 1669947793));
+        Assert.assertEquals(expectedResult, readMessages(search("\"quick brown\"", "")));
+    }
+
+    /**
+     * Sending http requests to GET localhost:8080/messages/search?q=quick&limit=2, then following the X-Next-Cursor
+     * header
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the three matching messages newest first over two pages
+     */
+    @Test
+    public void searchPagesFollowCursor() throws IOException, InterruptedException {
+        HttpResponse<String> first = search("quick", "&limit=2");
+        List<Message> firstPage = readMessages(first);
+        Assert.assertEquals(2, firstPage.size());
+        Assert.assertEquals(3, firstPage.get(0).getMessage_id());
+        Assert.assertEquals(4, firstPage.get(1).getMessage_id());
+        String cursor = first.headers().firstValue("X-Next-Cursor").orElse(null);
+        Assert.assertEquals("1669947794_4", cursor);
+
+        HttpResponse<String> second = search("quick", "&limit=2&after=" + cursor);
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(2, 1, "The quick brown fox", 1669947793));
+        Assert.assertEquals(expectedResult, readMessages(second));
+        Assert.assertFalse(second.headers().firstValue("X-Next-Cursor").isPresent());
+    }
+
+    /**
+     * Updating and deleting messages is reflected in the next search, and a restarted app rebuilds the index from
+     * the database.
+     */
+    @Test
+    public void searchFollowsChangesAndRebuilds() throws IOException, InterruptedException {
+        HttpRequest patchRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/4"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"slow thinking\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(patchRequest, HttpResponse.BodyHandlers.ofString());
+        HttpRequest deleteRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/3"))
+                .DELETE()
+                .build();
+        webClient.send(deleteRequest, HttpResponse.BodyHandlers.ofString());
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(2, 1, "The quick brown fox", 1669947793));
+        Assert.assertEquals(expectedResult, readMessages(search("quick", "")));
+
+        app.stop();
+        app = new SocialMediaController().startAPI();
+        app.start(8080);
+        List<Message> rebuiltResult = new ArrayList<>();
+        rebuiltResult.add(new Message(4, 1, "slow thinking", 1669947794));
+        Assert.assertEquals(rebuiltResult, readMessages(search("slow", "")));
+        Assert.assertEquals(expectedResult, readMessages(search("quick", "")));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search with no query, and with a query of punctuation
+     *
+     * Expected Response:
+     *  Status Code: 400 for the missing query; 200 with no messages for the query without words
+     */
+    @Test
+    public void searchWithoutWords() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/search"))
+                .build();
+        Assert.assertEquals(400, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        HttpResponse<String> response = search("!?", "");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(readMessages(response).isEmpty());
+    }
+
+    /**
+     * An update moves a message out of the postings of its old text, so edits do not grow the index. A message changed
+     * since it was indexed is caught by the check against its current text, and the search reads further candidates
+     * until the page is full.
+     */
+    @Test
+    public void searchSkipsChangedMessages() {
+        InMemoryMessageRepository repository = new InMemoryMessageRepository(new InMemoryFollowRepository());
+        for (int i = 1; i <= 5; i++) {
+            repository.createMessage(new Message(1, "quick " + i, i));
+        }
+        SearchIndex index = new SearchIndex(repository);
+        for (int message_id = 3; message_id <= 5; message_id++) {
+            index.messageUpdated(repository.updateMessageByID(message_id, "slow " + message_id));
+        }
+        Assert.assertEquals(10L, index.getStats().get("postings"));
+        repository.updateMessageByID(2, "slow 2"); // not indexed yet
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(1, 1, "quick 1", 1));
+        Assert.assertEquals(expectedResult, index.search("quick", Long.MAX_VALUE, Integer.MAX_VALUE, 1));
+        Assert.assertEquals(5, index.getStats().get("messages"));
+
+        index.messageDeleted(new Message(5, 1, "slow 5", 5));
+        Assert.assertEquals(8L, index.getStats().get("postings"));
+    }
+
+    /**
+     * Without socialmedia.search.enabled no index is built, and searches are answered with 404.
+     */
+    @Test
+    public void searchDisabledByDefault() throws IOException, InterruptedException {
+        app.stop();
+        System.clearProperty("socialmedia.search.enabled");
+        app = new SocialMediaController().startAPI();
+        app.start(8080);
+        Assert.assertEquals(404, search("quick", "").statusCode());
+    }
+
+    private List<Message> readMessages(HttpResponse<String> response) throws IOException {
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    private HttpResponse<String> search(String query, String parameters) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/search?q="
+                        + URLEncoder.encode(query, StandardCharsets.UTF_8) + parameters))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void postMessage(String text, long epoch) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": " + epoch + "}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+}
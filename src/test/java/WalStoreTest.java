@@ -0,0 +1,309 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import Controller.SocialMediaController;
+import DAO.MessageRepository;
+import DAO.WalStore;
+import Model.Account;
+import Model.Message;
+import Model.VersionedMessage;
+import io.javalin.Javalin;
+
+public class WalStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Everything written before the store is closed is read back when it is opened again, versions included.
+     */
+    @Test
+    public void stateSurvivesRestart() throws IOException {
+        Path directory = folder.newFolder("wal").toPath();
+        WalStore store = new WalStore(directory, 1 << 20, false, 100000);
+        List<String> states = runOperations(store, new Random(1), 300);
+        Assert.assertNotNull(store.getAccountRepository().createAccount(new Account("user4", "password")));
+        Assert.assertNull(store.getAccountRepository().createAccount(new Account("user4", "other")));
+        Assert.assertTrue(store.getAccountRepository().updatePassword(4, "password", "changed"));
+        Assert.assertTrue(store.getFollowRepository().follow(4, 1));
+        Assert.assertTrue(store.getFollowRepository().unfollow(4, 1));
+        store.close();
+
+        WalStore reopened = new WalStore(directory, 1 << 20, false, 100000);
+        Assert.assertEquals(states.get(states.size() - 1), state(reopened));
+        Assert.assertEquals(new Account(4, "user4", "changed"),
+                reopened.getAccountRepository().getAccountByUsername("user4"));
+        Assert.assertEquals(List.of(), reopened.getFollowRepository().getFolloweeIDs(4));
+        Assert.assertEquals(5, reopened.getAccountRepository().createAccount(new Account("user5", "password"))
+                .getAccount_id());
+        reopened.close();
+    }
+
+    /**
+     * A log cut off at any offset, as by a crash in the middle of a write, is recovered up to its last whole record:
+     * the state read back is the state after some prefix of the operations, and a longer log never recovers fewer.
+     */
+    @Test
+    public void truncatedLogRecoversPrefix() throws IOException {
+        Path directory = folder.newFolder("wal").toPath();
+        WalStore store = new WalStore(directory, 1 << 20, false, 100000);
+        List<String> states = runOperations(store, new Random(2), 400);
+        store.close();
+        Path log = directory.resolve("log-0.wal");
+        int end = dataEnd(log);
+
+        Random random = new Random(3);
+        int[] offsets = new int[25];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = random.nextInt(end + 1);
+        }
+        Arrays.sort(offsets);
+        int previous = 0;
+        for (int offset : offsets) {
+            Path copy = copyOf(directory);
+            truncate(copy.resolve("log-0.wal"), offset);
+            WalStore recovered = new WalStore(copy, 1 << 20, false, 100000);
+            int recoveredTo = states.indexOf(state(recovered));
+            Assert.assertTrue("offset " + offset + " recovered no prefix", recoveredTo >= 0);
+            Assert.assertTrue("offset " + offset + " recovered less than a shorter log", recoveredTo >= previous);
+            previous = recoveredTo;
+            // the recovered store takes new writes after its last whole record, and keeps them
+            Assert.assertNotNull(recovered.getMessageRepository().createMessage(new Message(1, "after", 1)));
+            String afterWrite = state(recovered);
+            recovered.close();
+            WalStore reopened = new WalStore(copy, 1 << 20, false, 100000);
+            Assert.assertEquals(afterWrite, state(reopened));
+            reopened.close();
+        }
+        Assert.assertEquals(states.size() - 1, states.indexOf(state(new WalStore(directory, 1 << 20, false, 100000))));
+    }
+
+    /**
+     * A byte flipped in the middle of the log fails its record's checksum, and recovery stops just before it.
+     */
+    @Test
+    public void corruptRecordEndsRecovery() throws IOException {
+        Path directory = folder.newFolder("wal").toPath();
+        WalStore store = new WalStore(directory, 1 << 20, false, 100000);
+        List<String> states = runOperations(store, new Random(4), 200);
+        store.close();
+        Path log = directory.resolve("log-0.wal");
+        byte[] bytes = Files.readAllBytes(log);
+        bytes[dataEnd(log) / 2] ^= 0x40;
+        Files.write(log, bytes);
+
+        int recoveredTo = states.indexOf(state(new WalStore(directory, 1 << 20, false, 100000)));
+        Assert.assertTrue(recoveredTo > 0 && recoveredTo < states.size() - 1);
+    }
+
+    /**
+     * With small log files and frequent snapshots, the log rolls over many times; the old files are replaced by the
+     * newest snapshot, and a truncated tail after it recovers the snapshot's state plus a prefix of what followed.
+     */
+    @Test
+    public void snapshotPlusTruncatedTailRecovers() throws IOException {
+        Path directory = folder.newFolder("wal").toPath();
+        WalStore store = new WalStore(directory, 4096, false, 50);
+        List<String> before = runOperations(store, new Random(5), 500);
+        store.snapshot();
+        List<String> after = runOperations(store, new Random(6), 40);
+        store.close();
+
+        // every roll-over wrote a snapshot, and the newest replaced all the files before it
+        List<Path> snapshots = list(directory, ".snap");
+        List<Path> logs = list(directory, ".wal");
+        Assert.assertEquals(1, snapshots.size());
+        Assert.assertEquals(1, logs.size());
+        Assert.assertNotEquals("log-0.wal", logs.get(0).getFileName().toString());
+        Path lastLog = logs.get(0);
+
+        Random random = new Random(7);
+        for (int i = 0; i < 10; i++) {
+            Path copy = copyOf(directory);
+            truncate(copy.resolve(lastLog.getFileName()), random.nextInt(dataEnd(lastLog) + 1));
+            String recovered = state(new WalStore(copy, 4096, false, 50));
+            Assert.assertTrue(recovered.equals(before.get(before.size() - 1)) || after.contains(recovered));
+        }
+        Assert.assertEquals(after.get(after.size() - 1), state(new WalStore(directory, 4096, false, 50)));
+    }
+
+    /**
+     * With socialmedia.storage=wal, what one server accepted is served by the next one started on the same directory.
+     */
+    @Test
+    public void serverRestartKeepsMessages() throws IOException, InterruptedException {
+        System.setProperty("socialmedia.storage", "wal");
+        System.setProperty("socialmedia.wal.dir", folder.newFolder("wal").toString());
+        System.setProperty("socialmedia.password.iterations", "1000");
+        try {
+            HttpClient webClient = HttpClient.newHttpClient();
+            Javalin app = new SocialMediaController().startAPI().start(8080);
+            Thread.sleep(1000);
+            Assert.assertEquals(200, send(webClient, "/register",
+                    "{\"username\": \"user1\", \"password\": \"password\"}").statusCode());
+            Assert.assertEquals(200, send(webClient, "/messages",
+                    "{\"posted_by\": 1, \"message_text\": \"kept\", \"time_posted_epoch\": 1669947792}")
+                    .statusCode());
+            app.stop();
+
+            app = new SocialMediaController().startAPI().start(8080);
+            Thread.sleep(1000);
+            HttpResponse<String> response = webClient.send(
+                    HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/1")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            app.stop();
+            Assert.assertEquals("{\"message_id\":1,\"posted_by\":1,\"message_text\":\"kept\","
+                    + "\"time_posted_epoch\":1669947792}", response.body());
+        } finally {
+            System.clearProperty("socialmedia.storage");
+            System.clearProperty("socialmedia.wal.dir");
+            System.clearProperty("socialmedia.password.iterations");
+        }
+    }
+
+    /**
+     * A change that cannot be appended to the log, here one too big for a log file, is answered with 500 rather than
+     * 400, and is not applied.
+     */
+    @Test
+    public void failedAppendAnswers500() throws IOException, InterruptedException {
+        System.setProperty("socialmedia.storage", "wal");
+        System.setProperty("socialmedia.wal.dir", folder.newFolder("wal").toString());
+        System.setProperty("socialmedia.wal.logSize", "256");
+        System.setProperty("socialmedia.password.iterations", "1000");
+        Javalin app = new SocialMediaController().startAPI().start(8080);
+        try {
+            HttpClient webClient = HttpClient.newHttpClient();
+            Thread.sleep(1000);
+            Assert.assertEquals(200, send(webClient, "/register",
+                    "{\"username\": \"user1\", \"password\": \"password\"}").statusCode());
+            Assert.assertEquals(500, send(webClient, "/register",
+                    "{\"username\": \"" + "u".repeat(300) + "\", \"password\": \"password\"}").statusCode());
+            Assert.assertEquals(500, send(webClient, "/messages", "{\"posted_by\": 1, \"message_text\": \""
+                    + "m".repeat(250) + "\", \"time_posted_epoch\": 1669947792}").statusCode());
+
+            HttpResponse<String> response = webClient.send(
+                    HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals("[]", response.body());
+        } finally {
+            app.stop();
+            System.clearProperty("socialmedia.storage");
+            System.clearProperty("socialmedia.wal.dir");
+            System.clearProperty("socialmedia.wal.logSize");
+            System.clearProperty("socialmedia.password.iterations");
+        }
+    }
+
+    private HttpResponse<String> send(HttpClient webClient, String path, String body)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Makes three accounts, then creates, updates and deletes messages and adds follows at random.
+     *
+     * @return the state after each operation, from before the first one on.
+     */
+    private List<String> runOperations(WalStore store, Random random, int operations) {
+        MessageRepository messages = store.getMessageRepository();
+        for (int i = 1; i <= 3; i++) {
+            store.getAccountRepository().createAccount(new Account("user" + i, "password"));
+        }
+        List<String> states = new ArrayList<>();
+        states.add(state(store));
+        for (int i = 0; i < operations; i++) {
+            List<Message> all = messages.getAllMessages();
+            int choice = random.nextInt(20);
+            if (all.isEmpty() || choice < 12) {
+                messages.createMessage(new Message(1 + random.nextInt(3), "message " + i, random.nextInt(1000)));
+            } else if (choice < 16) {
+                Message message = all.get(random.nextInt(all.size()));
+                Assert.assertNotNull(messages.updateMessageByID(message.getMessage_id(), "updated " + i));
+            } else if (choice < 18) {
+                Message message = all.get(random.nextInt(all.size()));
+                Assert.assertNotNull(messages.deleteMessageByID(message.getMessage_id()));
+            } else {
+                // only ever following keeps every state different from all but its neighbours, so a state found in
+                // the list tells how far recovery got
+                store.getFollowRepository().follow(1 + random.nextInt(3), 1 + random.nextInt(3));
+            }
+            states.add(state(store));
+        }
+        return states;
+    }
+
+    /**
+     * @return every message with its version, each account's messages newest first, and each account's follows.
+     */
+    private String state(WalStore store) {
+        MessageRepository messages = store.getMessageRepository();
+        StringBuilder state = new StringBuilder();
+        for (Message message : messages.getAllMessages()) {
+            VersionedMessage versioned = messages.getVersionedMessageByID(message.getMessage_id());
+            state.append(versioned.getVersion()).append(' ').append(message).append('\n');
+        }
+        for (int account_id = 1; account_id <= 3; account_id++) {
+            state.append(messages.getAllMessagesFromUser(account_id).stream()
+                    .map(m -> String.valueOf(m.getMessage_id())).collect(Collectors.joining(",")));
+            state.append(' ').append(store.getFollowRepository().getFolloweeIDs(account_id).stream()
+                    .sorted().collect(Collectors.toList())).append('\n');
+        }
+        return state.toString();
+    }
+
+    /**
+     * @return the offset just past the last byte of the file that is not zero.
+     */
+    private int dataEnd(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] == 0) {
+            end--;
+        }
+        return end;
+    }
+
+    private void truncate(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+
+    private Path copyOf(Path directory) throws IOException {
+        Path copy = folder.newFolder().toPath();
+        for (Path file : list(directory, "")) {
+            Files.copy(file, copy.resolve(file.getFileName()));
+        }
+        return copy;
+    }
+
+    private List<Path> list(Path directory, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(suffix)).sorted().collect(Collectors.toList());
+        }
+    }
+}